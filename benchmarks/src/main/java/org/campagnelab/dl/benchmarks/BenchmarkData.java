@@ -0,0 +1,66 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.genotype.learning.GenotypeTrainingArguments;
+import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
+import org.campagnelab.dl.genotype.mappers.GenotypeMapperV21;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Input data shared by the benchmarks: synthetic records written to an .sbi file in a temporary directory, and the
+ * genotype domain configured with a production feature mapper.
+ */
+public class BenchmarkData {
+    public static final long SEED = 2398823;
+    public static final String PRODUCTION_MAPPER = GenotypeMapperV21.class.getCanonicalName();
+
+    private final File directory;
+
+    public BenchmarkData() throws IOException {
+        directory = Files.createTempDirectory("variation-benchmarks").toFile();
+    }
+
+    /**
+     * Return a basename in the temporary directory of this benchmark.
+     */
+    public String basename(String name) {
+        return new File(directory, name).getAbsolutePath();
+    }
+
+    public void delete() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * Create a genotype domain descriptor that maps records with the production feature mapper. The mapper is
+     * configured with the statistics of the sbi file.
+     *
+     * @param sbiBasename basename of an .sbi file written with SyntheticRecords#write.
+     * @return the domain descriptor.
+     */
+    public static GenotypeDomainDescriptor genotypeDomain(String sbiBasename) {
+        GenotypeTrainingArguments arguments = new GenotypeTrainingArguments();
+        arguments.featureMapperClassname = PRODUCTION_MAPPER;
+        arguments.trainingSets.add(sbiBasename + ".sbi");
+        return new GenotypeDomainDescriptor(arguments);
+    }
+
+    /**
+     * Create an adapter that assembles minibatches from records held in memory.
+     */
+    public static MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation> adapter(
+            Iterable<BaseInformationRecords.BaseInformation> records, int miniBatchSize,
+            GenotypeDomainDescriptor domain) throws IOException {
+        return new MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation>(records, miniBatchSize, domain) {
+            @Override
+            public String getBasename() {
+                return "synthetic";
+            }
+        };
+    }
+}
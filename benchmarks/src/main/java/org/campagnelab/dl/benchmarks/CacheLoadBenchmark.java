@@ -0,0 +1,93 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure how many minibatches per second are loaded back from a feature cache (.cf file). The cache holds
+ * minibatches mapped by the production genotype feature mapper, in the format written by MapMultiDatasetFeatures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheLoadBenchmark {
+    private static final int NUM_RECORDS = 4096;
+    private static final int MINIBATCH_SIZE = 128;
+    private static final int NUM_MINIBATCHES = NUM_RECORDS / MINIBATCH_SIZE;
+
+    /**
+     * streamed reads the cache with MultiDatasetMappedFeaturesIterator, memoryMapped with
+     * MultiDatasetMemoryMappedFeaturesIterator.
+     */
+    @Param({"streamed", "memoryMapped"})
+    public String iterator;
+
+    /**
+     * Codec used to store the minibatches in the cache (see CacheCodec).
+     */
+    @Param({"none", "lz4"})
+    public String codec;
+
+    private BenchmarkData data;
+    private String cacheBasename;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = new BenchmarkData();
+        String sbiBasename = data.basename("records");
+        List<BaseInformationRecords.BaseInformation> records = new SyntheticRecords(BenchmarkData.SEED).generate(NUM_RECORDS);
+        SyntheticRecords.write(records, sbiBasename);
+        cacheBasename = data.basename("cache");
+        MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation> adapter =
+                BenchmarkData.adapter(records, MINIBATCH_SIZE, BenchmarkData.genotypeDomain(sbiBasename));
+        CacheCodec cacheCodec = CacheCodec.forName(codec);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheBasename + ".cf")))) {
+            while (adapter.hasNext()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                adapter.next().save(bytes);
+                byte[] encoded = cacheCodec.encode(bytes.toByteArray());
+                output.writeInt(encoded.length);
+                output.write(encoded);
+            }
+        }
+        Properties cfp = new Properties();
+        cfp.put("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        cfp.put("numRecords", Integer.toString(NUM_RECORDS));
+        cacheCodec.putProperties(cfp);
+        try (FileWriter writer = new FileWriter(cacheBasename + ".cfp")) {
+            cfp.store(writer, "benchmark cache");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_MINIBATCHES)
+    public void loadMinibatches(Blackhole blackhole) {
+        MultiDataSetIterator minibatches = "memoryMapped".equals(iterator) ?
+                new MultiDatasetMemoryMappedFeaturesIterator(cacheBasename) :
+                new MultiDatasetMappedFeaturesIterator(cacheBasename);
+        while (minibatches.hasNext()) {
+            MultiDataSet minibatch = minibatches.next();
+            blackhole.consume(minibatch);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
+import org.campagnelab.dl.somatic.mappers.DensityMapper;
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure how many records per second a feature mapper maps into a minibatch. Each invocation maps one record,
+ * cycling through a fixed set of synthetic records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapperBenchmark {
+    private static final int NUM_RECORDS = 1024;
+    private static final int MINIBATCH_SIZE = 128;
+
+    /**
+     * Classname of the feature mapper, or DensityMapper to benchmark a single density on its own.
+     */
+    @Param({"org.campagnelab.dl.somatic.mappers.FeatureMapperV25",
+            "org.campagnelab.dl.genotype.mappers.GenotypeMapperV19",
+            "org.campagnelab.dl.genotype.mappers.GenotypeMapperV20",
+            "org.campagnelab.dl.genotype.mappers.GenotypeMapperV21",
+            "DensityMapper"})
+    public String mapper;
+
+    private BenchmarkData data;
+    private List<BaseInformationRecords.BaseInformation> records;
+    private FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> featureMapper;
+    private INDArray features;
+    private int recordIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ReflectiveOperationException {
+        data = new BenchmarkData();
+        records = new SyntheticRecords(BenchmarkData.SEED).generate(NUM_RECORDS);
+        Properties properties = SyntheticRecords.write(records, data.basename("records"));
+        featureMapper = newMapper(properties);
+        features = Nd4j.zeros(MINIBATCH_SIZE, featureMapper.numberOfFeatures());
+    }
+
+    @SuppressWarnings("unchecked")
+    private FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> newMapper(Properties properties)
+            throws ReflectiveOperationException {
+        if ("DensityMapper".equals(mapper)) {
+            return new DensityMapper("baseQuality.forward", 10, properties,
+                    TraversalHelper.allSampleCounts(BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList));
+        }
+        FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> result =
+                (FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>) Class.forName(mapper).newInstance();
+        if (result instanceof ConfigurableFeatureMapper) {
+            ((ConfigurableFeatureMapper) result).configure(properties);
+        }
+        return result;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MappingContext.clear();
+        data.delete();
+    }
+
+    @Benchmark
+    public INDArray mapRecord() {
+        final int index = recordIndex++ % NUM_RECORDS;
+        BaseInformationRecords.BaseInformation record = records.get(index);
+        featureMapper.prepareToNormalize(record, index % MINIBATCH_SIZE);
+        featureMapper.mapFeatures(record, features, index % MINIBATCH_SIZE);
+        return features;
+    }
+}
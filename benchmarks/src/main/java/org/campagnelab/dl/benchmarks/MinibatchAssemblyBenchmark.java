@@ -0,0 +1,61 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure how many records per second MultiDataSetIteratorAdapter maps and assembles into minibatches, including
+ * the label mappers and masks of the genotype domain. Records are held in memory, so that the benchmark does not
+ * measure decompression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MinibatchAssemblyBenchmark {
+    private static final int NUM_RECORDS = 2048;
+
+    @Param({"32", "128"})
+    public int miniBatchSize;
+
+    @Param({"1", "4"})
+    public int mappingThreads;
+
+    private BenchmarkData data;
+    private MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation> adapter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = new BenchmarkData();
+        String sbiBasename = data.basename("records");
+        List<BaseInformationRecords.BaseInformation> records = new SyntheticRecords(BenchmarkData.SEED).generate(NUM_RECORDS);
+        SyntheticRecords.write(records, sbiBasename);
+        GenotypeDomainDescriptor domain = BenchmarkData.genotypeDomain(sbiBasename);
+        adapter = BenchmarkData.adapter(records, miniBatchSize, domain);
+        adapter.setNumMappingThreads(mappingThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.setNumMappingThreads(1);
+        data.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_RECORDS)
+    public void assembleMinibatches(Blackhole blackhole) {
+        adapter.reset();
+        while (adapter.hasNext()) {
+            blackhole.consume(adapter.next());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.somatic.storage.RecordReader;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure how many records per second the record reader decompresses and parses from an .sbi file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordReaderBenchmark {
+    private static final int NUM_RECORDS = 10000;
+
+    private BenchmarkData data;
+    private String basename;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = new BenchmarkData();
+        basename = data.basename("records");
+        SyntheticRecords.write(new SyntheticRecords(BenchmarkData.SEED).generate(NUM_RECORDS), basename);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_RECORDS)
+    public void readRecords(Blackhole blackhole) throws IOException {
+        RecordReader reader = new RecordReader(basename);
+        BaseInformationRecords.BaseInformation record;
+        while ((record = reader.nextRecord()) != null) {
+            blackhole.consume(record);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,21 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.Arrays;
+
+/**
+ * Run the benchmarks of this module with the GC profiler, so that allocation rates (bytes allocated per record or
+ * minibatch) are reported next to throughput. Arguments are passed to the JMH command line, for instance:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar MapperBenchmark -p mapper=org.campagnelab.dl.genotype.mappers.GenotypeMapperV21
+ * </pre>
+ */
+public class RunBenchmarks {
+    public static void main(String[] args) throws Exception {
+        String[] arguments = Arrays.copyOf(args, args.length + 2);
+        arguments[args.length] = "-prof";
+        arguments[args.length + 1] = "gc";
+        Main.main(arguments);
+    }
+}
@@ -0,0 +1,176 @@
+package org.campagnelab.dl.benchmarks;
+
+import it.unimi.dsi.fastutil.ints.Int2IntAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.somatic.learning.SomaticTrainer;
+import org.campagnelab.dl.somatic.storage.RecordWriter;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Generates base information records that resemble those produced by the Goby sbi writer on real alignments: a
+ * germline and a tumor sample, five genotypes per sample with a dominant reference allele, and distributions of
+ * base qualities, read indices, mapping qualities, aligned lengths and distances to other variations.
+ * Records are generated from a fixed seed, so that benchmarks always map the same records.
+ */
+public class SyntheticRecords {
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final int CONTEXT_LENGTH = 21;
+    private final Random random;
+
+    public SyntheticRecords(long seed) {
+        random = new XoRoShiRo128PlusRandom(seed);
+    }
+
+    /**
+     * Generate records.
+     *
+     * @param numRecords number of records to generate.
+     * @return the records.
+     */
+    public List<BaseInformationRecords.BaseInformation> generate(int numRecords) {
+        List<BaseInformationRecords.BaseInformation> records = new ObjectArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            records.add(next(i * 13));
+        }
+        return records;
+    }
+
+    /**
+     * Write records to an .sbi file. The sbi writer also stores the statistics that mappers need (e.g., the
+     * range of each density) in the .sbip file.
+     *
+     * @param records  records to write.
+     * @param basename basename of the .sbi/.sbip files.
+     * @return the properties of the written file.
+     * @throws IOException when the file cannot be written.
+     */
+    public static Properties write(List<BaseInformationRecords.BaseInformation> records, String basename) throws IOException {
+        FileUtils.forceMkdir(new File(basename).getAbsoluteFile().getParentFile());
+        RecordWriter writer = new RecordWriter(basename);
+        for (BaseInformationRecords.BaseInformation record : records) {
+            writer.writeRecord(record);
+        }
+        writer.close();
+        return SomaticTrainer.getReaderProperties(basename);
+    }
+
+    private BaseInformationRecords.BaseInformation next(int position) {
+        BaseInformationRecords.BaseInformation.Builder record = BaseInformationRecords.BaseInformation.newBuilder();
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < CONTEXT_LENGTH; i++) {
+            context.append(BASES[random.nextInt(4)]);
+        }
+        final String referenceBase = context.substring(CONTEXT_LENGTH / 2, CONTEXT_LENGTH / 2 + 1);
+        // one site in ten is heterozygous:
+        final boolean heterozygous = random.nextInt(10) == 0;
+        final String alternateBase = BASES[(indexOf(referenceBase) + 1 + random.nextInt(3)) % 4];
+        final boolean mutated = random.nextInt(20) == 0;
+        record.setReferenceId("chr" + (1 + random.nextInt(22)));
+        record.setPosition(position);
+        record.setReferenceIndex(random.nextInt(22));
+        record.setReferenceBase(referenceBase);
+        record.setGenomicSequenceContext(context.toString());
+        record.setTrueGenotype(heterozygous ? referenceBase + "/" + alternateBase : referenceBase + "/" + referenceBase);
+        record.setMutated(mutated);
+        if (mutated) {
+            record.setMutatedBase(alternateBase);
+            record.setIndexOfMutatedBase(indexOf(alternateBase));
+            record.setFrequencyOfMutation(random.nextFloat());
+        }
+        final int depth = 10 + random.nextInt(90);
+        record.addSamples(sample(false, depth, referenceBase, alternateBase, heterozygous));
+        record.addSamples(sample(true, depth, referenceBase, alternateBase, heterozygous || mutated));
+        return record.build();
+    }
+
+    private BaseInformationRecords.SampleInfo sample(boolean isTumor, int depth, String referenceBase,
+                                                     String alternateBase, boolean variant) {
+        BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+        sample.setIsTumor(isTumor);
+        sample.setIsVariant(variant);
+        for (int i = 0; i < BASES.length; i++) {
+            final String base = BASES[i];
+            int count;
+            if (base.equals(referenceBase)) {
+                count = variant ? depth / 2 : depth;
+            } else if (variant && base.equals(alternateBase)) {
+                count = depth / 2;
+            } else {
+                // sequencing errors:
+                count = random.nextInt(10) == 0 ? 1 + random.nextInt(2) : 0;
+            }
+            boolean isCalled = base.equals(referenceBase) || (variant && base.equals(alternateBase));
+            sample.addCounts(count(referenceBase, base, count, isCalled, false));
+        }
+        // a rare indel:
+        sample.addCounts(count(referenceBase, referenceBase + "--", random.nextInt(50) == 0 ? 2 : 0, false, true));
+        return sample.build();
+    }
+
+    private BaseInformationRecords.CountInfo count(String referenceBase, String toSequence, int count,
+                                                   boolean isCalled, boolean isIndel) {
+        BaseInformationRecords.CountInfo.Builder info = BaseInformationRecords.CountInfo.newBuilder();
+        final int forward = count == 0 ? 0 : random.nextInt(count + 1);
+        final int reverse = count - forward;
+        info.setFromSequence(referenceBase);
+        info.setToSequence(toSequence);
+        info.setMatchesReference(referenceBase.equals(toSequence));
+        info.setIsIndel(isIndel);
+        info.setIsCalled(isCalled);
+        info.setGenotypeCountForwardStrand(forward);
+        info.setGenotypeCountReverseStrand(reverse);
+        info.addAllQualityScoresForwardStrand(frequencies(forward, () -> 20 + random.nextInt(21)));
+        info.addAllQualityScoresReverseStrand(frequencies(reverse, () -> 20 + random.nextInt(21)));
+        info.addAllReadIndicesForwardStrand(frequencies(forward, () -> 1 + random.nextInt(150)));
+        info.addAllReadIndicesReverseStrand(frequencies(reverse, () -> 1 + random.nextInt(150)));
+        info.addAllReadMappingQualityForwardStrand(frequencies(forward, this::mappingQuality));
+        info.addAllReadMappingQualityReverseStrand(frequencies(reverse, this::mappingQuality));
+        info.addAllDistancesToReadVariationsForwardStrand(frequencies(forward, () -> random.nextInt(101) - 50));
+        info.addAllDistancesToReadVariationsReverseStrand(frequencies(reverse, () -> random.nextInt(101) - 50));
+        info.addAllNumVariationsInReads(frequencies(count, () -> random.nextInt(4)));
+        info.addAllInsertSizes(frequencies(count, () -> 200 + random.nextInt(300)));
+        info.addAllTargetAlignedLengths(frequencies(count, () -> 140 + random.nextInt(11)));
+        info.addAllQueryAlignedLengths(frequencies(count, () -> 140 + random.nextInt(11)));
+        info.addAllPairFlags(frequencies(count, () -> random.nextBoolean() ? 99 : 147));
+        return info.build();
+    }
+
+    private int mappingQuality() {
+        return random.nextInt(5) == 0 ? random.nextInt(60) : 60;
+    }
+
+    /**
+     * Draw values for a number of reads, and store them as (number, frequency) pairs, as the sbi writer does.
+     */
+    private static List<BaseInformationRecords.NumberWithFrequency> frequencies(int numReads, IntSupplier values) {
+        Int2IntAVLTreeMap frequencies = new Int2IntAVLTreeMap();
+        for (int i = 0; i < numReads; i++) {
+            frequencies.addTo(values.getAsInt(), 1);
+        }
+        List<BaseInformationRecords.NumberWithFrequency> result = new ObjectArrayList<>(frequencies.size());
+        for (Int2IntMap.Entry entry : frequencies.int2IntEntrySet()) {
+            result.add(BaseInformationRecords.NumberWithFrequency.newBuilder()
+                    .setNumber(entry.getIntKey()).setFrequency(entry.getIntValue()).build());
+        }
+        return result;
+    }
+
+    private static int indexOf(String base) {
+        for (int i = 0; i < BASES.length; i++) {
+            if (BASES[i].equals(base)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
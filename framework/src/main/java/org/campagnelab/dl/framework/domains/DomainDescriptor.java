@@ -54,6 +54,29 @@ public abstract class DomainDescriptor<RecordType> {
      */
     public abstract LabelMapper getLabelMapper(String outputName);
 
+    /**
+     * Create a new feature mapper for a given model graph input. In contrast to getFeatureMapper, the instance
+     * returned must never be cached or shared. Mappers keep per-record state between prepareToNormalize and
+     * mapFeatures, so mapping on several threads requires one instance per thread. The default implementation
+     * returns null, which indicates that the domain does not support parallel mapping.
+     *
+     * @param inputName The name of a graph input. Must match an input of the computational graph.
+     * @return A new feature mapper, or null.
+     */
+    public FeatureMapper newFeatureMapper(String inputName) {
+        return null;
+    }
+
+    /**
+     * Create a new label mapper for a given model graph output. See newFeatureMapper.
+     *
+     * @param outputName The name of a graph output. Must match an output of the computational graph.
+     * @return A new label mapper, or null.
+     */
+    public LabelMapper newLabelMapper(String outputName) {
+        return null;
+    }
+
     /**
      * Get the prediction/model output interpreter. A prediction interpreter converts the raw
      * INDArray numeric predictions to instances of the BinaryClassPrediction class, in the process converting
@@ -1,24 +1,37 @@
 package org.campagnelab.dl.framework.iterators;
 
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.FlattenedFeatureMapper;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 /**
- * Make a multi dataset iterator from an iterable over records.
+ * Make a multi dataset iterator from an iterable over records. Features and labels are mapped on the calling thread
+ * by default. Use setNumMappingThreads to map several minibatches concurrently.
  */
 public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDataSetIterator, Iterable<MultiDataSet> {
+    static private Logger LOG = LoggerFactory.getLogger(MultiDataSetIteratorAdapter.class);
 
     private final DomainDescriptor domainDescriptor;
     private final Iterable<RecordType> iterable;
@@ -32,6 +45,20 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
     protected int batchSize = 32;
     private MultiDataSetPreProcessor preProcessor;
 
+    private final String[] inputNames;
+    private final String[] outputNames;
+    private final int[][] inputShapes;
+    private final int[][] inputMaskShapes;
+    private final int[][] labelShapes;
+    private final int[][] labelMaskShapes;
+    private Mappers sharedMappers;
+
+    private int numMappingThreads = 1;
+    private ExecutorService mappingExecutor;
+    private BlockingQueue<Mappers> mapperPool;
+    private int maxMinibatchesInFlight;
+    private final Queue<Future<MultiDataSet>> pendingMinibatches = new ArrayDeque<>();
+
 
     public MultiDataSetIteratorAdapter(Iterable<RecordType> iterable, int batchSize, DomainDescriptor domainDescriptor) throws IOException {
         this(iterable, batchSize, domainDescriptor, false, null);
@@ -45,16 +72,89 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
         this.recordIterator = iterable.iterator();
         this.isPretrained = isPretrained;
         this.eosIndex = eosIndex;
+        this.inputNames = domainDescriptor.getComputationalGraph().getInputNames();
+        this.outputNames = domainDescriptor.getComputationalGraph().getOutputNames();
+        // shapes are obtained once, for a single record, so that mapping threads never call the domain descriptor:
+        inputShapes = new int[inputNames.length][];
+        inputMaskShapes = new int[inputNames.length][];
+        for (int i = 0; i < inputNames.length; i++) {
+            inputShapes[i] = domainDescriptor.getInputShape(1, inputNames[i]);
+            inputMaskShapes[i] = domainDescriptor.getInputMaskShape(1, inputNames[i]);
+        }
+        labelShapes = new int[outputNames.length][];
+        labelMaskShapes = new int[outputNames.length][];
+        for (int i = 0; i < outputNames.length; i++) {
+            labelShapes[i] = domainDescriptor.getLabelShape(1, outputNames[i]);
+            labelMaskShapes[i] = domainDescriptor.getLabelMaskShape(1, outputNames[i]);
+        }
     }
 
     abstract public String getBasename();
 
+    /**
+     * Use several threads to map the features and labels of minibatches. Minibatches are still returned in the order
+     * of the records in the iterable. Parallel mapping requires the domain descriptor to create independent mapper
+     * instances (see DomainDescriptor#newFeatureMapper), since mappers keep per-record state and cannot be shared
+     * across threads. When the domain does not support this, mapping stays on the calling thread.
+     *
+     * @param numThreads number of mapping threads. Use 1 to map on the calling thread.
+     */
+    public void setNumMappingThreads(int numThreads) {
+        shutdownMappingThreads();
+        if (numThreads > 1) {
+            ObjectList<Mappers> mapperSets = new ObjectArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                Mappers mappers = newMappers();
+                if (mappers == null) {
+                    LOG.warn("Domain descriptor {} cannot create per-thread mappers. Features will be mapped on a single thread.",
+                            domainDescriptor.getClass().getSimpleName());
+                    return;
+                }
+                mapperSets.add(mappers);
+            }
+            mapperPool = new ArrayBlockingQueue<>(numThreads, false, mapperSets);
+            mappingExecutor = Executors.newFixedThreadPool(numThreads,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("feature-mapping-%d").build());
+            // keep enough minibatches in flight to keep every thread busy while the consumer works on the previous ones:
+            maxMinibatchesInFlight = numThreads * 2;
+        }
+        this.numMappingThreads = numThreads;
+    }
+
+    public int getNumMappingThreads() {
+        return mappingExecutor == null ? 1 : numMappingThreads;
+    }
+
     public MultiDataSet next(int batchSize) {
+        if (mappingExecutor != null) {
+            if (batchSize != this.batchSize) {
+                throw new IllegalArgumentException("batchSize must match the adapter batch size when mapping in parallel: " + batchSize);
+            }
+            submitMinibatches();
+            return waitFor(pendingMinibatches.remove());
+        }
+        ObjectList<RecordType> buffer = nextRecords(batchSize);
+        final MultiDataSet result = map(buffer, sharedMappers());
+        if (preProcessor != null) preProcessor.preProcess(result);
+        return result;
+    }
+
+    /**
+     * Read the records of the next minibatch, on the calling thread.
+     */
+    private ObjectList<RecordType> nextRecords(int batchSize) {
         ObjectList<RecordType> buffer = new ObjectArrayList<RecordType>();
         // allocate a new dataset with batchSize records and fill it with features and labels.
         while (recordIterator.hasNext() && buffer.size() < batchSize) {
             buffer.add(recordIterator.next());
         }
+        return buffer;
+    }
+
+    /**
+     * Map a buffer of records to a multi dataset, using the mappers provided.
+     */
+    private MultiDataSet map(ObjectList<RecordType> buffer, Mappers mappers) {
         int size = buffer.size();
 
         // allocate features and labels for the entire dataset:
@@ -62,21 +162,21 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
         // dimension 1 = number of features per record.
 
         //size changed from batchSize. huge batchSize values useful for tests
-        final int numInputs = domainDescriptor.getComputationalGraph().getInputNames().length;
-        final int numLabels = domainDescriptor.getComputationalGraph().getOutputNames().length;
+        final int numInputs = inputNames.length;
+        final int numLabels = outputNames.length;
         int numOutputs = numLabels;
 
         INDArray inputs[] = new INDArray[numInputs];
         INDArray inputMasks[] = new INDArray[numInputs];
         INDArray labels[] = new INDArray[numLabels];
         INDArray labelMasks[] = new INDArray[numLabels];
-        FeatureMapper[] featureMappers = new FeatureMapper[numInputs];
-        LabelMapper[] labelMappers = new LabelMapper[numOutputs];
+        FeatureMapper[] featureMappers = mappers.featureMappers;
+        LabelMapper[] labelMappers = mappers.labelMappers;
         int index = 0;
         boolean hasFeatureMask = false;
         boolean hasLabelMask = false;
-        for (String input : domainDescriptor.getComputationalGraph().getInputNames()) {
-            int[] inputShape = domainDescriptor.getInputShape(size, input).clone();
+        for (String input : inputNames) {
+            int[] inputShape = shape(inputShapes[index], size).clone();
             boolean padEos = (isPretrained) && ((eosIndex != null && eosIndex == inputShape[1]) || eosIndex == null);
             if (padEos) {
                 if (inputShape.length != 3) {
@@ -85,18 +185,16 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                 inputShape[1]++;
             }
             inputs[index] = Nd4j.zeros(inputShape);
-            featureMappers[index] = domainDescriptor.getFeatureMapper(input);
             boolean needMask = featureMappers[index].hasMask();
-            inputMasks[index] = needMask ? Nd4j.zeros(domainDescriptor.getInputMaskShape(size, input)) : null;
+            inputMasks[index] = needMask ? Nd4j.zeros(shape(inputMaskShapes[index], size)) : null;
             index += 1;
             hasFeatureMask |= needMask;
         }
         index = 0;
-        for (String label : domainDescriptor.getComputationalGraph().getOutputNames()) {
-            labels[index] = Nd4j.zeros(domainDescriptor.getLabelShape(size, label));
-            labelMappers[index] = domainDescriptor.getLabelMapper(label);
+        for (String label : outputNames) {
+            labels[index] = Nd4j.zeros(shape(labelShapes[index], size));
             boolean needMask = labelMappers[index].hasMask();
-            labelMasks[index] = needMask ? Nd4j.zeros(domainDescriptor.getLabelMaskShape(size, label)) : null;
+            labelMasks[index] = needMask ? Nd4j.zeros(shape(labelMaskShapes[index], size)) : null;
             index++;
             hasLabelMask |= needMask;
         }
@@ -117,16 +215,169 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                     labelMappers[j].maskLabels(record, labelMasks[j], recordIndexInBatch);
                 }
             }
+            MappingContext.clear();
             recordIndexInBatch += 1;
 
         }
-        final MultiDataSet result = new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
+        return new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
                 hasFeatureMask ? inputMasks : null,
                 hasLabelMask ? labelMasks : null);
+    }
+
+    /**
+     * Replace the minibatch dimension of a shape obtained with size 1.
+     */
+    private static int[] shape(int[] shapeForOneRecord, int size) {
+        int[] shape = shapeForOneRecord.clone();
+        shape[0] = size;
+        return shape;
+    }
+
+    /**
+     * Mappers obtained from the domain descriptor, used when mapping on the calling thread.
+     */
+    private Mappers sharedMappers() {
+        if (sharedMappers == null) {
+            sharedMappers = new Mappers(domainDescriptor.featureMappers(), domainDescriptor.labelMappers());
+        }
+        return sharedMappers;
+    }
+
+    /**
+     * Create mappers that are not shared with any other thread.
+     *
+     * @return a new set of mappers, or null if the domain cannot create independent mapper instances.
+     */
+    private Mappers newMappers() {
+        FeatureMapper[] featureMappers = new FeatureMapper[inputNames.length];
+        LabelMapper[] labelMappers = new LabelMapper[outputNames.length];
+        for (int i = 0; i < inputNames.length; i++) {
+            featureMappers[i] = domainDescriptor.newFeatureMapper(inputNames[i]);
+            if (featureMappers[i] == null) {
+                return null;
+            }
+        }
+        for (int i = 0; i < outputNames.length; i++) {
+            labelMappers[i] = domainDescriptor.newLabelMapper(outputNames[i]);
+            if (labelMappers[i] == null) {
+                return null;
+            }
+        }
+        return new Mappers(featureMappers, labelMappers);
+    }
+
+    /**
+     * Read records for as many minibatches as can be in flight and submit them to the mapping threads.
+     */
+    private void submitMinibatches() {
+        while (pendingMinibatches.size() < maxMinibatchesInFlight && recordIterator.hasNext()) {
+            final ObjectList<RecordType> buffer = nextRecords(batchSize);
+            pendingMinibatches.add(mappingExecutor.submit(() -> mapWithPooledMappers(buffer)));
+        }
+    }
+
+    /**
+     * Map a buffer of records on a mapping thread, with mappers taken from the pool.
+     */
+    private MultiDataSet mapWithPooledMappers(ObjectList<RecordType> buffer) throws InterruptedException {
+        Mappers mappers = mapperPool.take();
+        try {
+            return map(buffer, mappers);
+        } finally {
+            mapperPool.put(mappers);
+        }
+    }
+
+    /**
+     * Iterate over the remaining minibatches, transformed by a function. With several mapping threads, the
+     * function is applied on the mapping thread right after the minibatch is mapped (and pre-processed), so that
+     * expensive transformations (e.g., serialization) also run in parallel. Results are returned in the order of the
+     * records. Do not call next() on this adapter while the iterator is in use.
+     *
+     * @param transformation function applied to each minibatch. Must be thread-safe.
+     * @param <T>            type of the transformed minibatches.
+     * @return an iterator over the transformed minibatches.
+     */
+    public <T> Iterator<T> transform(Function<MultiDataSet, T> transformation) {
+        if (mappingExecutor == null) {
+            return Iterators.transform(this, transformation::apply);
+        }
+        final Queue<Future<T>> pending = new ArrayDeque<>();
+        // minibatches already submitted by next() come first:
+        while (!pendingMinibatches.isEmpty()) {
+            pending.add(CompletableFuture.completedFuture(transformation.apply(waitFor(pendingMinibatches.remove()))));
+        }
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                while (pending.size() < maxMinibatchesInFlight && recordIterator.hasNext()) {
+                    final ObjectList<RecordType> buffer = nextRecords(batchSize);
+                    pending.add(mappingExecutor.submit(() -> {
+                        MultiDataSet result = mapWithPooledMappers(buffer);
+                        if (preProcessor != null) preProcessor.preProcess(result);
+                        return transformation.apply(result);
+                    }));
+                }
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(pending.remove());
+            }
+        };
+    }
+
+    private MultiDataSet waitFor(Future<MultiDataSet> minibatch) {
+        final MultiDataSet result = get(minibatch);
         if (preProcessor != null) preProcessor.preProcess(result);
         return result;
     }
 
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while mapping features.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to map features.", e.getCause());
+        }
+    }
+
+    private void cancelPendingMinibatches() {
+        for (Future<MultiDataSet> minibatch : pendingMinibatches) {
+            minibatch.cancel(false);
+        }
+        pendingMinibatches.clear();
+    }
+
+    private void shutdownMappingThreads() {
+        cancelPendingMinibatches();
+        if (mappingExecutor != null) {
+            mappingExecutor.shutdown();
+            mappingExecutor = null;
+            mapperPool = null;
+        }
+    }
+
+    private static class Mappers {
+        final FeatureMapper[] featureMappers;
+        final LabelMapper[] labelMappers;
+
+        Mappers(FeatureMapper[] featureMappers, LabelMapper[] labelMappers) {
+            // map features with the flattened form of the mappers:
+            this.featureMappers = new FeatureMapper[featureMappers.length];
+            for (int i = 0; i < featureMappers.length; i++) {
+                this.featureMappers[i] = FlattenedFeatureMapper.compile(featureMappers[i]);
+            }
+            this.labelMappers = labelMappers;
+        }
+    }
+
     @Override
     public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
         this.preProcessor = preProcessor;
@@ -144,14 +395,14 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
 
     @Override
     public void reset() {
-
+        cancelPendingMinibatches();
         recordIterator = iterable.iterator();
     }
 
 
     @Override
     public boolean hasNext() {
-        return recordIterator.hasNext();
+        return !pendingMinibatches.isEmpty() || recordIterator.hasNext();
     }
 
 
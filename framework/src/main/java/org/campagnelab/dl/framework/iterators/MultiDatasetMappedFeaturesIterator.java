@@ -1,33 +1,51 @@
 package org.campagnelab.dl.framework.iterators;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An Iterator over mapped features (.cf/.cfp files).
+ * <p>
+ * When the cache is compressed (see {@link CacheCodec}), the iterator reads the next minibatches ahead of the
+ * consumer and decodes them on a pool of daemon threads shared by all iterators. The size of the pool is set with
+ * the system property cache.decode.threads (default: half of the available processors).
  *
  * @author Fabien Campagne
  *         Created by fac2003 on 11/2/16.
  */
 public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator {
     static private Logger LOG = LoggerFactory.getLogger(MappedFeaturesIterator.class);
+    public static final int NUM_DECODE_THREADS = Integer.getInteger("cache.decode.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ExecutorService DECODERS = Executors.newFixedThreadPool(NUM_DECODE_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cache-decode-%d").build());
+    // maximum number of minibatches decoded ahead of the consumer:
+    private static final int DECODE_AHEAD = 2 * NUM_DECODE_THREADS;
 
     private final int numExamples;
     private final int miniBatchSize;
     private final FastBufferedInputStream inputStream;
     private final int cacheN;
+    private final CacheCodec codec;
+    private final long cacheLength;
+    private final ObjectArrayFIFOQueue<Future<MultiDataSet>> decoded = new ObjectArrayFIFOQueue<>();
+    private long readPosition;
     private int index;
     private MultiDataSetPreProcessor preProcessor;
 
@@ -42,6 +60,8 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
 
             miniBatchSize = Integer.parseInt(cfProperties.getProperty("miniBatchSize", "0"));
             numExamples = Integer.parseInt(cfProperties.getProperty("numRecords", "0"));
+            codec = CacheCodec.fromProperties(cfProperties);
+            cacheLength = new File(basename + ".cf").length();
             inputStream = new FastBufferedInputStream(new FileInputStream(basename + ".cf"));
             this.cacheN = cacheN;
         } catch (Exception e) {
@@ -75,6 +95,10 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
     @Override
     public void reset() {
         index = 0;
+        while (!decoded.isEmpty()) {
+            decoded.dequeue().cancel(false);
+        }
+        readPosition = 0;
         try {
             inputStream.position(0);
         } catch (IOException e) {
@@ -97,6 +121,15 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
+        MultiDataSet ds = codec == CacheCodec.NONE ? readNext() : nextDecoded();
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        index += ds.getFeatures(0).size(0);
+        return ds;
+    }
+
+    private MultiDataSet readNext() {
         try {
             inputStream.read(length, 0, 4);
         } catch (IOException e) {
@@ -110,22 +143,70 @@ public class MultiDatasetMappedFeaturesIterator implements MultiDataSetIterator
         content.size(l);
         final byte[] elements = content.elements();
         try {
-            inputStream.read(elements);
+            // the buffer may be larger than this minibatch (e.g., after a partial minibatch in an appended cache):
+            readFully(elements, l);
         } catch (IOException e) {
             LOG.error("Unable to read content from stream at index " + index, e);
         }
         MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet();
-        try (ByteArrayInputStream from = new ByteArrayInputStream(elements)) {
+        try (ByteArrayInputStream from = new ByteArrayInputStream(elements, 0, l)) {
             ds.load(from);
         } catch (IOException e) {
             LOG.error("Unable to load dataset at index " + index, e);
         }
-        if (preProcessor != null) {
-            preProcessor.preProcess(ds);
-        }
-        index += ds.getFeatures(0).size(0);
         return ds;
+    }
+
+    private MultiDataSet nextDecoded() {
+        try {
+            while (decoded.size() < DECODE_AHEAD && readPosition < cacheLength) {
+                final byte[] stored = readStored();
+                decoded.enqueue(DECODERS.submit(() -> codec.decode(stored, 0, stored.length)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read minibatch from cache at index " + index, e);
+        }
+        if (decoded.isEmpty()) {
+            throw new NoSuchElementException("The cache contains fewer records than indicated in its properties.");
+        }
+        try {
+            return decoded.dequeue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while decoding minibatch at index " + index, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to decode minibatch at index " + index, e.getCause());
+        }
+    }
 
+    /**
+     * Read the next minibatch, as stored in the cache.
+     */
+    private byte[] readStored() throws IOException {
+        readFully(length);
+        int l = (length[0] << 8 * 3 & 0xFF000000) |
+                (length[1] << 8 * 2 & 0x00FF0000) |
+                (length[2] << 8 & 0x0000FF00) |
+                (length[3] & 0x000000FF);
+        byte[] stored = new byte[l];
+        readFully(stored);
+        readPosition += 4 + l;
+        return stored;
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        readFully(bytes, bytes.length);
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = inputStream.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Cache file is truncated.");
+            }
+            read += n;
+        }
     }
 }
 
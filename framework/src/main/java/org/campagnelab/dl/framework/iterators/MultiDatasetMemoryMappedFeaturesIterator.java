@@ -0,0 +1,175 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.io.ByteBufferInputStream;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * An Iterator over mapped features (.cf/.cfp files) that memory-maps the cache. Minibatches are decoded directly
+ * from the mapped file, without intermediate copies, and the minibatch boundaries are obtained from a
+ * {@link CacheIndex}, so that any minibatch can be accessed directly. Since the file is mapped read-only,
+ * several processes that read the same cache share the same pages of the OS page cache. Minibatches of compressed
+ * caches (see {@link CacheCodec}) are copied from the mapped file and decoded when they are accessed.
+ * <p>
+ * The iterator can optionally visit minibatches in a different random order after each reset.
+ */
+public class MultiDatasetMemoryMappedFeaturesIterator implements MultiDataSetIterator {
+
+    private final int miniBatchSize;
+    private final CacheIndex index;
+    private final CacheCodec codec;
+    private final ByteBufferInputStream inputStream;
+    private final int numMinibatches;
+    private final int[] order;
+    private Random random;
+    private int position;
+    private MultiDataSetPreProcessor preProcessor;
+
+    public MultiDatasetMemoryMappedFeaturesIterator(String basename) {
+        this(basename, Integer.MAX_VALUE);
+    }
+
+    public MultiDatasetMemoryMappedFeaturesIterator(String basename, int cacheN) {
+        try {
+            Properties cfProperties = new Properties();
+            try (FileReader reader = new FileReader(basename + ".cfp")) {
+                cfProperties.load(reader);
+            }
+
+            miniBatchSize = Integer.parseInt(cfProperties.getProperty("miniBatchSize", "0"));
+            int numExamples = Integer.parseInt(cfProperties.getProperty("numRecords", "0"));
+            codec = CacheCodec.fromProperties(cfProperties);
+            index = CacheIndex.loadOrBuild(basename);
+            try (FileChannel channel = new FileInputStream(basename + ".cf").getChannel()) {
+                inputStream = ByteBufferInputStream.map(channel, FileChannel.MapMode.READ_ONLY);
+            }
+            if (cacheN >= numExamples) {
+                // caches extended with new sources have a partial minibatch at the end of each source:
+                numMinibatches = index.numMinibatches();
+            } else {
+                // all minibatches but the last one are full, keep as many as needed to provide cacheN examples:
+                long minibatchesNeeded = miniBatchSize == 0 ? 0 : (cacheN + miniBatchSize - 1) / miniBatchSize;
+                numMinibatches = (int) Math.min(index.numMinibatches(), minibatchesNeeded);
+            }
+            order = new int[numMinibatches];
+            for (int i = 0; i < numMinibatches; i++) {
+                order[i] = i;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create MultiDatasetMemoryMappedFeaturesIterator ", e);
+        }
+    }
+
+    /**
+     * Visit minibatches in a new random order after each reset. The order of the first epoch is also shuffled.
+     *
+     * @param seed seed of the random generator used to shuffle minibatches.
+     */
+    public void shuffleMinibatches(long seed) {
+        random = new Random(seed);
+        reset();
+    }
+
+    /**
+     * Return the number of minibatches this iterator can access.
+     */
+    public int numMinibatches() {
+        return numMinibatches;
+    }
+
+    /**
+     * Load a given minibatch.
+     *
+     * @param minibatchIndex index of the minibatch in the cache (independent of the shuffled order).
+     * @return the minibatch.
+     */
+    public MultiDataSet get(int minibatchIndex) {
+        if (minibatchIndex < 0 || minibatchIndex >= numMinibatches) {
+            throw new IndexOutOfBoundsException("minibatch index out of range: " + minibatchIndex);
+        }
+        // copies share the mapped buffers but have their own position:
+        ByteBufferInputStream from = inputStream.copy();
+        from.position(index.position(minibatchIndex));
+        MultiDataSet ds;
+        try {
+            if (codec == CacheCodec.NONE) {
+                ds = new org.nd4j.linalg.dataset.MultiDataSet();
+                ds.load(from);
+            } else {
+                byte[] stored = new byte[index.length(minibatchIndex)];
+                int read = 0;
+                while (read < stored.length) {
+                    int n = from.read(stored, read, stored.length - read);
+                    if (n < 0) {
+                        throw new EOFException("Cache file is truncated.");
+                    }
+                    read += n;
+                }
+                ds = codec.decode(stored, 0, stored.length);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load dataset at index " + minibatchIndex, e);
+        }
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        return ds;
+    }
+
+    @Override
+    public MultiDataSet next(int miniBatchSize) {
+        if (miniBatchSize != this.miniBatchSize) {
+            throw new IllegalArgumentException("numExamples must match the cached minibatchSize: " + miniBatchSize);
+        }
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+        if (random != null) {
+            IntArrays.shuffle(order, random);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < numMinibatches;
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return get(order[position++]);
+    }
+}
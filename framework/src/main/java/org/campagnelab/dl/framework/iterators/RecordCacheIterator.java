@@ -0,0 +1,223 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.campagnelab.dl.framework.iterators.cache.RecordCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * An iterator over a record cache (.cfr file, see {@link RecordCache}). Minibatches of any size are assembled by
+ * copying the rows of their records from the memory-mapped cache. The iterator can visit records in a different
+ * random order after each reset, so that minibatches are made of different records each epoch.
+ */
+public class RecordCacheIterator implements MultiDataSetIterator {
+    // largest number of bytes mapped by a single buffer:
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private final RecordCache cache;
+    private final int miniBatchSize;
+    private final int numRecords;
+    private final int recordsPerSegment;
+    private final FloatBuffer[] segments;
+    private final int[] order;
+    private final int numFeatures;
+    private final int numLabels;
+    private final boolean hasFeatureMasks;
+    private final boolean hasLabelMasks;
+    private Random random;
+    private int position;
+    private MultiDataSetPreProcessor preProcessor;
+
+    public RecordCacheIterator(String basename, int miniBatchSize) {
+        this(basename, miniBatchSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Iterate over the records of a cache, converting the .cf cache to a record cache if needed.
+     *
+     * @param basename      basename of the cache (without extension).
+     * @param miniBatchSize number of records in the minibatches returned by next().
+     * @param cacheN        maximum number of records to use.
+     */
+    public RecordCacheIterator(String basename, int miniBatchSize, int cacheN) {
+        try {
+            cache = RecordCache.loadOrBuild(basename);
+            this.miniBatchSize = miniBatchSize;
+            numRecords = (int) Math.min(cache.numRecords(), cacheN);
+            final int recordSize = cache.recordWidth() * 4;
+            recordsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / recordSize);
+            segments = new FloatBuffer[(numRecords + recordsPerSegment - 1) / recordsPerSegment];
+            try (FileChannel channel = FileChannel.open(new File(basename + RecordCache.EXTENSION).toPath(),
+                    StandardOpenOption.READ)) {
+                for (int segment = 0; segment < segments.length; segment++) {
+                    final long first = (long) segment * recordsPerSegment;
+                    final long count = Math.min(recordsPerSegment, numRecords - first);
+                    segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            cache.headerLength() + first * recordSize, count * recordSize)
+                            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create RecordCacheIterator ", e);
+        }
+        int features = 0;
+        int labels = 0;
+        boolean featureMasks = false;
+        boolean labelMasks = false;
+        for (int array = 0; array < cache.numArrays(); array++) {
+            switch (cache.group(array)) {
+                case RecordCache.FEATURES:
+                    features = Math.max(features, cache.slot(array) + 1);
+                    break;
+                case RecordCache.LABELS:
+                    labels = Math.max(labels, cache.slot(array) + 1);
+                    break;
+                case RecordCache.FEATURE_MASKS:
+                    featureMasks = true;
+                    break;
+                default:
+                    labelMasks = true;
+            }
+        }
+        numFeatures = features;
+        numLabels = labels;
+        hasFeatureMasks = featureMasks;
+        hasLabelMasks = labelMasks;
+        order = new int[numRecords];
+        for (int i = 0; i < numRecords; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * Visit records in a new random order after each reset. The order of the first epoch is also shuffled.
+     *
+     * @param seed seed of the random generator used to shuffle records.
+     */
+    public void shuffleRecords(long seed) {
+        random = new Random(seed);
+        reset();
+    }
+
+    /**
+     * Return the number of records this iterator can access.
+     */
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Assemble a minibatch from a list of records.
+     *
+     * @param records indices of records in the cache.
+     * @param from    index in records of the first record of the minibatch.
+     * @param to      index in records after the last record of the minibatch.
+     * @return a minibatch with one example per record, in the order of the list.
+     */
+    public MultiDataSet get(int[] records, int from, int to) {
+        final int numExamples = to - from;
+        INDArray[] features = new INDArray[numFeatures];
+        INDArray[] labels = new INDArray[numLabels];
+        INDArray[] featureMasks = hasFeatureMasks ? new INDArray[numFeatures] : null;
+        INDArray[] labelMasks = hasLabelMasks ? new INDArray[numLabels] : null;
+        // buffers have their own position, use copies so that minibatches can be assembled on several threads:
+        FloatBuffer[] views = new FloatBuffer[segments.length];
+        for (int array = 0; array < cache.numArrays(); array++) {
+            final int rowWidth = cache.rowWidth(array);
+            final int rowOffset = cache.rowOffset(array);
+            final int recordWidth = cache.recordWidth();
+            float[] values = new float[numExamples * rowWidth];
+            for (int example = 0; example < numExamples; example++) {
+                final int record = records[from + example];
+                if (record < 0 || record >= numRecords) {
+                    throw new IndexOutOfBoundsException("record index out of range: " + record);
+                }
+                final int segment = record / recordsPerSegment;
+                if (views[segment] == null) {
+                    views[segment] = segments[segment].duplicate();
+                }
+                views[segment].position((record % recordsPerSegment) * recordWidth + rowOffset);
+                views[segment].get(values, example * rowWidth, rowWidth);
+            }
+            final int[] rowShape = cache.rowShape(array);
+            int[] shape = new int[rowShape.length + 1];
+            shape[0] = numExamples;
+            System.arraycopy(rowShape, 0, shape, 1, rowShape.length);
+            INDArray assembled = Nd4j.create(values, shape, 'c');
+            final int slot = cache.slot(array);
+            switch (cache.group(array)) {
+                case RecordCache.FEATURES:
+                    features[slot] = assembled;
+                    break;
+                case RecordCache.FEATURE_MASKS:
+                    featureMasks[slot] = assembled;
+                    break;
+                case RecordCache.LABELS:
+                    labels[slot] = assembled;
+                    break;
+                default:
+                    labelMasks[slot] = assembled;
+            }
+        }
+        MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet(features, labels, featureMasks, labelMasks);
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        return ds;
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final int from = position;
+        position = Math.min(numRecords, position + num);
+        return get(order, from, position);
+    }
+
+    @Override
+    public MultiDataSet next() {
+        return next(miniBatchSize);
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        position = 0;
+        if (random != null) {
+            IntArrays.shuffle(order, random);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < numRecords;
+    }
+}
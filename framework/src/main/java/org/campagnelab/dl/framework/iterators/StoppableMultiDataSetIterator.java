@@ -0,0 +1,56 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * An iterator that ends early when a condition becomes true. Used to stop an epoch as soon as another thread
+ * decides that training must stop (e.g., when validation of a previous epoch triggers early stopping).
+ */
+public class StoppableMultiDataSetIterator implements MultiDataSetIterator {
+    private final MultiDataSetIterator delegate;
+    private final BooleanSupplier stop;
+
+    public StoppableMultiDataSetIterator(MultiDataSetIterator delegate, BooleanSupplier stop) {
+        this.delegate = delegate;
+        this.stop = stop;
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return delegate.next(num);
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        delegate.setPreProcessor(preProcessor);
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return delegate.resetSupported();
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return delegate.asyncSupported();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !stop.getAsBoolean() && delegate.hasNext();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        return delegate.next();
+    }
+}
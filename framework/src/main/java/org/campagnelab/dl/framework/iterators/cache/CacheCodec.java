@@ -0,0 +1,139 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Compression of the minibatches stored in a mapped feature cache (.cf file). Each minibatch is compressed
+ * independently, so that minibatches can be decoded in any order and on several threads. The codec of a cache is
+ * recorded in its .cfp file. Caches written before codecs were introduced have no codec property and are read with
+ * {@link #NONE}.
+ * <p>
+ * With {@link #LZ4}, a minibatch is stored as the length of the serialized MultiDataSet (4 bytes), followed by the
+ * LZ4 block that encodes it. The pure-Java implementation of LZ4 is used, so that caches can be read and written on
+ * any platform.
+ */
+public enum CacheCodec {
+    /**
+     * Minibatches are stored as serialized by MultiDataSet.save.
+     */
+    NONE("none"),
+    /**
+     * Minibatches are compressed with LZ4.
+     */
+    LZ4("lz4");
+
+    public static final String PROPERTY = "codec";
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestJavaInstance();
+
+    private final String name;
+
+    CacheCodec(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the codec with the given name.
+     *
+     * @param name name of the codec (none or lz4).
+     * @return the codec.
+     */
+    public static CacheCodec forName(String name) {
+        for (CacheCodec codec : values()) {
+            if (codec.name.equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cache codec: " + name);
+    }
+
+    /**
+     * Return the codec recorded in the properties of a cache.
+     *
+     * @param cfProperties content of the .cfp file.
+     * @return the codec of the cache, or NONE for caches that do not record a codec.
+     */
+    public static CacheCodec fromProperties(Properties cfProperties) {
+        return forName(cfProperties.getProperty(PROPERTY, NONE.name));
+    }
+
+    public void putProperties(Properties cfProperties) {
+        cfProperties.put(PROPERTY, name);
+    }
+
+    /**
+     * Encode a serialized minibatch.
+     *
+     * @param minibatch bytes written by MultiDataSet.save.
+     * @return the bytes to store in the cache.
+     */
+    public byte[] encode(byte[] minibatch) {
+        switch (this) {
+            case LZ4: {
+                LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+                byte[] block = new byte[4 + compressor.maxCompressedLength(minibatch.length)];
+                writeInt(block, minibatch.length);
+                int compressedLength = compressor.compress(minibatch, 0, minibatch.length, block, 4);
+                byte[] encoded = new byte[4 + compressedLength];
+                System.arraycopy(block, 0, encoded, 0, encoded.length);
+                return encoded;
+            }
+            default:
+                return minibatch;
+        }
+    }
+
+    /**
+     * Decode a minibatch stored in the cache.
+     *
+     * @param bytes  buffer that contains the stored minibatch.
+     * @param offset position of the stored minibatch in the buffer.
+     * @param length length of the stored minibatch.
+     * @return the minibatch.
+     * @throws IOException when the minibatch cannot be decoded.
+     */
+    public MultiDataSet decode(byte[] bytes, int offset, int length) throws IOException {
+        byte[] serialized = bytes;
+        int serializedOffset = offset;
+        int serializedLength = length;
+        switch (this) {
+            case LZ4: {
+                serializedLength = readInt(bytes, offset);
+                serialized = new byte[serializedLength];
+                serializedOffset = 0;
+                LZ4FastDecompressor decompressor = LZ4_FACTORY.fastDecompressor();
+                if (decompressor.decompress(bytes, offset + 4, serialized, 0, serializedLength) != length - 4) {
+                    throw new IOException("Compressed minibatch has an unexpected length.");
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet();
+        ds.load(new FastByteArrayInputStream(serialized, serializedOffset, serializedLength));
+        return ds;
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 |
+                (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -1,26 +1,81 @@
 package org.campagnelab.dl.framework.iterators.cache;
 
+import com.google.common.util.concurrent.Striped;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
 import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.RecordCacheIterator;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeatures;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeaturesArguments;
 import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 
 /**
  * A concat iterator that transparently creates a disk cache of the content of the input iterables.
+ * <p>
+ * Several processes (e.g., a hyper-parameter search) may request the same cache at the same time. Caches are built
+ * while holding an exclusive lock on a .lock file next to the cache, so that a single process maps the features. The
+ * cache is written under a temporary name and published by renaming its files, the .cfp file last. Other processes
+ * wait for the lock, then find the published cache and use it. The operating system releases the lock of a process
+ * that crashes, and the next process to acquire the lock discards the files left by the interrupted build.
+ * <p>
+ * Caches extended with new sources are copied under a temporary name, extended, and published the same way, so that
+ * processes reading the previous version of the cache are not affected.
  */
 public class CacheHelper<RecordType> {
+    static private Logger LOG = LoggerFactory.getLogger(CacheHelper.class);
+    private static final String[] CACHE_EXTENSIONS = {".cf", ".cfi", ".cfp"};
+    // file locks are held by the process, threads of a process that build the same cache are serialized here. Locks
+    // are striped, so that the number of locks does not grow with the number of caches built:
+    private static final Striped<Lock> BUILDING = Striped.lock(64);
 
+    private boolean memoryMapped;
+    private boolean recordLayout;
+    private CacheCodec codec = CacheCodec.NONE;
 
+    /**
+     * Return iterators that memory-map caches instead of reading them as a stream.
+     *
+     * @param memoryMapped True to memory-map caches.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Return iterators over record caches (see {@link RecordCache}), which assemble minibatches of the requested size
+     * from individual records. The record cache is derived from the minibatch cache the first time it is needed.
+     *
+     * @param recordLayout True to iterate over record caches.
+     */
+    public void setRecordLayout(boolean recordLayout) {
+        this.recordLayout = recordLayout;
+    }
+
+    /**
+     * Compress the minibatches of the caches built by this helper. Existing caches are used whatever their codec.
+     *
+     * @param codec codec used to store minibatches in new caches.
+     */
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
 
     /**
      * Return a cached version of the iterator. Either returns a pre-cached iterator, or chaches the iterator
@@ -34,11 +89,179 @@ public class CacheHelper<RecordType> {
      */
     public MultiDataSetIterator cache(final DomainDescriptor domainDescriptor,
                                       MultiDataSetIteratorAdapter adapter, String cacheName, int cacheN, int minibatchSize) {
-//TODO use a file lock to prevent two processes from trying to create a cache at the same time.
         // determine if cache exists. If it does, use it.
         cacheName = decorateCacheName(domainDescriptor, cacheName);
         if (!cacheExists(cacheName, cacheN, true)) {
-            // Cache does not exist, we first build it:
+            try {
+                buildWithLock(domainDescriptor, adapter, cacheName, cacheN, minibatchSize);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to build cache " + cacheName, e);
+            }
+        }
+        assert cacheExists(cacheName, cacheN, true) : "A cache must exist at this point.";
+        return iterator(cacheName, cacheN, minibatchSize);
+    }
+
+    /**
+     * Return a cached version of the records of several sources. The cache keeps a manifest of the sources it
+     * contains (see {@link CacheManifest}). When sources are added, only the new sources are mapped and appended to
+     * the cache. The cache is rebuilt when a cached source changes or is no longer requested.
+     *
+     * @param domainDescriptor domain of the records.
+     * @param sources          sources of the records (e.g., .sbi files).
+     * @param adapters         function that returns an adapter over the records of a source.
+     * @param cacheName        name of the cache. The name must not depend on the list of sources.
+     * @param cacheN           maximum number of records returned by the cache iterator.
+     * @param minibatchSize    size of the minibatches.
+     * @return A cached iterator.
+     */
+    public MultiDataSetIterator cacheIncrementally(final DomainDescriptor domainDescriptor, List<String> sources,
+                                                   Function<String, MultiDataSetIteratorAdapter> adapters,
+                                                   String cacheName, int cacheN, int minibatchSize) {
+        final String decoratedName = decorateCacheName(domainDescriptor, cacheName);
+        try {
+            CacheManifest manifest = incrementalCacheExists(decoratedName) ? CacheManifest.load(decoratedName) : null;
+            List<String> newSources = manifest == null ? null : manifest.newSources(sources);
+            if (newSources == null || !newSources.isEmpty()) {
+                withLock(decoratedName, () -> append(domainDescriptor, sources, adapters, decoratedName, minibatchSize));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to build cache " + decoratedName, e);
+        }
+        return iterator(decoratedName, cacheN, minibatchSize);
+    }
+
+    private MultiDataSetIterator iterator(String cacheName, int cacheN, int minibatchSize) {
+        if (recordLayout) {
+            return new RecordCacheIterator(cacheName, minibatchSize, cacheN);
+        }
+        return memoryMapped ? new MultiDatasetMemoryMappedFeaturesIterator(cacheName, cacheN) :
+                new MultiDatasetMappedFeaturesIterator(cacheName, cacheN);
+    }
+
+    private static boolean incrementalCacheExists(String cacheName) {
+        return new File(cacheName + ".cf").exists() && new File(cacheName + ".cfp").exists() &&
+                new File(cacheName + CacheManifest.EXTENSION).exists();
+    }
+
+    /**
+     * Map the sources that are not in the cache and append their minibatches to a copy of the cache, then publish the
+     * copy. Must be called while holding the lock of the cache.
+     */
+    private void append(DomainDescriptor domainDescriptor, List<String> sources,
+                        Function<String, MultiDataSetIteratorAdapter> adapters, String cacheName,
+                        int minibatchSize) throws IOException {
+        // another process may have updated the cache while we waited for the lock:
+        CacheManifest manifest = incrementalCacheExists(cacheName) ? CacheManifest.load(cacheName) : null;
+        List<String> newSources = manifest == null ? null : manifest.newSources(sources);
+        Properties cfp = new Properties();
+        long cacheLength = 0;
+        if (newSources == null) {
+            if (manifest != null) {
+                LOG.info("Sources of cache {} have changed, rebuilding the cache.", cacheName);
+            }
+            manifest = new CacheManifest();
+            newSources = sources;
+        } else if (newSources.isEmpty()) {
+            LOG.info("Using cache {} updated by another process.", cacheName);
+            return;
+        } else {
+            try (FileReader reader = new FileReader(cacheName + ".cfp")) {
+                cfp.load(reader);
+            }
+            cacheLength = Long.parseLong(cfp.getProperty("cacheLength"));
+        }
+        final CacheCodec appendCodec = cfp.isEmpty() ? codec : CacheCodec.fromProperties(cfp);
+        final String buildingName = cacheName + "-building";
+        // files left by a process that crashed while extending the cache:
+        deleteCache(buildingName);
+        new File(buildingName + CacheManifest.EXTENSION).delete();
+        LongArrayList offsets = new LongArrayList();
+        try (RandomAccessFile cache = new RandomAccessFile(buildingName + ".cf", "rw")) {
+            if (cacheLength > 0) {
+                // only the published length of the cache is copied:
+                for (long offset : CacheIndex.loadOrBuild(cacheName).offsets()) {
+                    if (offset < cacheLength) {
+                        offsets.add(offset);
+                    }
+                }
+                try (FileChannel from = new FileInputStream(cacheName + ".cf").getChannel()) {
+                    long copied = 0;
+                    while (copied < cacheLength) {
+                        copied += from.transferTo(copied, cacheLength - copied, cache.getChannel().position(copied));
+                    }
+                }
+            }
+            long numRecords = Long.parseLong(cfp.getProperty("numRecords", "0"));
+            long numDatasets = Long.parseLong(cfp.getProperty("numDatasets", "0"));
+            final String temporaryName = cacheName + "-appending";
+            for (String source : newSources) {
+                LOG.info("Adding {} to cache {}", source, cacheName);
+                deleteCache(temporaryName);
+                MapMultiDatasetFeatures tool = new MapMultiDatasetFeatures() {
+                    @Override
+                    protected DomainDescriptor domainDescriptor() {
+                        return domainDescriptor;
+                    }
+                };
+                MapMultiDatasetFeaturesArguments arguments = new MapMultiDatasetFeaturesArguments<>();
+                arguments.adapter = adapters.apply(source);
+                arguments.outputBasename = temporaryName;
+                arguments.domainDescriptor = domainDescriptor;
+                arguments.miniBatchSize = minibatchSize;
+                arguments.cacheCodec = appendCodec.getName();
+                tool.setArguments(arguments);
+                tool.execute();
+
+                Properties appended = new Properties();
+                try (FileReader reader = new FileReader(temporaryName + ".cfp")) {
+                    appended.load(reader);
+                }
+                long[] appendedOffsets = CacheIndex.loadOrBuild(temporaryName).offsets();
+                for (int i = 0; i < appendedOffsets.length - 1; i++) {
+                    offsets.add(cacheLength + appendedOffsets[i]);
+                }
+                try (FileChannel from = new FileInputStream(temporaryName + ".cf").getChannel()) {
+                    long copied = 0;
+                    while (copied < from.size()) {
+                        copied += from.transferTo(copied, from.size() - copied, cache.getChannel().position(cacheLength + copied));
+                    }
+                    cacheLength += copied;
+                }
+                if (cfp.isEmpty()) {
+                    cfp.putAll(appended);
+                }
+                numRecords += tool.getNumRecordsWritten();
+                numDatasets += Long.parseLong(appended.getProperty("numDatasets", "0"));
+                manifest.add(CacheManifest.describe(source, tool.getNumRecordsWritten()));
+                deleteCache(temporaryName);
+            }
+            cache.getChannel().force(false);
+            cfp.put("numRecords", Long.toString(numRecords));
+            cfp.put("numDatasets", Long.toString(numDatasets));
+            cfp.put("cacheLength", Long.toString(cacheLength));
+            cfp.put("stored", sources.toString());
+        }
+        offsets.add(cacheLength);
+        new CacheIndex(offsets.toLongArray()).write(buildingName);
+        manifest.write(buildingName);
+        try (FileWriter writer = new FileWriter(buildingName + ".cfp")) {
+            cfp.store(writer, new Date().toString());
+        }
+        publish(buildingName, cacheName, CacheManifest.EXTENSION, ".cf", ".cfi", ".cfp");
+    }
+
+    private void buildWithLock(final DomainDescriptor domainDescriptor, MultiDataSetIteratorAdapter adapter,
+                               String cacheName, int cacheN, int minibatchSize) throws IOException {
+        withLock(cacheName, () -> {
+            // another process may have built the cache while we waited for the lock:
+            if (cacheExists(cacheName, cacheN, true)) {
+                LOG.info("Using cache {} built by another process.", cacheName);
+                return;
+            }
+            final String temporaryName = cacheName + "-building";
+            // files left by a process that crashed while building the cache:
+            deleteCache(temporaryName);
             MapMultiDatasetFeatures tool = new MapMultiDatasetFeatures() {
                 @Override
                 protected DomainDescriptor domainDescriptor() {
@@ -48,15 +271,85 @@ public class CacheHelper<RecordType> {
             MapMultiDatasetFeaturesArguments arguments = new MapMultiDatasetFeaturesArguments<>();
 
             arguments.adapter = adapter;
-            arguments.outputBasename = cacheName;
+            arguments.outputBasename = temporaryName;
             arguments.cacheN = cacheN;
             arguments.domainDescriptor = domainDescriptor;
             arguments.miniBatchSize = minibatchSize;
+            arguments.cacheCodec = codec.getName();
             tool.setArguments(arguments);
             tool.execute();
+            publish(temporaryName, cacheName, CACHE_EXTENSIONS);
+        });
+    }
+
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Run an action while holding the exclusive lock of a cache.
+     */
+    private static void withLock(String cacheName, LockedAction action) throws IOException {
+        final File cacheFile = new File(cacheName).getAbsoluteFile();
+        final Lock building = BUILDING.get(cacheFile.getPath());
+        building.lock();
+        try {
+            ExclusiveLockRequestWithFile lock = new ExclusiveLockRequestWithFile(cacheFile.getName() + ".lock",
+                    cacheFile.getParentFile());
+            if (lock.getLockedFile() == null) {
+                throw new IOException("Unable to create lock file for cache " + cacheName);
+            }
+            try {
+                lock.query();
+                if (!lock.granted()) {
+                    LOG.info("Waiting for {} to finish building cache {}", owner(lock), cacheName);
+                    lock.waitAndLock();
+                }
+                lock.getLockedFile().setLength(0);
+                lock.getLockedFile().writeBytes(ManagementFactory.getRuntimeMXBean().getName() + " since " + new Date() + "\n");
+                action.run();
+            } finally {
+                lock.release();
+                lock.getLockedFile().close();
+            }
+        } finally {
+            building.unlock();
+        }
+    }
+
+    /**
+     * Rename the files of a cache. The .cfp file is removed first and renamed last, so that the cache only exists
+     * when it is complete. The record cache derived from the previous version of the cache is removed.
+     *
+     * @param extensions extensions of the files to rename, ending with .cfp.
+     */
+    private static void publish(String temporaryName, String cacheName, String... extensions) throws IOException {
+        new File(cacheName + ".cfp").delete();
+        new File(cacheName + RecordCache.EXTENSION).delete();
+        for (String extension : extensions) {
+            File source = new File(temporaryName + extension);
+            if (!source.exists()) {
+                throw new IOException("Cache file was not written: " + source);
+            }
+            Files.move(source.toPath(), new File(cacheName + extension).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void deleteCache(String cacheName) {
+        for (String extension : CACHE_EXTENSIONS) {
+            new File(cacheName + extension).delete();
+        }
+    }
+
+    private static String owner(ExclusiveLockRequestWithFile lock) {
+        try {
+            lock.getLockedFile().seek(0);
+            String owner = lock.getLockedFile().readLine();
+            return owner == null ? "another process" : owner;
+        } catch (IOException e) {
+            return "another process";
         }
-        assert cacheExists(cacheName, cacheN, true) : "A cache must exist at this point.";
-        return new MultiDatasetMappedFeaturesIterator(cacheName, cacheN);
     }
 
     private String decorateCacheName(DomainDescriptor domainDescriptor, String cacheName) {
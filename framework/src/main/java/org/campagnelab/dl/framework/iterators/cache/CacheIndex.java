@@ -0,0 +1,160 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * An index of minibatch boundaries in a mapped feature cache (.cf file). The index is stored next to the cache,
+ * in a .cfi file, and makes it possible to seek to any minibatch of the cache.
+ * Each minibatch is stored in the .cf file as a 4-byte length, followed by the serialized MultiDataSet. The index
+ * keeps the position of each length prefix, followed by the length of the .cf file.
+ */
+public class CacheIndex {
+    static private Logger LOG = LoggerFactory.getLogger(CacheIndex.class);
+
+    private final long[] offsets;
+
+    /**
+     * Create an index.
+     *
+     * @param offsets position of each minibatch in the .cf file, followed by the length of the .cf file.
+     */
+    public CacheIndex(long[] offsets) {
+        assert offsets.length >= 1 : "offsets must at least contain the length of the cache file.";
+        this.offsets = offsets;
+    }
+
+    /**
+     * Return the number of minibatches in the cache.
+     */
+    public int numMinibatches() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Return the position of the serialized minibatch in the .cf file (after the length prefix).
+     *
+     * @param minibatchIndex index of the minibatch in the cache.
+     * @return position in bytes.
+     */
+    public long position(int minibatchIndex) {
+        return offsets[minibatchIndex] + 4;
+    }
+
+    /**
+     * Return the length of the serialized minibatch, in bytes.
+     *
+     * @param minibatchIndex index of the minibatch in the cache.
+     * @return length in bytes.
+     */
+    public int length(int minibatchIndex) {
+        return (int) (offsets[minibatchIndex + 1] - offsets[minibatchIndex] - 4);
+    }
+
+    /**
+     * Return the position of each minibatch in the .cf file, followed by the length of the .cf file.
+     */
+    long[] offsets() {
+        return offsets;
+    }
+
+    /**
+     * Return the length of the .cf file this index was built for.
+     */
+    public long cacheLength() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Load the index of a cache, or build it by scanning the cache when the index does not exist or does not match
+     * the cache. A newly built index is written next to the cache, so that it can be reused by other processes.
+     *
+     * @param basename basename of the cache (without the .cf extension).
+     * @return the index of the cache.
+     * @throws IOException when the cache cannot be read.
+     */
+    public static CacheIndex loadOrBuild(String basename) throws IOException {
+        final File cacheFile = new File(basename + ".cf");
+        final File indexFile = new File(basename + ".cfi");
+        if (indexFile.exists()) {
+            try {
+                CacheIndex index = load(indexFile);
+                if (index.cacheLength() == cacheFile.length()) {
+                    return index;
+                }
+                LOG.warn("Index {} does not match the cache, rebuilding it.", indexFile);
+            } catch (IOException e) {
+                LOG.warn("Unable to read index " + indexFile + ", rebuilding it.", e);
+            }
+        }
+        CacheIndex index = build(cacheFile);
+        try {
+            index.write(basename);
+        } catch (IOException e) {
+            // the index can be rebuilt next time, this is not fatal:
+            LOG.warn("Unable to write index " + indexFile, e);
+        }
+        return index;
+    }
+
+    /**
+     * Build an index by scanning the length prefixes of a cache file.
+     *
+     * @param cacheFile the .cf file.
+     * @return the index of the cache.
+     * @throws IOException when the cache cannot be read.
+     */
+    public static CacheIndex build(File cacheFile) throws IOException {
+        LongArrayList offsets = new LongArrayList();
+        final long cacheLength = cacheFile.length();
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(cacheFile)))) {
+            long position = 0;
+            while (position < cacheLength) {
+                offsets.add(position);
+                int length = input.readInt();
+                long skipped = 0;
+                while (skipped < length) {
+                    long n = input.skip(length - skipped);
+                    if (n <= 0) {
+                        throw new EOFException("Cache file is truncated: " + cacheFile);
+                    }
+                    skipped += n;
+                }
+                position += 4 + length;
+            }
+        }
+        offsets.add(cacheLength);
+        return new CacheIndex(offsets.toLongArray());
+    }
+
+    /**
+     * Write this index next to the cache.
+     *
+     * @param basename basename of the cache (without the .cf extension).
+     * @throws IOException when the index cannot be written.
+     */
+    public void write(String basename) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(basename + ".cfi")))) {
+            output.writeInt(offsets.length);
+            for (long offset : offsets) {
+                output.writeLong(offset);
+            }
+        }
+    }
+
+    private static CacheIndex load(File indexFile) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(indexFile)))) {
+            int n = input.readInt();
+            long[] offsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                offsets[i] = input.readLong();
+            }
+            return new CacheIndex(offsets);
+        }
+    }
+}
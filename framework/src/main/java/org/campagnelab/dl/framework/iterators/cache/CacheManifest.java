@@ -0,0 +1,176 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The list of source files whose records are stored in a feature cache, in the order they were cached. The
+ * manifest is stored next to the cache, in a .cfm file. For each source, the manifest keeps the length of the
+ * file, the number of records cached from it, and a checksum. The checksum covers the first and last megabyte of
+ * the file, so that sources can be checked each time a cache is opened without reading whole training sets.
+ */
+public class CacheManifest {
+    public static final String EXTENSION = ".cfm";
+    private static final int CHECKSUM_BLOCK = 1 << 20;
+
+    private final List<Entry> entries = new ObjectArrayList<>();
+
+    /**
+     * A source file of the cache.
+     */
+    public static class Entry {
+        final String source;
+        final long length;
+        final long numRecords;
+        final long checksum;
+
+        Entry(String source, long length, long numRecords, long checksum) {
+            this.source = source;
+            this.length = length;
+            this.numRecords = numRecords;
+            this.checksum = checksum;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public long getNumRecords() {
+            return numRecords;
+        }
+
+        boolean sameFile(Entry other) {
+            return source.equals(other.source) && length == other.length && checksum == other.checksum;
+        }
+    }
+
+    /**
+     * Describe a source file in its current state.
+     *
+     * @param source     path to the source (e.g., a .sbi file or its basename).
+     * @param numRecords number of records cached from this source.
+     * @return an entry of the manifest.
+     * @throws IOException when the source cannot be read.
+     */
+    public static Entry describe(String source, long numRecords) throws IOException {
+        File file = file(source);
+        final long length = file.length();
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[CHECKSUM_BLOCK];
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            int n = input.read(block, 0, (int) Math.min(CHECKSUM_BLOCK, length));
+            crc.update(block, 0, Math.max(0, n));
+            if (length > CHECKSUM_BLOCK) {
+                input.seek(Math.max(CHECKSUM_BLOCK, length - CHECKSUM_BLOCK));
+                n = input.read(block);
+                crc.update(block, 0, Math.max(0, n));
+            }
+        }
+        return new Entry(file.getAbsolutePath(), length, numRecords, crc.getValue());
+    }
+
+    private static File file(String source) {
+        File file = new File(source);
+        if (!file.exists()) {
+            // sources are often given as the basename of a .sbi file:
+            file = new File(SequenceBaseInformationReader.getBasename(source) + ".sbi");
+        }
+        return file;
+    }
+
+    public void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Return the sources that are not yet in the cache.
+     *
+     * @param sources sources the cache must contain.
+     * @return the sources to append to the cache, or null when the cache must be rebuilt because a cached source
+     * changed or is no longer requested.
+     * @throws IOException when a source cannot be read.
+     */
+    public List<String> newSources(List<String> sources) throws IOException {
+        List<String> newSources = new ObjectArrayList<>();
+        int numCached = 0;
+        for (String source : sources) {
+            Entry current = describe(source, 0);
+            Entry cached = find(current.source);
+            if (cached == null) {
+                newSources.add(source);
+            } else if (cached.sameFile(current)) {
+                numCached++;
+            } else {
+                return null;
+            }
+        }
+        return numCached == entries.size() ? newSources : null;
+    }
+
+    private Entry find(String source) {
+        for (Entry entry : entries) {
+            if (entry.source.equals(source)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load the manifest of a cache.
+     *
+     * @param basename basename of the cache (without extension).
+     * @return the manifest, or null when the cache has no manifest.
+     * @throws IOException when the manifest cannot be read.
+     */
+    public static CacheManifest load(String basename) throws IOException {
+        File file = new File(basename + EXTENSION);
+        if (!file.exists()) {
+            return null;
+        }
+        CacheManifest manifest = new CacheManifest();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.isEmpty()) {
+                    continue;
+                }
+                String[] tokens = line.split("\t");
+                if (tokens.length != 4) {
+                    throw new IOException("Malformed line in cache manifest " + file + ": " + line);
+                }
+                manifest.add(new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]),
+                        Long.parseLong(tokens[3])));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest next to the cache. The manifest is written under a temporary name and renamed.
+     *
+     * @param basename basename of the cache (without extension).
+     * @throws IOException when the manifest cannot be written.
+     */
+    public void write(String basename) throws IOException {
+        File temporary = new File(basename + EXTENSION + "-building");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temporary))) {
+            writer.println("#source\tlength\tnumRecords\tchecksum");
+            for (Entry entry : entries) {
+                writer.printf("%s\t%d\t%d\t%d%n", entry.source, entry.length, entry.numRecords, entry.checksum);
+            }
+        }
+        Files.move(temporary.toPath(), new File(basename + EXTENSION).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
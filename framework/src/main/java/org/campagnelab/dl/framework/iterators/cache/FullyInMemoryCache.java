@@ -1,5 +1,6 @@
 package org.campagnelab.dl.framework.iterators.cache;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.nd4j.linalg.api.concurrency.AffinityManager;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
@@ -8,15 +9,19 @@ import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 /**
- * Fully caches a multi-dataset iterator in memory.
+ * Fully caches a multi-dataset iterator in memory. Minibatches are returned in the order of the source, or in a
+ * different random order after each reset (see shuffleMinibatches).
  */
 public class FullyInMemoryCache implements MultiDataSetIterator {
     private MultiDataSetIterator source;
     private ObjectArrayList<MultiDataSet> cache = new ObjectArrayList<>();
     private int index = -1;
     private boolean sourceIsComplete;
+    private Random random;
+    private int[] order;
 
     public FullyInMemoryCache(MultiDataSetIterator source) {
         this.source = source;
@@ -27,6 +32,17 @@ public class FullyInMemoryCache implements MultiDataSetIterator {
 
     }
 
+    /**
+     * Visit minibatches in a new random order after each reset. The source is cached in its own order, and shuffling
+     * the source has no effect once it is cached, so shuffle the cache instead.
+     *
+     * @param seed seed of the random generator used to shuffle minibatches.
+     */
+    public void shuffleMinibatches(long seed) {
+        random = new Random(seed);
+        reset();
+    }
+
     @Override
     public MultiDataSet next(int num) {
         return next();
@@ -63,6 +79,14 @@ public class FullyInMemoryCache implements MultiDataSetIterator {
             sourceIsComplete = true;
             reset();
 
+        } else if (random != null) {
+            if (order == null || order.length != cache.size()) {
+                order = new int[cache.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+            }
+            IntArrays.shuffle(order, random);
         }
         //  System.out.println("Memory cache size="+cache.size());
 
@@ -89,7 +113,7 @@ public class FullyInMemoryCache implements MultiDataSetIterator {
         if (hasNext()) {
             index++;
             if (sourceIsComplete) {
-                return cache.get(index);
+                return cache.get(order == null ? index : order[index]);
             } else {
 
                 MultiDataSet multiDataSet = null;
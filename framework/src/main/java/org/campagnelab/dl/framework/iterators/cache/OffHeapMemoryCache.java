@@ -0,0 +1,452 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.bytedeco.javacpp.indexer.HalfIndexer;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Caches a multi-dataset iterator in memory, outside of the Java heap. Unlike {@link FullyInMemoryCache}, which keeps
+ * the MultiDataSet objects, this cache copies the values of the feature, label and mask arrays into large direct
+ * buffers (slabs), optionally at half precision. The garbage collector does not need to scan the cached values, and
+ * a minibatch takes about the size of its values (half of it at half precision). Direct buffers are limited by the
+ * JVM option -XX:MaxDirectMemorySize, which must be at least the memory budget.
+ * <p>
+ * Minibatches that do not fit in the memory budget are spilled to disk. When the source is a
+ * {@link MultiDatasetMemoryMappedFeaturesIterator}, spilled minibatches are read back from the .cf file of the
+ * source. Otherwise, they are written to a temporary file, compressed with {@link CacheCodec#LZ4}.
+ * <p>
+ * The cache is filled when it is created. Each call to next returns new arrays, decoded from the slabs. The next
+ * minibatches are decoded ahead of the consumer on background threads. Minibatches are returned in the order of the
+ * source, or in a different random order after each reset (see shuffleMinibatches).
+ */
+public class OffHeapMemoryCache implements MultiDataSetIterator {
+    static private Logger LOG = LoggerFactory.getLogger(OffHeapMemoryCache.class);
+    private static final int MIN_SLAB_SIZE = 1 << 20;
+    private static final int MAX_SLAB_SIZE = 64 << 20;
+    public static final int NUM_DECODE_THREADS = Integer.getInteger("memory.cache.decode.threads", 2);
+    private static final ExecutorService DECODERS = Executors.newFixedThreadPool(NUM_DECODE_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("memory-cache-decode-%d").build());
+    // maximum number of minibatches decoded ahead of the consumer:
+    private static final int DECODE_AHEAD = 2 * NUM_DECODE_THREADS;
+    private static final int ABSENT = -1;
+
+    private final MultiDataSetIterator source;
+    private long memoryBudget;
+    private final boolean halfPrecision;
+    private final ObjectArrayList<ByteBuffer> slabs = new ObjectArrayList<>();
+    private long allocated;
+    // for each minibatch, the index of its slab and its position in the slab, or ABSENT when spilled:
+    private final IntArrayList slabIndices = new IntArrayList();
+    private final IntArrayList slabPositions = new IntArrayList();
+    // for each minibatch, the index of the minibatch in the source, or its position in the spill file:
+    private final LongArrayList spillPositions = new LongArrayList();
+    private final IntArrayList spillLengths = new IntArrayList();
+    private MultiDatasetMemoryMappedFeaturesIterator randomAccessSource;
+    private File spillFile;
+    private FileChannel spillChannel;
+    private final ObjectArrayFIFOQueue<Future<MultiDataSet>> decoded = new ObjectArrayFIFOQueue<>();
+    private int numMinibatches;
+    private int nextToDecode;
+    private int position;
+    private Random random;
+    private int[] order;
+
+    /**
+     * The memory budget used when none is specified: half of the maximum heap size, which is also the default limit
+     * on direct memory (see -XX:MaxDirectMemorySize).
+     *
+     * @return a number of bytes.
+     */
+    public static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Cache the minibatches of an iterator.
+     *
+     * @param source        the iterator to cache.
+     * @param memoryBudget  maximum number of bytes of memory used to store minibatches (see defaultMemoryBudget).
+     * @param halfPrecision True to store values at half precision.
+     */
+    public OffHeapMemoryCache(MultiDataSetIterator source, long memoryBudget, boolean halfPrecision) {
+        this.source = source;
+        this.memoryBudget = memoryBudget;
+        this.halfPrecision = halfPrecision;
+        if (source instanceof MultiDatasetMemoryMappedFeaturesIterator) {
+            randomAccessSource = (MultiDatasetMemoryMappedFeaturesIterator) source;
+        }
+        try {
+            fill();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill minibatches to disk", e);
+        }
+    }
+
+    private void fill() throws IOException {
+        int numSpilled = 0;
+        if (randomAccessSource != null) {
+            // visit minibatches in the order of the .cf file, so that spilled minibatches can be read back by index:
+            for (int minibatchIndex = 0; minibatchIndex < randomAccessSource.numMinibatches(); minibatchIndex++) {
+                numSpilled += add(randomAccessSource.get(minibatchIndex));
+            }
+        } else {
+            if (source.resetSupported()) {
+                source.reset();
+            }
+            while (source.hasNext()) {
+                numSpilled += add(source.next());
+            }
+        }
+        LOG.info("Cached {} minibatches in {} MB of memory, {} minibatches spilled to disk.", numMinibatches,
+                allocated >> 20, numSpilled);
+        reset();
+    }
+
+    /**
+     * Store a minibatch in memory, or spill it to disk.
+     *
+     * @return the number of minibatches spilled.
+     */
+    private int add(MultiDataSet minibatch) throws IOException {
+        final boolean stored = store(minibatch);
+        if (!stored) {
+            spill(minibatch);
+        }
+        numMinibatches++;
+        return stored ? 0 : 1;
+    }
+
+    /**
+     * Copy the values of a minibatch to the slabs.
+     *
+     * @return false when the minibatch does not fit in the memory budget.
+     */
+    private boolean store(MultiDataSet minibatch) {
+        INDArray[][] arrays = groups(minibatch);
+        int size = 8;
+        for (INDArray[] group : arrays) {
+            for (INDArray array : group) {
+                size += encodedSize(array);
+            }
+        }
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < size) {
+            // slabs grow with the cache, so that small caches do not reserve large slabs:
+            final long slabSize = Math.min(MAX_SLAB_SIZE, Math.max(MIN_SLAB_SIZE, allocated));
+            final int capacity = (int) Math.max(size, Math.min(slabSize, memoryBudget - allocated));
+            if (allocated + capacity > memoryBudget) {
+                return false;
+            }
+            try {
+                slab = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            } catch (OutOfMemoryError e) {
+                // the JVM ran out of direct memory before the budget was reached, spill this and the next minibatches:
+                LOG.warn("Unable to allocate {} bytes of direct memory, spilling minibatches to disk after {} bytes.",
+                        capacity, allocated);
+                memoryBudget = allocated;
+                return false;
+            }
+            slabs.add(slab);
+            allocated += capacity;
+        }
+        slabIndices.add(slabs.size() - 1);
+        slabPositions.add(slab.position());
+        spillPositions.add(ABSENT);
+        spillLengths.add(0);
+        slab.putInt(minibatch.getFeatures().length);
+        slab.putInt(minibatch.getLabels().length);
+        for (INDArray[] group : arrays) {
+            for (INDArray array : group) {
+                put(slab, array);
+            }
+        }
+        return true;
+    }
+
+    private void spill(MultiDataSet minibatch) throws IOException {
+        slabIndices.add(ABSENT);
+        slabPositions.add(ABSENT);
+        if (randomAccessSource != null) {
+            spillPositions.add(numMinibatches);
+            spillLengths.add(0);
+            return;
+        }
+        if (spillChannel == null) {
+            spillFile = File.createTempFile("memory-cache-", ".cf");
+            spillFile.deleteOnExit();
+            spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        minibatch.save(bytes);
+        byte[] stored = CacheCodec.LZ4.encode(bytes.toByteArray());
+        spillPositions.add(spillChannel.size());
+        spillLengths.add(stored.length);
+        ByteBuffer buffer = ByteBuffer.wrap(stored);
+        while (buffer.hasRemaining()) {
+            spillChannel.write(buffer, spillChannel.size());
+        }
+    }
+
+    /**
+     * Return the features, feature masks, labels and label masks of a minibatch. Missing masks are null.
+     */
+    private static INDArray[][] groups(MultiDataSet minibatch) {
+        final int numFeatures = minibatch.getFeatures().length;
+        final int numLabels = minibatch.getLabels().length;
+        return new INDArray[][]{
+                minibatch.getFeatures(),
+                orNulls(minibatch.getFeaturesMaskArrays(), numFeatures),
+                minibatch.getLabels(),
+                orNulls(minibatch.getLabelsMaskArrays(), numLabels)};
+    }
+
+    private static INDArray[] orNulls(INDArray[] masks, int length) {
+        return masks == null ? new INDArray[length] : masks;
+    }
+
+    private int encodedSize(INDArray array) {
+        if (array == null) {
+            return 4;
+        }
+        final int valueSize = halfPrecision ? 2 : 4;
+        // values are padded to keep the next array aligned:
+        return 4 + 4 * array.rank() + (array.length() * valueSize + 3) / 4 * 4;
+    }
+
+    private void put(ByteBuffer slab, INDArray array) {
+        if (array == null) {
+            slab.putInt(ABSENT);
+            return;
+        }
+        slab.putInt(array.rank());
+        for (int dim : array.shape()) {
+            slab.putInt(dim);
+        }
+        final float[] values = values(array);
+        if (halfPrecision) {
+            short[] halves = new short[values.length];
+            for (int i = 0; i < values.length; i++) {
+                halves[i] = (short) HalfIndexer.fromFloat(values[i]);
+            }
+            slab.asShortBuffer().put(halves);
+            slab.position(slab.position() + (values.length * 2 + 3) / 4 * 4);
+        } else {
+            slab.asFloatBuffer().put(values);
+            slab.position(slab.position() + values.length * 4);
+        }
+    }
+
+    private static float[] values(INDArray array) {
+        if (array.ordering() == 'c' && !array.isView() && array.data().length() == array.length()) {
+            return array.data().asFloat();
+        }
+        return array.dup('c').data().asFloat();
+    }
+
+    /**
+     * Decode a cached minibatch.
+     *
+     * @param minibatchIndex index of the minibatch in the cache.
+     * @return new arrays with the values of the minibatch.
+     */
+    public MultiDataSet get(int minibatchIndex) {
+        if (minibatchIndex < 0 || minibatchIndex >= numMinibatches) {
+            throw new IndexOutOfBoundsException("minibatch index out of range: " + minibatchIndex);
+        }
+        final int slabIndex = slabIndices.getInt(minibatchIndex);
+        if (slabIndex == ABSENT) {
+            return readSpilled(minibatchIndex);
+        }
+        ByteBuffer slab = slabs.get(slabIndex).duplicate().order(ByteOrder.nativeOrder());
+        slab.position(slabPositions.getInt(minibatchIndex));
+        final int numFeatures = slab.getInt();
+        final int numLabels = slab.getInt();
+        INDArray[] features = get(slab, numFeatures);
+        INDArray[] featureMasks = get(slab, numFeatures);
+        INDArray[] labels = get(slab, numLabels);
+        INDArray[] labelMasks = get(slab, numLabels);
+        return new org.nd4j.linalg.dataset.MultiDataSet(features, labels,
+                allNull(featureMasks) ? null : featureMasks, allNull(labelMasks) ? null : labelMasks);
+    }
+
+    private INDArray[] get(ByteBuffer slab, int numArrays) {
+        INDArray[] arrays = new INDArray[numArrays];
+        for (int i = 0; i < numArrays; i++) {
+            final int rank = slab.getInt();
+            if (rank == ABSENT) {
+                continue;
+            }
+            int[] shape = new int[rank];
+            int length = 1;
+            for (int dim = 0; dim < rank; dim++) {
+                shape[dim] = slab.getInt();
+                length *= shape[dim];
+            }
+            float[] values = new float[length];
+            if (halfPrecision) {
+                short[] halves = new short[length];
+                slab.asShortBuffer().get(halves);
+                for (int j = 0; j < length; j++) {
+                    values[j] = HalfIndexer.toFloat(halves[j] & 0xFFFF);
+                }
+                slab.position(slab.position() + (length * 2 + 3) / 4 * 4);
+            } else {
+                slab.asFloatBuffer().get(values);
+                slab.position(slab.position() + length * 4);
+            }
+            arrays[i] = Nd4j.create(values, shape, 'c');
+        }
+        return arrays;
+    }
+
+    private static boolean allNull(INDArray[] arrays) {
+        for (INDArray array : arrays) {
+            if (array != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MultiDataSet readSpilled(int minibatchIndex) {
+        final long spillPosition = spillPositions.getLong(minibatchIndex);
+        if (randomAccessSource != null) {
+            return randomAccessSource.get((int) spillPosition);
+        }
+        ByteBuffer stored = ByteBuffer.allocate(spillLengths.getInt(minibatchIndex));
+        try {
+            while (stored.hasRemaining()) {
+                if (spillChannel.read(stored, spillPosition + stored.position()) < 0) {
+                    throw new IOException("Spill file is truncated: " + spillFile);
+                }
+            }
+            return CacheCodec.LZ4.decode(stored.array(), 0, stored.capacity());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read spilled minibatch " + minibatchIndex, e);
+        }
+    }
+
+    /**
+     * Visit minibatches in a new random order after each reset. The source is cached in its own order, so shuffle the
+     * cache rather than its source.
+     *
+     * @param seed seed of the random generator used to shuffle minibatches.
+     */
+    public synchronized void shuffleMinibatches(long seed) {
+        random = new Random(seed);
+        order = new int[numMinibatches];
+        for (int i = 0; i < numMinibatches; i++) {
+            order[i] = i;
+        }
+        reset();
+    }
+
+    /**
+     * Return the number of minibatches in the cache.
+     */
+    public int numMinibatches() {
+        return numMinibatches;
+    }
+
+    /**
+     * Return the number of bytes of memory allocated to store minibatches.
+     */
+    public long getMemoryUsed() {
+        return allocated;
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        // cached minibatches have been processed by the source:
+        source.setPreProcessor(preProcessor);
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void reset() {
+        while (!decoded.isEmpty()) {
+            decoded.dequeue().cancel(false);
+        }
+        position = 0;
+        nextToDecode = 0;
+        if (random != null) {
+            IntArrays.shuffle(order, random);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < numMinibatches;
+    }
+
+    @Override
+    public synchronized MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        while (decoded.size() < DECODE_AHEAD && nextToDecode < numMinibatches) {
+            final int minibatchIndex = order == null ? nextToDecode++ : order[nextToDecode++];
+            decoded.enqueue(DECODERS.submit(() -> get(minibatchIndex)));
+        }
+        position++;
+        try {
+            return decoded.dequeue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while decoding minibatch", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to decode minibatch", e.getCause());
+        }
+    }
+
+    /**
+     * Release the spill file. The memory of the slabs is released when the cache is garbage collected.
+     */
+    public void close() throws IOException {
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillFile.delete();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A feature cache that stores one row of floats per record (.cfr file), instead of whole minibatches. Minibatches of
+ * any size can be assembled from any subset of the records (see
+ * {@link org.campagnelab.dl.framework.iterators.RecordCacheIterator}), so that a cache can be reused with a different
+ * minibatch size, and records can be shuffled each epoch.
+ * <p>
+ * The file starts with a header that describes the arrays of a record (features, feature masks, labels and label
+ * masks) and the shape of their rows. Records follow, each stored as the concatenation of the rows of its arrays.
+ * All values are stored in little-endian order. A record cache is derived from the .cf cache with the same basename.
+ * The header keeps the length and modification time of the .cf cache, and the record cache is rebuilt when either
+ * changes.
+ */
+public class RecordCache {
+    static private Logger LOG = LoggerFactory.getLogger(RecordCache.class);
+    public static final String EXTENSION = ".cfr";
+    private static final int MAGIC = 0x43465231;
+    private static final int FORMAT_VERSION = 2;
+    public static final int FEATURES = 0;
+    public static final int FEATURE_MASKS = 1;
+    public static final int LABELS = 2;
+    public static final int LABEL_MASKS = 3;
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final long numRecords;
+    // group and slot of each array of a record, and the shape of its row:
+    private final int[] groups;
+    private final int[] slots;
+    private final int[][] rowShapes;
+    private final int[] rowOffsets;
+    private final int recordWidth;
+    private final int headerLength;
+
+    private RecordCache(long sourceLength, long sourceModified, long numRecords, int[] groups, int[] slots,
+                        int[][] rowShapes) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.numRecords = numRecords;
+        this.groups = groups;
+        this.slots = slots;
+        this.rowShapes = rowShapes;
+        this.rowOffsets = new int[groups.length];
+        int width = 0;
+        int length = 4 * 4 + 8 * 3;
+        for (int i = 0; i < groups.length; i++) {
+            rowOffsets[i] = width;
+            width += rowWidth(i);
+            length += 4 * (3 + rowShapes[i].length);
+        }
+        this.recordWidth = width;
+        this.headerLength = length;
+    }
+
+    /**
+     * Return the record cache derived from a .cf cache, converting the .cf cache when the record cache is missing or
+     * out of date.
+     *
+     * @param basename basename of the cache (without extension).
+     * @return the header of the record cache.
+     * @throws IOException when the cache cannot be read or converted.
+     */
+    public static RecordCache loadOrBuild(String basename) throws IOException {
+        final File source = new File(basename + ".cf");
+        final long sourceLength = source.length();
+        final long sourceModified = source.lastModified();
+        final File file = new File(basename + EXTENSION);
+        if (file.exists()) {
+            try {
+                RecordCache cache = load(basename);
+                if (cache.sourceLength == sourceLength && cache.sourceModified == sourceModified) {
+                    return cache;
+                }
+                LOG.info("Record cache {} is out of date, rebuilding it.", file);
+            } catch (IOException e) {
+                LOG.info("Record cache {} cannot be used, rebuilding it: {}", file, e.getMessage());
+            }
+        }
+        LOG.info("Converting cache {} to one row per record.", basename);
+        return write(new MultiDatasetMappedFeaturesIterator(basename), basename, sourceLength, sourceModified);
+    }
+
+    /**
+     * Write the records of minibatches to a record cache. The cache is written under a unique temporary name and
+     * renamed when complete, so that processes that convert the same cache at the same time do not interfere.
+     *
+     * @param minibatches  minibatches to store. All records must have arrays of the same shape.
+     * @param basename     basename of the cache (without extension).
+     * @param sourceLength   length of the .cf cache the minibatches come from.
+     * @param sourceModified modification time of the .cf cache the minibatches come from.
+     * @return the header of the record cache.
+     * @throws IOException when the cache cannot be written.
+     */
+    public static RecordCache write(MultiDataSetIterator minibatches, String basename, long sourceLength,
+                                    long sourceModified) throws IOException {
+        final File target = new File(basename + EXTENSION).getAbsoluteFile();
+        final File temporary = File.createTempFile(target.getName() + "-", ".building", target.getParentFile());
+        RecordCache cache;
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+            cache = writeRecords(minibatches, channel, sourceLength, sourceModified);
+        } catch (IOException | RuntimeException e) {
+            temporary.delete();
+            throw e;
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return cache;
+    }
+
+    private static RecordCache writeRecords(MultiDataSetIterator minibatches, FileChannel channel, long sourceLength,
+                                            long sourceModified) throws IOException {
+        RecordCache layout = null;
+        long numRecords = 0;
+        ByteBuffer buffer = null;
+        while (minibatches.hasNext()) {
+            MultiDataSet minibatch = minibatches.next();
+            INDArray[] arrays = arrays(minibatch);
+            if (layout == null) {
+                layout = layout(minibatch, sourceLength, sourceModified);
+                // the header is written last, when the number of records is known:
+                channel.position(layout.headerLength);
+            } else {
+                layout.checkShapes(arrays);
+            }
+            final int numExamples = minibatch.getFeatures(0).size(0);
+            final int capacity = numExamples * layout.recordWidth * 4;
+            if (buffer == null || buffer.capacity() < capacity) {
+                buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.clear();
+            FloatBuffer rows = buffer.asFloatBuffer();
+            float[][] values = new float[arrays.length][];
+            for (int i = 0; i < arrays.length; i++) {
+                values[i] = values(arrays[i]);
+            }
+            for (int example = 0; example < numExamples; example++) {
+                for (int i = 0; i < arrays.length; i++) {
+                    final int rowWidth = layout.rowWidth(i);
+                    rows.put(values[i], example * rowWidth, rowWidth);
+                }
+            }
+            buffer.limit(capacity);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            numRecords += numExamples;
+        }
+        if (layout == null) {
+            throw new IOException("Cannot create a record cache without records.");
+        }
+        layout = new RecordCache(sourceLength, sourceModified, numRecords, layout.groups, layout.slots,
+                layout.rowShapes);
+        ByteBuffer header = layout.header();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        return layout;
+    }
+
+    public static RecordCache load(String basename) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(basename + EXTENSION).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), 1 << 20)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a record cache: " + basename + EXTENSION);
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported record cache version %d in %s%s", version, basename, EXTENSION));
+            }
+            final long sourceLength = buffer.getLong();
+            final long sourceModified = buffer.getLong();
+            final long numRecords = buffer.getLong();
+            final int numArrays = buffer.getInt();
+            int[] groups = new int[numArrays];
+            int[] slots = new int[numArrays];
+            int[][] rowShapes = new int[numArrays][];
+            for (int i = 0; i < numArrays; i++) {
+                groups[i] = buffer.getInt();
+                slots[i] = buffer.getInt();
+                rowShapes[i] = new int[buffer.getInt()];
+                for (int dim = 0; dim < rowShapes[i].length; dim++) {
+                    rowShapes[i][dim] = buffer.getInt();
+                }
+            }
+            buffer.getInt();
+            return new RecordCache(sourceLength, sourceModified, numRecords, groups, slots, rowShapes);
+        }
+    }
+
+    private ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putLong(sourceLength);
+        header.putLong(sourceModified);
+        header.putLong(numRecords);
+        header.putInt(groups.length);
+        for (int i = 0; i < groups.length; i++) {
+            header.putInt(groups[i]);
+            header.putInt(slots[i]);
+            header.putInt(rowShapes[i].length);
+            for (int dim : rowShapes[i]) {
+                header.putInt(dim);
+            }
+        }
+        header.putInt(recordWidth);
+        header.flip();
+        return header;
+    }
+
+    private static RecordCache layout(MultiDataSet minibatch, long sourceLength, long sourceModified) {
+        IntArrayList groups = new IntArrayList();
+        IntArrayList slots = new IntArrayList();
+        List<int[]> rowShapes = new ObjectArrayList<>();
+        INDArray[][] arraysByGroup = groups(minibatch);
+        for (int group = 0; group < arraysByGroup.length; group++) {
+            INDArray[] arrays = arraysByGroup[group];
+            for (int slot = 0; arrays != null && slot < arrays.length; slot++) {
+                if (arrays[slot] != null) {
+                    groups.add(group);
+                    slots.add(slot);
+                    rowShapes.add(Arrays.copyOfRange(arrays[slot].shape(), 1, arrays[slot].rank()));
+                }
+            }
+        }
+        return new RecordCache(sourceLength, sourceModified, 0, groups.toIntArray(), slots.toIntArray(),
+                rowShapes.toArray(new int[rowShapes.size()][]));
+    }
+
+    private void checkShapes(INDArray[] arrays) throws IOException {
+        if (arrays.length != groups.length) {
+            throw new IOException("All minibatches of a record cache must have the same arrays.");
+        }
+        for (int i = 0; i < arrays.length; i++) {
+            if (!Arrays.equals(rowShapes[i], Arrays.copyOfRange(arrays[i].shape(), 1, arrays[i].rank()))) {
+                throw new IOException("All records of a record cache must have arrays of the same shape.");
+            }
+        }
+    }
+
+    private static INDArray[][] groups(MultiDataSet minibatch) {
+        return new INDArray[][]{minibatch.getFeatures(), minibatch.getFeaturesMaskArrays(),
+                minibatch.getLabels(), minibatch.getLabelsMaskArrays()};
+    }
+
+    /**
+     * Return the arrays of a minibatch that are stored in record caches, in the order of the header.
+     */
+    private static INDArray[] arrays(MultiDataSet minibatch) {
+        List<INDArray> arrays = new ObjectArrayList<>();
+        for (INDArray[] group : groups(minibatch)) {
+            if (group != null) {
+                for (INDArray array : group) {
+                    if (array != null) {
+                        arrays.add(array);
+                    }
+                }
+            }
+        }
+        return arrays.toArray(new INDArray[arrays.size()]);
+    }
+
+    private static float[] values(INDArray array) {
+        if (array.ordering() == 'c' && !array.isView() && array.data().length() == array.length()) {
+            return array.data().asFloat();
+        }
+        return array.dup('c').data().asFloat();
+    }
+
+    public long numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Return the number of arrays stored for each record.
+     */
+    public int numArrays() {
+        return groups.length;
+    }
+
+    /**
+     * Return the group of an array: {@link #FEATURES}, {@link #FEATURE_MASKS}, {@link #LABELS} or
+     * {@link #LABEL_MASKS}.
+     */
+    public int group(int array) {
+        return groups[array];
+    }
+
+    /**
+     * Return the index of an array in its group.
+     */
+    public int slot(int array) {
+        return slots[array];
+    }
+
+    /**
+     * Return the shape of the row of an array (the shape of the array, without the minibatch dimension).
+     */
+    public int[] rowShape(int array) {
+        return rowShapes[array];
+    }
+
+    /**
+     * Return the number of values in the row of an array.
+     */
+    public int rowWidth(int array) {
+        int width = 1;
+        for (int dim : rowShapes[array]) {
+            width *= dim;
+        }
+        return width;
+    }
+
+    /**
+     * Return the position of the row of an array in a record, in number of floats.
+     */
+    public int rowOffset(int array) {
+        return rowOffsets[array];
+    }
+
+    /**
+     * Return the number of floats in a record.
+     */
+    public int recordWidth() {
+        return recordWidth;
+    }
+
+    /**
+     * Return the position of the first record in the .cfr file, in bytes.
+     */
+    public int headerLength() {
+        return headerLength;
+    }
+}
@@ -15,6 +15,8 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
     protected int numFeatures = 0;
     protected int[] offsets;
     private boolean normalizedCalled;
+    private float[] row;
+    private FeatureMapper<RecordType>[] delegates;
 
     @SafeVarargs
     public ConcatFeatureMapper(FeatureMapper<RecordType>... featureMappers) {
@@ -41,6 +43,27 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
         return numFeatures;
     }
 
+    /**
+     * Return the mappers whose features are concatenated, in order: the delegate given to setDelegate, or else the
+     * mappers passed to the constructor.
+     *
+     * @return the mappers concatenated by this mapper.
+     */
+    public FeatureMapper<RecordType>[] getDelegates() {
+        return delegates != null ? delegates : mappers;
+    }
+
+    /**
+     * Produce all the features of this mapper with a single delegate. For subclasses that create the mapper they
+     * forward to after construction (e.g., in configure), instead of passing it to the constructor.
+     *
+     * @param delegate mapper that produces the features of this mapper.
+     */
+    @SuppressWarnings("unchecked")
+    protected void setDelegate(FeatureMapper<RecordType> delegate) {
+        delegates = new FeatureMapper[]{delegate};
+    }
+
     @Override
     public MappedDimensions dimensions() {
         return new MappedDimensions(numberOfFeatures());
@@ -48,7 +71,7 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
 
     @Override
     public void prepareToNormalize(RecordType record, int indexOfRecord) {
-        for (FeatureMapper<RecordType> calculator : mappers) {
+        for (FeatureMapper<RecordType> calculator : getDelegates()) {
             calculator.prepareToNormalize(record, indexOfRecord);
         }
         normalizedCalled = true;
@@ -57,19 +80,23 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
 
     @Override
     public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
+        if (row == null) {
+            row = new float[numFeatures];
+        }
+        mapFeatures(record, row, 0);
+        FeatureRows.putRow(row, inputs, indexOfRecord);
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, float[] row, int offset) {
         assert normalizedCalled : "prepareToNormalize must be called before mapFeatures.";
-        int offset = 0;
-        final int[] indicesOuter = {0, 0};
-        for (FeatureMapper<RecordType> delegate : mappers) {
-
-            final int delNumFeatures = delegate.numberOfFeatures();
-            for (int j = 0; j < delNumFeatures; j++) {
-                indicesOuter[0] = indexOfRecord;
-                indicesOuter[1] = j + offset;
-                inputs.putScalar(indicesOuter, delegate.produceFeature(record, j));
-            }
-            offset += delNumFeatures;
+        int delegateOffset = offset;
+        for (FeatureMapper<RecordType> delegate : getDelegates()) {
+            delegate.mapFeatures(record, row, delegateOffset);
+            delegateOffset += delegate.numberOfFeatures();
         }
+        assert delegateOffset - offset == numberOfFeatures() :
+                "getDelegates() must return the mappers that produce the features of " + getClass().getName();
     }
 
     @Override
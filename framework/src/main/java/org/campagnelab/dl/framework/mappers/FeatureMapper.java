@@ -40,6 +40,23 @@ public interface FeatureMapper<RecordType> {
      */
     void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord);
 
+    /**
+     * Write the features of a record to a row of floats, at row[offset] to row[offset+numberOfFeatures()-1].
+     * Every feature must be written, since the row is reused across records. Only supported by mappers with
+     * one dimension. prepareToNormalize must be called before this method. The default implementation calls
+     * produceFeature for each feature; mappers that can produce all their features at once should override it.
+     *
+     * @param record The record to convert to features.
+     * @param row    The row of features.
+     * @param offset Index in the row of the first feature of this mapper.
+     */
+    default void mapFeatures(RecordType record, float[] row, int offset) {
+        final int numberOfFeatures = numberOfFeatures();
+        for (int featureIndex = 0; featureIndex < numberOfFeatures; featureIndex++) {
+            row[offset + featureIndex] = produceFeature(record, featureIndex);
+        }
+    }
+
     /**
      * Return true if the mapper creates an input mask (maskLabels is implemented).
      *
@@ -0,0 +1,38 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Copies rows of features produced by FeatureMapper.mapFeatures(record, float[] row, offset) to minibatch tensors.
+ * A row of a C-ordered matrix is written to the tensor's data buffer one value at a time with DataBuffer.put, which
+ * skips the index and shape checks of putScalar. This is not a bulk copy: ND4J 0.7.1 offers no bulk write to part of
+ * a buffer that backends with a device copy (e.g., CUDA) track, so each value is still a separate call.
+ */
+public class FeatureRows {
+
+    /**
+     * Copy a row of features to a two-dimensional tensor.
+     *
+     * @param row           features of the record.
+     * @param inputs        tensor with one row per record, and at least row.length columns.
+     * @param indexOfRecord index of the row to write in the tensor.
+     */
+    public static void putRow(float[] row, INDArray inputs, int indexOfRecord) {
+        if (inputs.rank() == 2 && inputs.ordering() == 'c' && inputs.stride(1) == 1
+                && inputs.data().dataType() == DataBuffer.Type.FLOAT) {
+            final DataBuffer buffer = inputs.data();
+            // views share the buffer of their parent, which may already start at the offset of the view:
+            final long start = inputs.offset() - buffer.offset() + (long) indexOfRecord * inputs.stride(0);
+            for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+                buffer.put(start + featureIndex, row[featureIndex]);
+            }
+        } else {
+            final int[] indices = {indexOfRecord, 0};
+            for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+                indices[1] = featureIndex;
+                inputs.putScalar(indices, row[featureIndex]);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.campagnelab.dl.framework.mappers;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * A feature mapper compiled from a tree of mappers. Concatenations (ConcatFeatureMapper and its subclasses) are
+ * replaced by the list of leaf mappers they contain, each with the offset of its first feature, so that mapping a
+ * record calls each leaf once, and producing a feature locates its leaf with a lookup instead of one binary search
+ * per level of the tree. Record transformations (RecordTransformingFeatureMapper) are applied once per record,
+ * and the leaves below them receive the transformed record. Any other mapper is a leaf.
+ * <p>
+ * Leaves are prepared and mapped in the order the tree would call them, so the flattened mapper produces exactly
+ * the features of the tree.
+ */
+public class FlattenedFeatureMapper<RecordType> implements FeatureNameMapper<RecordType> {
+    private final FeatureMapper<RecordType> root;
+    private final FeatureMapper[] leaves;
+    // offset of the first feature of each leaf, followed by the number of features:
+    private final int[] leafOffsets;
+    // index in records of the record mapped by each leaf (0 is the record being mapped):
+    private final int[] leafRecords;
+    private final RecordTransformingFeatureMapper[] transformers;
+    // index in records of the record transformed by each transformer. Transformer t writes records[t + 1]:
+    private final int[] transformerRecords;
+    // leaf index (>=0) or -(transformer index + 1), in the order the tree prepares them:
+    private final int[] prepareOrder;
+    private final int[] featureToLeaf;
+    private final Object[] records;
+    private final int numFeatures;
+    private String[] featureNames;
+    private float[] row;
+
+    /**
+     * Flatten a mapper if it can be flattened.
+     *
+     * @param mapper a configured mapper.
+     * @return a flattened mapper, or the mapper itself when it is not one-dimensional, or has a mask.
+     */
+    public static <RecordType> FeatureMapper<RecordType> compile(FeatureMapper<RecordType> mapper) {
+        if (mapper instanceof FlattenedFeatureMapper || mapper.dimensions().numDimensions() != 1 || mapper.hasMask()) {
+            return mapper;
+        }
+        return new FlattenedFeatureMapper<>(mapper);
+    }
+
+    public FlattenedFeatureMapper(FeatureMapper<RecordType> root) {
+        this.root = root;
+        ObjectArrayList<FeatureMapper> leafList = new ObjectArrayList<>();
+        IntArrayList offsetList = new IntArrayList();
+        IntArrayList leafRecordList = new IntArrayList();
+        ObjectArrayList<RecordTransformingFeatureMapper> transformerList = new ObjectArrayList<>();
+        IntArrayList transformerRecordList = new IntArrayList();
+        IntArrayList order = new IntArrayList();
+        int[] offset = {0};
+        add(root, 0, leafList, offsetList, leafRecordList, transformerList, transformerRecordList, order, offset);
+        numFeatures = offset[0];
+        offsetList.add(numFeatures);
+        leaves = leafList.toArray(new FeatureMapper[leafList.size()]);
+        leafOffsets = offsetList.toIntArray();
+        leafRecords = leafRecordList.toIntArray();
+        transformers = transformerList.toArray(new RecordTransformingFeatureMapper[transformerList.size()]);
+        transformerRecords = transformerRecordList.toIntArray();
+        prepareOrder = order.toIntArray();
+        records = new Object[transformers.length + 1];
+        featureToLeaf = new int[numFeatures];
+        for (int leafIndex = 0; leafIndex < leaves.length; leafIndex++) {
+            for (int featureIndex = leafOffsets[leafIndex]; featureIndex < leafOffsets[leafIndex + 1]; featureIndex++) {
+                featureToLeaf[featureIndex] = leafIndex;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(FeatureMapper mapper, int recordIndex,
+                            ObjectArrayList<FeatureMapper> leafList, IntArrayList offsetList, IntArrayList leafRecordList,
+                            ObjectArrayList<RecordTransformingFeatureMapper> transformerList,
+                            IntArrayList transformerRecordList, IntArrayList order, int[] offset) {
+        if (mapper instanceof ConcatFeatureMapper) {
+            FeatureMapper[] delegates = ((ConcatFeatureMapper) mapper).getDelegates();
+            int sum = 0;
+            for (FeatureMapper delegate : delegates) {
+                sum += delegate.numberOfFeatures();
+            }
+            // subclasses that do not concatenate their delegates are leaves:
+            if (delegates.length > 0 && sum == mapper.numberOfFeatures()) {
+                for (FeatureMapper delegate : delegates) {
+                    add(delegate, recordIndex, leafList, offsetList, leafRecordList, transformerList,
+                            transformerRecordList, order, offset);
+                }
+                return;
+            }
+        }
+        if (mapper instanceof RecordTransformingFeatureMapper) {
+            RecordTransformingFeatureMapper transformer = (RecordTransformingFeatureMapper) mapper;
+            if (transformer.getDelegate().numberOfFeatures() == mapper.numberOfFeatures()) {
+                transformerList.add(transformer);
+                transformerRecordList.add(recordIndex);
+                order.add(-transformerList.size());
+                add(transformer.getDelegate(), transformerList.size(), leafList, offsetList, leafRecordList,
+                        transformerList, transformerRecordList, order, offset);
+                return;
+            }
+        }
+        order.add(leafList.size());
+        leafList.add(mapper);
+        offsetList.add(offset[0]);
+        leafRecordList.add(recordIndex);
+        offset[0] += mapper.numberOfFeatures();
+    }
+
+    /**
+     * Return the mapper this mapper was compiled from.
+     */
+    public FeatureMapper<RecordType> getRoot() {
+        return root;
+    }
+
+    /**
+     * Return the number of leaf mappers called to map a record.
+     */
+    public int numberOfLeaves() {
+        return leaves.length;
+    }
+
+    @Override
+    public int numberOfFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public MappedDimensions dimensions() {
+        return new MappedDimensions(numFeatures);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void prepareToNormalize(RecordType record, int indexOfRecord) {
+        records[0] = record;
+        for (int step : prepareOrder) {
+            if (step >= 0) {
+                leaves[step].prepareToNormalize(records[leafRecords[step]], indexOfRecord);
+            } else {
+                final int t = -step - 1;
+                records[t + 1] = transformers[t].transform(records[transformerRecords[t]]);
+            }
+        }
+    }
+
+    @Override
+    public void mapFeatures(RecordType record, INDArray inputs, int indexOfRecord) {
+        if (row == null) {
+            row = new float[numFeatures];
+        }
+        mapFeatures(record, row, 0);
+        FeatureRows.putRow(row, inputs, indexOfRecord);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void mapFeatures(RecordType record, float[] row, int offset) {
+        records[0] = record;
+        for (int leafIndex = 0; leafIndex < leaves.length; leafIndex++) {
+            leaves[leafIndex].mapFeatures(records[leafRecords[leafIndex]], row, offset + leafOffsets[leafIndex]);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public float produceFeature(RecordType record, int featureIndex) {
+        records[0] = record;
+        final int leafIndex = featureToLeaf[featureIndex];
+        return leaves[leafIndex].produceFeature(records[leafRecords[leafIndex]], featureIndex - leafOffsets[leafIndex]);
+    }
+
+    @Override
+    public String getFeatureName(int featureIndex) {
+        if (featureNames == null) {
+            String[] names = new String[numFeatures];
+            for (int i = 0; i < numFeatures; i++) {
+                final int leafIndex = featureToLeaf[i];
+                names[i] = ((FeatureNameMapper) leaves[leafIndex]).getFeatureName(i - leafOffsets[leafIndex]);
+            }
+            featureNames = names;
+        }
+        return featureNames[featureIndex];
+    }
+
+    @Override
+    public boolean hasMask() {
+        return false;
+    }
+
+    @Override
+    public void maskFeatures(RecordType record, INDArray mask, int indexOfRecord) {
+    }
+
+    @Override
+    public boolean isMasked(RecordType record, int featureIndex) {
+        return false;
+    }
+}
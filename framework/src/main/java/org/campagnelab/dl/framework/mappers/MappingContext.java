@@ -0,0 +1,109 @@
+package org.campagnelab.dl.framework.mappers;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+import java.util.function.Supplier;
+
+/**
+ * Values derived from the record being mapped, shared by all the feature and label mappers that map this record
+ * on the current thread. Mappers use the context to compute expensive derived data (e.g., counts sorted in
+ * decreasing order) once per record, instead of once per mapper.
+ * <p>
+ * The context is reset as soon as a mapper requests the context of a different record instance, unless that
+ * instance was registered as derived from the record being mapped. Code that maps records must call clear() once
+ * all the mappers (and prediction interpreters) are done with a record. This makes sure that a record instance that
+ * is modified and mapped again (e.g., a reused protobuf builder) is not mapped with stale values, and that the
+ * thread does not keep the last record alive.
+ */
+public final class MappingContext {
+    private static final ThreadLocal<Contexts> CONTEXTS = ThreadLocal.withInitial(Contexts::new);
+
+    private final Contexts contexts;
+    private final Object2ObjectOpenHashMap<Object, Object> values = new Object2ObjectOpenHashMap<>();
+
+    private MappingContext(Contexts contexts) {
+        this.contexts = contexts;
+    }
+
+    /**
+     * Return the mapping context of a record, for the current thread.
+     *
+     * @param record the record being mapped, or a record derived from it (see addDerivedRecord).
+     * @return the context of this record.
+     */
+    public static MappingContext of(Object record) {
+        Contexts contexts = CONTEXTS.get();
+        MappingContext context = contexts.byRecord.get(record);
+        if (context == null) {
+            contexts.clear();
+            context = contexts.add(record);
+        }
+        return context;
+    }
+
+    /**
+     * Forget the records and values of the current thread's context. Call after the last mapper is done with a record.
+     */
+    public static void clear() {
+        CONTEXTS.get().clear();
+    }
+
+    /**
+     * Register a record derived from the record of this context (e.g., a copy with sorted counts), so that mappers
+     * of the derived record do not reset the context of the record being mapped. The derived record gets its own
+     * values, and is forgotten with the record it was derived from.
+     *
+     * @param derivedRecord record derived from the record of this context.
+     */
+    public void addDerivedRecord(Object derivedRecord) {
+        if (!contexts.byRecord.containsKey(derivedRecord)) {
+            contexts.add(derivedRecord);
+        }
+    }
+
+    /**
+     * Return a value derived from the record, computing it the first time it is requested for this record.
+     *
+     * @param key     identifies the derived value. Keys must implement equals and hashCode.
+     * @param compute calculates the value from the record.
+     * @param <V>     type of the value.
+     * @return the derived value.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(Object key, Supplier<V> compute) {
+        V value = (V) values.get(key);
+        if (value == null) {
+            value = compute.get();
+            values.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * The contexts of the record being mapped and of the records derived from it, on one thread. Contexts are
+     * reused from record to record.
+     */
+    private static final class Contexts {
+        private final Reference2ObjectOpenHashMap<Object, MappingContext> byRecord = new Reference2ObjectOpenHashMap<>();
+        private final ObjectArrayList<MappingContext> free = new ObjectArrayList<>();
+
+        private MappingContext add(Object record) {
+            MappingContext context = free.isEmpty() ? new MappingContext(this) : free.pop();
+            byRecord.put(record, context);
+            return context;
+        }
+
+        private void clear() {
+            if (byRecord.isEmpty()) {
+                return;
+            }
+            for (MappingContext context : byRecord.values()) {
+                context.values.clear();
+                free.push(context);
+            }
+            byRecord.clear();
+        }
+    }
+}
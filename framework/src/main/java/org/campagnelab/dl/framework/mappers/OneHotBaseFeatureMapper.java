@@ -58,7 +58,7 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
 
     }
 
-    private static final int[] indices = new int[]{0, 0};
+    private final int[] indices = new int[]{0, 0};
 
     public int numberOfFeatures() {
         return 6;
@@ -80,6 +80,14 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
         }
     }
 
+    @Override
+    public void mapFeatures(RecordType record, float[] row, int offset) {
+        int value = recordStringAtBaseToInteger.apply(cachedString, baseIndex);
+        for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
+            row[offset + featureIndex] = value == featureIndex ? 1F : 0F;
+        }
+    }
+
     @Override
     public float produceFeature(RecordType record, int featureIndex) {
 
@@ -108,13 +116,26 @@ public class OneHotBaseFeatureMapper<RecordType> implements FeatureMapper<Record
 
     private static WarningCounter counter = new WarningCounter();
 
-    private static int getIntegerOfBase(String context, int baseIndex) {
+    /**
+     * Return the one-hot encoding integer of a base of a context.
+     *
+     * @param context   sequence of bases.
+     * @param baseIndex index of the base in the context.
+     * @return the integer of the base, or 5 when baseIndex is outside of the context.
+     */
+    public static int getIntegerOfBase(String context, int baseIndex) {
         if (baseIndex < 0 || baseIndex >= context.length()) {
             counter.warn(LOG,String.format("incompatible character index: {} for context: {} of length {}",
                     baseIndex, context, context.length()));
             return 5;
         }
-        Character base = context.charAt(baseIndex);
+        return getIntegerOfBase(context.charAt(baseIndex));
+    }
+
+    /**
+     * Return the one-hot encoding integer of a base.
+     */
+    public static int getIntegerOfBase(char base) {
         int baseInt;
         switch (base) {
             case 'a':
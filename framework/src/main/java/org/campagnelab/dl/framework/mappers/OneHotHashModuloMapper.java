@@ -5,6 +5,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.function.Function;
 
 /**
@@ -26,7 +27,7 @@ public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<Reco
         this.recordToString = recordToString;
     }
 
-    private static final int[] indices = new int[]{0, 0};
+    private final int[] indices = new int[]{0, 0};
 
     public int numberOfFeatures() {
         return vectorNumElements;
@@ -53,6 +54,13 @@ public class OneHotHashModuloMapper<RecordType> extends NoMaskFeatureMapper<Reco
         }
     }
 
+    @Override
+    public void mapFeatures(RecordType record, float[] row, int offset) {
+        assert reducedValue >= 0: "prepareToNormalize must be called before mapFeatures.";
+        Arrays.fill(row, offset, offset + vectorNumElements, 0F);
+        row[offset + reducedValue] = 1F;
+    }
+
     @Override
     public float produceFeature(RecordType record, int featureIndex) {
         assert reducedValue >= 0: "prepareToNormalize must be called before produceFeature.";
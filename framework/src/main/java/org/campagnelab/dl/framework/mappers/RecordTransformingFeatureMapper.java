@@ -0,0 +1,22 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * A feature mapper that transforms each record (e.g., reorders its counts), and produces the features of the
+ * transformed record with a delegate. FlattenedFeatureMapper uses this interface to flatten the delegate, while
+ * transforming each record only once.
+ */
+public interface RecordTransformingFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Return the mapper that produces the features of transformed records.
+     */
+    FeatureMapper<RecordType> getDelegate();
+
+    /**
+     * Transform a record before its features are produced by the delegate.
+     *
+     * @param record the record to transform.
+     * @return the transformed record.
+     */
+    RecordType transform(RecordType record);
+}
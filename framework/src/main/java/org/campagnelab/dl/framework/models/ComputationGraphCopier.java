@@ -0,0 +1,32 @@
+package org.campagnelab.dl.framework.models;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Copies computation graphs. ComputationGraph.clone() may order the vertices of the copy differently from the
+ * original, and then assigns the flattened parameters of the original to the wrong layers (observed with the
+ * genotype graphs, which have many outputs). Copies made here round-trip the configuration through JSON, as
+ * ModelSerializer does when a model is saved and loaded, which preserves the order of the parameters.
+ */
+public class ComputationGraphCopier {
+
+    /**
+     * Copy a graph, with its parameters and updater state.
+     *
+     * @param graph graph to copy.
+     * @return an independent copy of the graph.
+     */
+    public static ComputationGraph copy(ComputationGraph graph) {
+        ComputationGraph copy = new ComputationGraph(ComputationGraphConfiguration.fromJson(
+                graph.getConfiguration().toJson()));
+        copy.init(graph.params().dup(), false);
+        final INDArray state = graph.getUpdater().getStateViewArray();
+        if (state != null) {
+            copy.getUpdater().setStateViewArray(state.dup());
+        }
+        copy.setScore(graph.score());
+        return copy;
+    }
+}
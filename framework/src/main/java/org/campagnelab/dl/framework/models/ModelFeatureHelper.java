@@ -2,6 +2,7 @@
 package org.campagnelab.dl.framework.models;
 
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
@@ -30,6 +31,7 @@ public class ModelFeatureHelper<RecordType> {
             INDArray testFeatures = Nd4j.zeros(1, featureMappers[0].numberOfFeatures());
             featureMappers[0].prepareToNormalize(record, 0);
             featureMappers[0].mapFeatures(record, testFeatures, 0);
+            MappingContext.clear();
             featuresArray[0] = testFeatures;
             featuresConsumer.accept(featuresArray);
 
@@ -41,6 +43,7 @@ public class ModelFeatureHelper<RecordType> {
                 featureMappers[i].prepareToNormalize(record, 0);
                 featureMappers[i].mapFeatures(record, featuresArray[i], 0);
             }
+            MappingContext.clear();
 
             featuresConsumer.accept(featuresArray);
         } else {
@@ -3,6 +3,7 @@ package org.campagnelab.dl.framework.models;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
@@ -10,9 +11,12 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Helper class to facilitate predicting output on a network or computation graph.
@@ -21,6 +25,7 @@ import java.util.Iterator;
 
 public class ModelOutputHelper<RecordType> {
     private INDArray[] resultGraph;
+    private INDArray[] batchInputs;
     private DomainDescriptor<RecordType> domainDescriptor;
 
     public ModelOutputHelper(DomainDescriptor<RecordType> domainDescriptor) {
@@ -67,6 +72,68 @@ public class ModelOutputHelper<RecordType> {
         }
     }
 
+    /**
+     * Predict outputs for a minibatch of records with a single forward pass. Input tensors are allocated once and
+     * reused for minibatches of the same size. Use getOutput(outputIndex, recordIndex) to retrieve the output
+     * predicted for each record. The mapping context is cleared after the features of each record are mapped.
+     *
+     * @param model          model used for prediction.
+     * @param records        records of the minibatch.
+     * @param featureMappers one feature mapper per model input.
+     */
+    public void predictForRecords(Model model, List<RecordType> records, FeatureMapper... featureMappers) {
+        final int size = records.size();
+        final String[] inputNames = domainDescriptor.getComputationalGraph().getInputNames();
+        if (batchInputs == null || batchInputs.length != featureMappers.length || batchInputs[0].size(0) != size) {
+            batchInputs = new INDArray[featureMappers.length];
+            for (int i = 0; i < featureMappers.length; i++) {
+                batchInputs[i] = Nd4j.zeros(domainDescriptor.getInputShape(size, inputNames[i]));
+            }
+        } else {
+            for (INDArray input : batchInputs) {
+                input.assign(0);
+            }
+        }
+        int recordIndex = 0;
+        for (RecordType record : records) {
+            for (int i = 0; i < featureMappers.length; i++) {
+                featureMappers[i].prepareToNormalize(record, recordIndex);
+                featureMappers[i].mapFeatures(record, batchInputs[i], recordIndex);
+            }
+            MappingContext.clear();
+            recordIndex++;
+        }
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork network = (MultiLayerNetwork) model;
+            resultGraph = new INDArray[]{network.output(batchInputs[0], false)};
+        } else if (model instanceof ComputationGraph) {
+            ComputationGraph graph = (ComputationGraph) model;
+            resultGraph = graph.output(false, batchInputs);
+        } else {
+            throw new IllegalArgumentException("model is not of supported type: " + model.getClass().getCanonicalName());
+        }
+    }
+
+    /**
+     * Return the output predicted for one record of the minibatch passed to predictForRecords.
+     *
+     * @param outputIndex index of the model output.
+     * @param recordIndex index of the record in the minibatch.
+     * @return the output for the record, with a first dimension of size 1.
+     */
+    public INDArray getOutput(int outputIndex, int recordIndex) {
+        INDArray output = resultGraph[outputIndex];
+        if (output.rank() == 2) {
+            return output.getRow(recordIndex);
+        }
+        INDArrayIndex[] indices = new INDArrayIndex[output.rank()];
+        indices[0] = NDArrayIndex.interval(recordIndex, recordIndex + 1);
+        for (int d = 1; d < indices.length; d++) {
+            indices[d] = NDArrayIndex.all();
+        }
+        return output.get(indices);
+    }
+
     public void predictForNext(ComputationGraph graph, Iterator<MultiDataSet> iterator) {
         resultGraph = graph.output(false, iterator.next().getFeatures());
     }
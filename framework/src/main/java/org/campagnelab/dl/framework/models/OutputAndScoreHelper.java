@@ -0,0 +1,69 @@
+package org.campagnelab.dl.framework.models;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.api.layers.IOutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper class to obtain the outputs of a computation graph and its score on a minibatch with a single forward pass.
+ * Calling graph.output() and then graph.score() on the same minibatch runs the forward pass twice. Here, the score
+ * is computed by the output layers from the activations of the forward pass that produced the outputs, as
+ * ComputationGraph.score() does.
+ */
+public class OutputAndScoreHelper {
+    private INDArray[] outputs;
+    private double score;
+
+    /**
+     * Run the forward pass of a graph on a minibatch. Use getOutputs() and getScore() to retrieve the results.
+     *
+     * @param graph     graph to evaluate.
+     * @param minibatch features and labels of the minibatch.
+     */
+    public void evaluate(ComputationGraph graph, MultiDataSet minibatch) {
+        final boolean hasMaskArrays = minibatch.hasMaskArrays();
+        if (hasMaskArrays) {
+            graph.setLayerMaskArrays(minibatch.getFeaturesMaskArrays(), minibatch.getLabelsMaskArrays());
+        }
+        Map<String, INDArray> activations = graph.feedForward(minibatch.getFeatures(), false);
+        List<String> outputNames = graph.getConfiguration().getNetworkOutputs();
+        outputs = new INDArray[outputNames.size()];
+        // regularization terms are added once, with the score of the first output layer:
+        double l1 = graph.calcL1();
+        double l2 = graph.calcL2();
+        score = 0;
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = activations.get(outputNames.get(i));
+            Layer layer = graph.getVertex(outputNames.get(i)).getLayer();
+            if (layer instanceof IOutputLayer) {
+                IOutputLayer outputLayer = (IOutputLayer) layer;
+                outputLayer.setLabels(minibatch.getLabels(i));
+                score += outputLayer.computeScore(l1, l2, false);
+                l1 = 0;
+                l2 = 0;
+            }
+        }
+        if (hasMaskArrays) {
+            graph.clearLayerMaskArrays();
+        }
+    }
+
+    /**
+     * Return the outputs of the graph for the last minibatch evaluated, in the order of the graph outputs.
+     */
+    public INDArray[] getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Return the score of the graph on the last minibatch evaluated.
+     */
+    public double getScore() {
+        return score;
+    }
+}
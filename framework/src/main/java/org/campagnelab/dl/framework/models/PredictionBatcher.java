@@ -0,0 +1,97 @@
+package org.campagnelab.dl.framework.models;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Gathers records into minibatches, so that a model predicts each minibatch with a single forward pass instead of
+ * one forward pass per record. Each record submitted returns a future, completed when its minibatch is predicted.
+ * Futures complete in the order records were submitted. A batcher is not thread-safe: when several threads
+ * predict, each thread should use its own batcher and model.
+ *
+ * @param <RecordType>     type of the records.
+ * @param <PredictionType> type of the predictions.
+ */
+public class PredictionBatcher<RecordType, PredictionType> {
+    private final Function<List<RecordType>, List<PredictionType>> predictMinibatch;
+    private final List<RecordType> records = new ObjectArrayList<>();
+    private final List<CompletableFuture<PredictionType>> futures = new ObjectArrayList<>();
+    private int batchSize;
+
+    /**
+     * Create a batcher.
+     *
+     * @param predictMinibatch function that returns the predictions of a minibatch of records, in record order.
+     * @param batchSize        number of records predicted together.
+     */
+    public PredictionBatcher(Function<List<RecordType>, List<PredictionType>> predictMinibatch, int batchSize) {
+        this.predictMinibatch = predictMinibatch;
+        setBatchSize(batchSize);
+    }
+
+    /**
+     * Submit a record for prediction. The minibatch is predicted as soon as it is full.
+     *
+     * @param record record to predict. The record must not be modified until its future completes.
+     * @return the future prediction for the record.
+     */
+    public CompletableFuture<PredictionType> submit(RecordType record) {
+        CompletableFuture<PredictionType> future = new CompletableFuture<>();
+        records.add(record);
+        futures.add(future);
+        if (records.size() >= batchSize) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Predict the records submitted since the last minibatch, even if the minibatch is not full. Call this method
+     * when no more records will be submitted (e.g., at the end of a chromosome or of a genomic slice).
+     */
+    public void flush() {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            List<PredictionType> predictions = predictMinibatch.apply(records);
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).complete(predictions.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<PredictionType> future : futures) {
+                future.completeExceptionally(e);
+            }
+        } finally {
+            records.clear();
+            futures.clear();
+        }
+    }
+
+    /**
+     * Return the number of records submitted and not yet predicted.
+     */
+    public int numPending() {
+        return records.size();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Change the number of records predicted together. Pending records are predicted if the minibatch is full.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1.");
+        }
+        this.batchSize = batchSize;
+        if (records.size() >= batchSize) {
+            flush();
+        }
+    }
+}
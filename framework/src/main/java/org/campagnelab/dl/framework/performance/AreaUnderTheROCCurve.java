@@ -1,16 +1,17 @@
 package org.campagnelab.dl.framework.performance;
 
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 
 /**
- * AUC Calculator. This class was adapted from the BDVAl project. The calculation is straightforward, but has
- * complexity n square, so won't scale with very large number of examples.
- * See http://www.cs.waikato.ac.nz/~remco/roc.pdf for an alternative.
+ * AUC Calculator. This class was adapted from the BDVAl project. The AUC is calculated exactly with the
+ * Mann-Whitney statistic: decision values are sorted once, and each positive example counts the negative
+ * examples with a smaller decision value (ties count for one half). Complexity is O(n log n).
+ * Calculators that observed different examples (e.g., on different threads) can be combined with merge.
  * Created by fac2003 on 7/15/16.
  *
  * @author Fabien Campagne
@@ -60,28 +61,70 @@ public class AreaUnderTheROCCurve {
         }
     }
 
+    /**
+     * Add the observations of another calculator to this one. The AUC evaluated after merging is the AUC over
+     * the examples observed by both calculators.
+     *
+     * @param other another calculator.
+     */
+    public void merge(AreaUnderTheROCCurve other) {
+        positiveDecisions.addAll(other.positiveDecisions);
+        negativeDecisions.addAll(other.negativeDecisions);
+        foundNan |= other.foundNan;
+    }
+
     public double evaluateStatistic() {
-        double sum = 0;
-        numPositive = 0;
-        numNegative = 0;
         if (clipObservations) {
             clipObservations();
         }
-        for (final double decisionPositive : positiveDecisions) {
-            for (final double decisionNegative : negativeDecisions) {
-                sum += decisionPositive > decisionNegative ? 1 : 0;
-                sum += decisionPositive == decisionNegative ? 0.5 : 0;
-            }
-        }
-
         numPositive = positiveDecisions.size();
         numNegative = negativeDecisions.size();
-
-        final double auc = sum / numPositive / numNegative;
+        final double auc = countPairs(positiveDecisions.elements(), numPositive,
+                negativeDecisions.elements(), numNegative) / numPositive / numNegative;
         this.estimatedAUC = auc;
         return auc;
     }
 
+    /**
+     * Count the (positive, negative) pairs where the positive decision value is larger than the negative one.
+     * Pairs with equal decision values count for 0.5. Pairs that involve a NaN decision value count for zero.
+     * Sorts the decision values in place.
+     */
+    private static double countPairs(double[] positives, int numPositive, double[] negatives, int numNegative) {
+        // NaN values are sorted last:
+        DoubleArrays.parallelQuickSort(positives, 0, numPositive);
+        DoubleArrays.parallelQuickSort(negatives, 0, numNegative);
+        int numComparableNegatives = numNegative;
+        while (numComparableNegatives > 0 && negatives[numComparableNegatives - 1] != negatives[numComparableNegatives - 1]) {
+            numComparableNegatives--;
+        }
+        double sum = 0;
+        // number of negatives with a decision value strictly smaller than the current positive:
+        int numSmaller = 0;
+        int i = 0;
+        while (i < numPositive) {
+            final double decisionPositive = positives[i];
+            if (decisionPositive != decisionPositive) {
+                // NaN, and all remaining positives are NaN:
+                break;
+            }
+            while (numSmaller < numComparableNegatives && negatives[numSmaller] < decisionPositive) {
+                numSmaller++;
+            }
+            int endOfTies = numSmaller;
+            while (endOfTies < numComparableNegatives && negatives[endOfTies] == decisionPositive) {
+                endOfTies++;
+            }
+            int j = i;
+            while (j < numPositive && positives[j] == decisionPositive) {
+                j++;
+            }
+            sum += (j - i) * (numSmaller + 0.5 * (endOfTies - numSmaller));
+            i = j;
+        }
+        return sum;
+    }
+
     /**
      * You may call this method after evaluateStatistic() to obtain the 95% confidence interval of the AUC.
      * The confidence interval is estimated using the method of https://ncss-wpengine.netdna-ssl.com/wp-content/themes/ncss/pdf/Procedures/PASS/Confidence_Intervals_for_the_Area_Under_an_ROC_Curve.pdf
@@ -108,7 +151,7 @@ public class AreaUnderTheROCCurve {
 
     /**
      * Shuffle observations, then clip to the max number. This reduces the precision of the estimate,
-     * but ensures computation will finish in a reasonable time (we use a n^2 algorithm).
+     * but bounds the number of observations kept in memory.
      */
     private void clipObservations() {
         boolean needToClip = positiveDecisions.size() > maxObservations ||
@@ -128,35 +171,10 @@ public class AreaUnderTheROCCurve {
     }
 
     public static double evaluateStatistic(final double[] decisionValues, final double[] labels) {
-        double sum = 0;
-        double numPositive = 0;
-        double numNegative = 0;
-
-        final DoubleList truePositiveDecisions = new DoubleArrayList();
-        final DoubleList trueNegativeDecisions = new DoubleArrayList();
+        AreaUnderTheROCCurve calculator = new AreaUnderTheROCCurve();
         for (int i = 0; i < decisionValues.length; i++) {
-            if (decisionValues[i] != decisionValues[i]) {
-                // decision value is NaN:
-                LOG.warn("NaN found instead of a decision value. NaN are always interpreted as wrong predictions. ");
-            }
-            if (labels[i] >= 0) {
-                truePositiveDecisions.add(decisionValues[i]);
-            } else {
-                trueNegativeDecisions.add(decisionValues[i]);
-            }
-        }
-
-        for (final double decisionPositive : truePositiveDecisions) {
-            for (final double decisionNegative : trueNegativeDecisions) {
-                sum += decisionPositive > decisionNegative ? 1 : 0;
-                sum += decisionPositive == decisionNegative ? 0.5 : 0;
-            }
+            calculator.observe(decisionValues[i], labels[i]);
         }
-
-        numPositive = truePositiveDecisions.size();
-        numNegative = trueNegativeDecisions.size();
-
-        final double auc = sum / numPositive / numNegative;
-        return auc;
+        return calculator.evaluateStatistic();
     }
 }
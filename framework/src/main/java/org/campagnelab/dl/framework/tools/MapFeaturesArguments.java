@@ -21,6 +21,9 @@ public abstract class MapFeaturesArguments implements ToolArguments {
     @Parameter(names = "--mini-batch-size", description = "The size of the training minibatch")
     public int miniBatchSize = 32;
 
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map features and labels. When building caches, minibatches are also serialized on these threads.")
+    public int numMappingThreads = 1;
+
     @Parameter(names = "--trio", description = "Use to train trio models. The training and validation datasets must have three samples, parents first, patient last.")
     public boolean   isTrio = false;
 
@@ -1,7 +1,11 @@
 package org.campagnelab.dl.framework.tools;
 
+import com.google.common.collect.Iterators;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 import it.unimi.dsi.logging.ProgressLogger;
@@ -15,11 +19,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
 /**
- * A tool to cache DL4J's multidatasets into in a .cf (cached features) file.
+ * A tool to cache DL4J's multidatasets into in a .cf (cached features) file. The tool also writes a .cfp
+ * (properties) file and a .cfi (index of minibatch positions) file. Minibatches can be compressed with
+ * the codec selected with --cache-codec (see {@link CacheCodec}).
  *
  * @author Fabien Campagne
  */
@@ -60,13 +67,22 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                         return buildBaseName(args().trainingSets);
                     }
                 };
+                adapter.setNumMappingThreads(args().numMappingThreads);
             } catch (IOException e) {
                 throw new RuntimeException("Unable to load training set ", e);
             }
         }
-        MultiDataSetIterator iterator=adapter;
-        if (adapter.asyncSupported()) {
-                iterator = new AsyncMultiDataSetIterator(adapter, 12);
+        final CacheCodec codec = CacheCodec.forName(args().cacheCodec);
+        Iterator<SerializedMinibatch> iterator;
+        if (adapter.getNumMappingThreads() > 1) {
+            // map and serialize minibatches on the mapping threads, they are returned in the order of the records:
+            iterator = adapter.transform(minibatch -> new SerializedMinibatch(minibatch, codec));
+        } else {
+            MultiDataSetIterator minibatches = adapter;
+            if (adapter.asyncSupported()) {
+                minibatches = new AsyncMultiDataSetIterator(adapter, 12);
+            }
+            iterator = Iterators.transform(minibatches, minibatch -> new SerializedMinibatch(minibatch, codec));
         }
        /* if ( != null) {
             inputs = Iterables.limit(Iterables.concat(args().iterables), (int) args().cacheN);
@@ -91,17 +107,18 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
             pg.displayLocalSpeed = true;
             pg.itemsName = "miniBatch";
             pg.start();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
             long numDatasets = 0;
             long writeAtMostN = args().writeAtMostN;
             numRecordsWritten = 0;
+            // position of each minibatch in the cache, used to write the cache index:
+            LongArrayList offsets = new LongArrayList();
+            long position = 0;
 
             while (iterator.hasNext()) {
-                MultiDataSet mds = iterator.next();
-                baos.reset();
-                mds.save(baos);
-
-                final byte[] bytes = baos.toByteArray();
+                SerializedMinibatch minibatch = iterator.next();
+                final byte[] bytes = minibatch.bytes;
+                offsets.add(position);
+                position += 4 + bytes.length;
 
                 // write the length of the array first, most significant bytes first:
                 outputStream.write((bytes.length >> 8 * 3) & 0xFF);
@@ -114,19 +131,21 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                     break;
                 }
                 numDatasets += 1;
-                int numExamplesInDataset = mds.getFeatures()[0].size(0);
-                numRecordsWritten += numExamplesInDataset;
+                numRecordsWritten += minibatch.numExamples;
                 if (numRecordsWritten > args().cacheN) {
                     break;
                 }
             }
             outputStream.close();
             pg.stop();
+            offsets.add(position);
+            new CacheIndex(offsets.toLongArray()).write(args().outputBasename);
 
             long numRecords = domainDescriptor.getNumRecords(args().getTrainingSets());
             Properties cfpProperties = new Properties();
             cfpProperties.put("domainDescriptor", domainDescriptor().getClass().getCanonicalName());
             cfpProperties.put("multiDataSet", "true");
+            codec.putProperties(cfpProperties);
             cfpProperties.put("miniBatchSize", Integer.toString(args().miniBatchSize));
             if (args().domainDescriptor != null) {
                 args().domainDescriptor.putProperties(cfpProperties);
@@ -160,6 +179,25 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
 
     }
 
+    /**
+     * A minibatch serialized and encoded in the format stored in the cache.
+     */
+    private static class SerializedMinibatch {
+        final byte[] bytes;
+        final int numExamples;
+
+        SerializedMinibatch(MultiDataSet minibatch, CacheCodec codec) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                minibatch.save(baos);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to serialize minibatch", e);
+            }
+            bytes = codec.encode(baos.toByteArray());
+            numExamples = minibatch.getFeatures()[0].size(0);
+        }
+    }
+
     private String buildBaseName(List<String> trainingSets) {
         String cacheName;// only one input, use its name as cache name:
         if (trainingSets.size() == 1) {
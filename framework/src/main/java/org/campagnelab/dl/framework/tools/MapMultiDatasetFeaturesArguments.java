@@ -1,5 +1,6 @@
 package org.campagnelab.dl.framework.tools;
 
+import com.beust.jcommander.Parameter;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
 
@@ -17,4 +18,8 @@ public class MapMultiDatasetFeaturesArguments<RecordType> extends MapFeaturesArg
 
 
     public DomainDescriptor domainDescriptor;
+
+    @Parameter(names = "--cache-codec", description = "Compression of the minibatches stored in the cache: none or lz4. " +
+            "Compressed caches are smaller, and are decoded on background threads when they are read.")
+    public String cacheCodec = "none";
 }
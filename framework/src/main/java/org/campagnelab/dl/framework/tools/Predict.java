@@ -129,10 +129,13 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
 
         predictor.makePredictions(it.iterator(),
                 model,
+                record -> {
+                },
                 recordPredictions -> {  processPredictions(resutsWriter, recordPredictions.record,
                         recordPredictions.predictions);
                     pgReadWrite.lightUpdate();},
-                /* stop if */ nProcessed -> nProcessed > args().scoreN
+                /* stop if */ nProcessed -> nProcessed > args().scoreN,
+                args().miniBatchSize
         );
 
         resutsWriter.close();
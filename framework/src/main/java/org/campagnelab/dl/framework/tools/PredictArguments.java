@@ -32,8 +32,8 @@ public class PredictArguments extends RecordingToolArguments {
     @Parameter(names = {"--minibatch-size"}, description = "Number of records in minibatch.")
     public int miniBatchSize = 512;
 
-    @Parameter(names = {"--records-for-auc"}, description = "Number of records to use when evaluating AUC. Precision increases with larger values, but calculation is O(n^2) on this number.")
-    public int numRecordsForAUC = 50000;
+    @Parameter(names = {"--records-for-auc"}, description = "Maximum number of positive (and of negative) records to use when evaluating AUC. All records are used by default, and the AUC is exact. Calculation is O(n log n) on this number.")
+    public int numRecordsForAUC = Integer.MAX_VALUE;
 
     @Parameter(names = {"--correctness-filter"},
             description = "When provided, filter output by correctness. For instance --correctness-filter wrong will only print wrong predictions. Alternatively --correctness-filter correct prings only correct predictions. ")
@@ -5,6 +5,8 @@ import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
 import org.campagnelab.dl.framework.models.ModelOutputHelper;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.deeplearning4j.nn.api.Model;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -50,28 +52,61 @@ public class PredictWithModel<RecordType> {
                                 Consumer<RecordType> observeRecord,
                                 Consumer<RecordPredictions<RecordType>> doForEachPrediction,
                                 Predicate<Integer> stopIfTrue) {
+        makePredictions(iterator, model, observeRecord, doForEachPrediction, stopIfTrue, 1);
+    }
+
+    /**
+     * Make predictions for minibatches of records. Each minibatch is predicted with a single forward pass, then
+     * outputs are interpreted and passed to doForEachPrediction one record at a time, in the order of the iterator.
+     * Predictions are identical to those obtained with miniBatchSize=1. As with one record per pass, observeRecord
+     * sees each record before the forward pass that predicts it: when miniBatchSize is larger than one, all the
+     * records of a minibatch are observed before the predictions of the first record are processed.
+     *
+     * @param iterator            records to predict.
+     * @param model               model used for prediction.
+     * @param observeRecord       called with each record as it is read, before it is predicted.
+     * @param doForEachPrediction called with the predictions of each record.
+     * @param stopIfTrue          called with the number of records processed so far, stop when it returns true.
+     * @param miniBatchSize       number of records to predict with each forward pass.
+     */
+    public void makePredictions(Iterator<RecordType> iterator,
+                                Model model,
+                                Consumer<RecordType> observeRecord,
+                                Consumer<RecordPredictions<RecordType>> doForEachPrediction,
+                                Predicate<Integer> stopIfTrue,
+                                int miniBatchSize) {
         int index = 0;
-        List<Prediction> predictions = new ArrayList<>();
+        FeatureMapper[] featureMappers = domainDescriptor.featureMappers();
+        List<RecordType> records = new ArrayList<>(miniBatchSize);
         while (iterator.hasNext()) {
-            RecordType currentRecord = iterator.next();
-            observeRecord.accept(currentRecord);
-            outputHelper.predictForNextRecord(model, currentRecord, domainDescriptor.featureMappers());
-            predictions.clear();
-            for (int outputIndex = 0; outputIndex < domainDescriptor.getNumModelOutputs(); outputIndex++) {
-                INDArray outputPredictions = outputHelper.getOutput(outputIndex);
+            records.clear();
+            while (iterator.hasNext() && records.size() < miniBatchSize) {
+                RecordType record = iterator.next();
+                observeRecord.accept(record);
+                records.add(record);
+            }
+            outputHelper.predictForRecords(model, records, featureMappers);
+            int recordIndex = 0;
+            for (RecordType currentRecord : records) {
+                List<Prediction> predictions = new ArrayList<>();
+                for (int outputIndex = 0; outputIndex < interpretors.length; outputIndex++) {
+                    INDArray outputPredictions = outputHelper.getOutput(outputIndex, recordIndex);
 
-                if (interpretors[outputIndex] != null) {
-                    Prediction prediction = interpretors[outputIndex].interpret(currentRecord, outputPredictions);
-                    prediction.outputIndex = outputIndex;
-                    prediction.index = index;
-                    predictions.add(prediction);
+                    if (interpretors[outputIndex] != null) {
+                        Prediction prediction = interpretors[outputIndex].interpret(currentRecord, outputPredictions);
+                        prediction.outputIndex = outputIndex;
+                        prediction.index = index;
+                        predictions.add(prediction);
+                    }
                 }
-            }
 
-            doForEachPrediction.accept(new RecordPredictions<>(currentRecord, predictions));
-            index++;
-            if (stopIfTrue.test(index)) {
-                break;
+                MappingContext.clear();
+                doForEachPrediction.accept(new RecordPredictions<>(currentRecord, predictions));
+                index++;
+                recordIndex++;
+                if (stopIfTrue.test(index)) {
+                    return;
+                }
             }
         }
     }
@@ -1,5 +1,8 @@
 package org.campagnelab.dl.framework.tools;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.io.LineIterator;
@@ -11,13 +14,21 @@ import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 /**
  * Show records of a dataset.
  */
 public abstract class Show<RecordType, Args extends ShowArguments> extends AbstractTool<Args> {
-
+    /**
+     * Number of records converted by one task with --parallel.
+     */
+    private static final int BATCH_SIZE = 1000;
 
     protected abstract DomainDescriptor<RecordType> domainDescriptor();
 
@@ -44,7 +55,11 @@ public abstract class Show<RecordType, Args extends ShowArguments> extends Abstr
         int selectedIndex = -1;
 
         Function<RecordType, String> converter = getConverter(args().reportType.toUpperCase());
-        Iterable input = domainDescriptor().getRecordIterable().apply(args().datasetFilename);
+        Iterable<RecordType> input = (Iterable<RecordType>) domainDescriptor().getRecordIterable().apply(args().datasetFilename);
+        if (args().parallel && predictionLine == null) {
+            showInParallel(input.iterator(), converter);
+            return;
+        }
         Iterator<RecordType> reader = input.iterator();
         while (reader.hasNext()) {
             selectedIndex = getNextIndex(predictionLine, selectedIndex, index);
@@ -61,6 +76,58 @@ public abstract class Show<RecordType, Args extends ShowArguments> extends Abstr
 
     protected abstract Function<RecordType, String> getConverter(String reportType);
 
+    /**
+     * Convert batches of records on all available cores, and print them in the order of the dataset. Only a few
+     * batches are held in memory at any time, so records are printed as the dataset is read.
+     */
+    private void showInParallel(Iterator<RecordType> reader, Function<RecordType, String> converter) {
+        final int numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("show-%d").build());
+        ObjectArrayFIFOQueue<Future<List<String>>> converted = new ObjectArrayFIFOQueue<>();
+        long numRead = 0;
+        int index = 0;
+        try {
+            // the sequential path shows records 0 to showN included:
+            while (numRead <= args().showN && reader.hasNext()) {
+                List<RecordType> batch = new ObjectArrayList<>(BATCH_SIZE);
+                while (batch.size() < BATCH_SIZE && numRead <= args().showN && reader.hasNext()) {
+                    batch.add(reader.next());
+                    numRead++;
+                }
+                converted.enqueue(executor.submit(() -> {
+                    List<String> lines = new ObjectArrayList<>(batch.size());
+                    for (RecordType record : batch) {
+                        lines.add(converter.apply(record));
+                    }
+                    return lines;
+                }));
+                if (converted.size() > 2 * numThreads) {
+                    index = print(converted.dequeue(), index);
+                }
+            }
+            while (!converted.isEmpty()) {
+                index = print(converted.dequeue(), index);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int print(Future<List<String>> lines, int index) {
+        try {
+            for (String text : lines.get()) {
+                System.out.println(Integer.toString(index++) + "\t" + text);
+            }
+            return index;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to convert records", e.getCause());
+        }
+    }
+
     /**
      * Obtain the next selectedIndex from prediction line that is strictly larger than currentIndex.
      * If predictionLine is null (option -p was not given), return currentIndex.
@@ -32,6 +32,9 @@ public abstract class ShowArguments  implements ToolArguments {
     @Parameter(names = {"-p", "--predictions"}, description = "BinaryClassPrediction file with indices to show. Set to - to read from standard input.")
     public String predictionFilter = null;
 
+    @Parameter(names = {"--parallel"}, description = "Convert records to text with all available cores. Records are still shown in the order of the dataset. Ignored when --predictions is given.")
+    public boolean parallel = false;
+
 
 
 }
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.framework.tools;
 
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.floats.FloatArraySet;
 import it.unimi.dsi.fastutil.floats.FloatSet;
@@ -12,9 +13,15 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.gpu.InitializeGpu;
 import org.campagnelab.dl.framework.gpu.ParameterPrecision;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.RecordCacheIterator;
+import org.campagnelab.dl.framework.iterators.StoppableMultiDataSetIterator;
+import org.campagnelab.dl.framework.iterators.cache.CacheCodec;
 import org.campagnelab.dl.framework.iterators.cache.CacheHelper;
 import org.campagnelab.dl.framework.iterators.cache.FullyInMemoryCache;
+import org.campagnelab.dl.framework.iterators.cache.OffHeapMemoryCache;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.models.ComputationGraphCopier;
 import org.campagnelab.dl.framework.models.ComputationGraphSaver;
 import org.campagnelab.dl.framework.models.ModelLoader;
 import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
@@ -22,6 +29,7 @@ import org.campagnelab.dl.framework.performance.Metric;
 import org.campagnelab.dl.framework.performance.PerformanceLogger;
 import org.campagnelab.dl.framework.performance.PerformanceMetricDescriptor;
 import org.campagnelab.dl.framework.tools.arguments.ConditionRecordingTool;
+import org.campagnelab.dl.framework.training.ParallelTrainerOnCPU;
 import org.campagnelab.dl.framework.training.ParallelTrainerOnGPU;
 import org.campagnelab.dl.framework.training.SequentialTrainer;
 import org.campagnelab.dl.framework.training.Trainer;
@@ -41,6 +49,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -64,6 +76,10 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
     protected FeatureMapper featureMapper = null;
     private ComputationGraph computationGraph;
+    private double bestValue;
+    private int notImproved;
+    // set when early stopping is triggered, possibly by the validation thread:
+    private volatile boolean stopRequested;
     private CacheHelper<RecordType> cacheHelper = new CacheHelper<>();
 
 
@@ -269,12 +285,13 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
         performanceLogger.setCondition(args().experimentalCondition);
         long numExamplesUsed = 0;
-        int notImproved = 0;
+        notImproved = 0;
+        stopRequested = false;
 
         System.out.flush();
         PerformanceMetricDescriptor perfDescriptor = domainDescriptor.performanceDescritor();
         String validationMetricName = perfDescriptor.earlyStoppingMetric();
-        double bestValue = initializePerformance(perfDescriptor, validationMetricName);
+        bestValue = initializePerformance(perfDescriptor, validationMetricName);
         int epoch;
 
         // Assemble the training iterator from the concatenation of individual training set iterables:
@@ -291,19 +308,62 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 return buildBaseName(args().trainingSets);
             }
         };
+        adapter.setNumMappingThreads(args().numMappingThreads);
 
         boolean useCache = !args().ignoreCache;
-        MultiDataSetIterator iterator = useCache ? cacheHelper.cache(domainDescriptor,
-                adapter, adapter.getBasename(),
-                args().numTraining, args().miniBatchSize) :
-                adapter;
+        cacheHelper.setMemoryMapped(args().memoryMapCache);
+        cacheHelper.setCodec(CacheCodec.forName(args().cacheCodec));
+        cacheHelper.setRecordLayout(args().recordCache);
+        MultiDataSetIterator iterator;
+        if (useCache && args().incrementalCache != null) {
+            iterator = cacheHelper.cacheIncrementally(domainDescriptor, args().trainingSets, source -> {
+                try {
+                    MultiDataSetIteratorAdapter<RecordType> sourceAdapter = new MultiDataSetIteratorAdapter<RecordType>(
+                            domainDescriptor.getRecordIterable().apply(source), miniBatchSize, domainDescriptor,
+                            args().previousModelPretraining, args().eosIndex) {
+                        @Override
+                        public String getBasename() {
+                            return source;
+                        }
+                    };
+                    sourceAdapter.setNumMappingThreads(args().numMappingThreads);
+                    return sourceAdapter;
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to load training set " + source, e);
+                }
+            }, args().incrementalCache, args().numTraining, miniBatchSize);
+        } else {
+            iterator = useCache ? cacheHelper.cache(domainDescriptor,
+                    adapter, adapter.getBasename(),
+                    args().numTraining, args().miniBatchSize) :
+                    adapter;
+        }
+        if (args().shuffleCachedRecords) {
+            if (iterator instanceof RecordCacheIterator) {
+                ((RecordCacheIterator) iterator).shuffleRecords(args().seed);
+            } else {
+                LOG.warn("--shuffle-cached-records requires --record-cache, records will not be shuffled.");
+            }
+        }
         if (args().memoryCacheTraining()) {
-            iterator = new FullyInMemoryCache(iterator);
+            iterator = cacheInMemory(iterator);
             // force loading immediately:
             LOG.warn("Loading training set in memory.");
             iterator.reset();
             LOG.warn("Done.");
         }
+        if (args().shuffleCachedMinibatches) {
+            // shuffle the outermost iterator: in-memory caches keep the order in which they loaded their source.
+            if (iterator instanceof FullyInMemoryCache) {
+                ((FullyInMemoryCache) iterator).shuffleMinibatches(args().seed);
+            } else if (iterator instanceof OffHeapMemoryCache) {
+                ((OffHeapMemoryCache) iterator).shuffleMinibatches(args().seed);
+            } else if (iterator instanceof MultiDatasetMemoryMappedFeaturesIterator) {
+                ((MultiDatasetMemoryMappedFeaturesIterator) iterator).shuffleMinibatches(args().seed);
+            } else {
+                LOG.warn("--shuffle-cached-minibatches requires a memory-mapped or in-memory cache, minibatches will not be shuffled.");
+            }
+        }
         // MultiDataSetIterator iterator=adapter;
         final long numRecords = Math.min(args().numTraining, domainDescriptor.getNumRecords(args().getTrainingSets()));
         int miniBatchesPerEpoch = (int) (numRecords / args().miniBatchSize);
@@ -332,10 +392,26 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 System.out.println("Unsupported tracking style: " + args().trackingStyle);
         }
 
-        Trainer trainer = args().parallel ? new ParallelTrainerOnGPU(computationGraph, args().miniBatchSize,
-                (int) domainDescriptor.getNumRecords(args().getTrainingSets())) :
-                new SequentialTrainer();
+        Trainer trainer;
+        if (args().parallel) {
+            trainer = new ParallelTrainerOnGPU(computationGraph, args().miniBatchSize,
+                    (int) domainDescriptor.getNumRecords(args().getTrainingSets()));
+        } else if (args().cpuWorkers > 1) {
+            trainer = new ParallelTrainerOnCPU(computationGraph, args().cpuWorkers, args().averagingFrequency,
+                    args().deterministicWorkers);
+        } else {
+            trainer = new SequentialTrainer();
+        }
         trainer.setLogSpeed(args().trackingStyle == TrainingArguments.TrackStyle.SPEED);
+        ExecutorService validationExecutor = null;
+        Future<Boolean> pendingValidation = null;
+        MultiDataSetIterator trainingIterator = iterator;
+        if (args().asyncValidation) {
+            validationExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("validation-%d").build());
+            // stop the current epoch as soon as validation of a previous epoch triggers early stopping:
+            trainingIterator = new StoppableMultiDataSetIterator(iterator, () -> stopRequested);
+        }
         for (epoch = 0; epoch < args().maxEpochs; epoch++) {
             ProgressLogger pg = new ProgressLogger(LOG);
             pg.itemsName = "mini-batch";
@@ -345,67 +421,125 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 pg.start();
             }
             // train the graph with the content of the iterator:
-            numExamplesUsed += trainer.train(computationGraph, iterator, pg);
-
-            //save latest after the end of an epoch:
-            double trainingScore = computationGraph.score();
-            saver.saveLatestModel(computationGraph, trainingScore);
-            writeProperties();
-            writeBestScoreFile();
-            if (epoch % args().validateEvery == 0) {
-
-                // estimate all performance metrics. Note that we do a pass over the validation set for each metric:
-                // (avoid using several metrics).
-                double validationMetricValue = initializePerformance(perfDescriptor, perfDescriptor.earlyStoppingMetric());
-                DoubleArrayList metricValues = new DoubleArrayList();
-
-
-                validationIterator.reset();
-                assert validationIterator.hasNext() : "validation iterator must have datasets. Make sure the latest release of Goby is installed in the maven repo.";
-                final double[] performanceValues = perfDescriptor.estimateMetric(computationGraph,
-                        validationIterator, args().numValidation, perfDescriptor.performanceMetrics());
-                metricValues = DoubleArrayList.wrap(performanceValues);
-
-                validationMetricValue = findMetricValue(perfDescriptor.earlyStoppingMetric(),
-                        perfDescriptor.performanceMetrics(),
-                        performanceValues);
-
-                performanceLogger.logMetrics("epochs", numExamplesUsed, epoch, metricValues.toDoubleArray());
-                performanceLogger.logTrainingScore("epochs", epoch, trainingScore);
-                if (args().trackingStyle == TrainingArguments.TrackStyle.PERFS) {
-                    performanceLogger.show("epochs");
-                }
-                //System.out.println(metricValues);
-                if (!Double.isNaN(bestValue) &&
-                        (perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue > bestValue) ||
-                        (!perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue < bestValue)) {
-                    saver.saveModel(computationGraph, "best" + validationMetricName);
-                    bestValue = validationMetricValue;
-
-                    performanceLogger.logMetrics(bestMetricName, numExamplesUsed, epoch, metricValues.toDoubleArray());
-                    notImproved = 0;
-                } else {
-                    notImproved++;
-                }
-                if (notImproved > args().stopWhenEpochsWithoutImprovement) {
-                    // we have not improved after earlyStopCondition epoch, time to stop.
+            numExamplesUsed += trainer.train(computationGraph, trainingIterator, pg);
+
+            final double trainingScore = computationGraph.score();
+            final boolean validate = epoch % args().validateEvery == 0;
+            if (args().asyncValidation) {
+                // validate at most one snapshot while the next epoch trains:
+                waitForValidation(pendingValidation);
+                if (stopRequested) {
                     break;
                 }
+                final ComputationGraph snapshot = ComputationGraphCopier.copy(computationGraph);
+                final int snapshotEpoch = epoch;
+                final long snapshotNumExamplesUsed = numExamplesUsed;
+                pendingValidation = validationExecutor.submit(() -> {
+                    if (args().deviceIndex != null && !args().parallel) {
+                        Nd4j.getAffinityManager().attachThreadToDevice(Thread.currentThread(), args().deviceIndex);
+                    }
+                    return endEpoch(snapshot, saver, validationIterator, perfDescriptor, snapshotEpoch,
+                            snapshotNumExamplesUsed, trainingScore, validate);
+                });
+            } else if (endEpoch(computationGraph, saver, validationIterator, perfDescriptor, epoch, numExamplesUsed,
+                    trainingScore, validate)) {
+                break;
             }
             if (args().trackingStyle == TrainingArguments.TrackStyle.SPEED) {
                 pg.stop();
                 pgEpoch.updateAndDisplay();
             }
             iterator.reset();    //Reset iterator for another epoch
-            performanceLogger.write();
             //addCustomOption("--error-enrichment", args().errorEnrichment);
             //addCustomOption("--num-errors-added", args().numErrorsAdded);
         }
+        if (validationExecutor != null) {
+            waitForValidation(pendingValidation);
+            validationExecutor.shutdown();
+        }
         pgEpoch.stop();
         return new EarlyStoppingResult<ComputationGraph>(EarlyStoppingResult.TerminationReason.EpochTerminationCondition,
                 "not early stopping", scoreMap, performanceLogger.getBestEpoch(bestMetricName), bestScore, args().maxEpochs, computationGraph);
     }
 
+    /**
+     * Save the latest model at the end of an epoch, estimate its performance on the validation set and save it as
+     * the best model when performance improved. With --async-validation, this method runs on a background thread
+     * with a snapshot of the model, while training continues.
+     *
+     * @return True when training must stop because performance has not improved for too many epochs.
+     */
+    private boolean endEpoch(ComputationGraph graph, ComputationGraphSaver saver,
+                             MultiDataSetIterator validationIterator, PerformanceMetricDescriptor perfDescriptor,
+                             int epoch, long numExamplesUsed, double trainingScore, boolean validate) throws IOException {
+        //save latest after the end of an epoch:
+        saver.saveLatestModel(graph, trainingScore);
+        writeProperties();
+        writeBestScoreFile();
+        if (validate) {
+            String validationMetricName = perfDescriptor.earlyStoppingMetric();
+            // estimate all performance metrics. Note that we do a pass over the validation set for each metric:
+            // (avoid using several metrics).
+            double validationMetricValue = initializePerformance(perfDescriptor, perfDescriptor.earlyStoppingMetric());
+            DoubleArrayList metricValues = new DoubleArrayList();
+
+
+            validationIterator.reset();
+            assert validationIterator.hasNext() : "validation iterator must have datasets. Make sure the latest release of Goby is installed in the maven repo.";
+            final double[] performanceValues = perfDescriptor.estimateMetric(graph,
+                    validationIterator, args().numValidation, perfDescriptor.performanceMetrics());
+            metricValues = DoubleArrayList.wrap(performanceValues);
+
+            validationMetricValue = findMetricValue(perfDescriptor.earlyStoppingMetric(),
+                    perfDescriptor.performanceMetrics(),
+                    performanceValues);
+
+            performanceLogger.logMetrics("epochs", numExamplesUsed, epoch, metricValues.toDoubleArray());
+            performanceLogger.logTrainingScore("epochs", epoch, trainingScore);
+            if (args().trackingStyle == TrainingArguments.TrackStyle.PERFS) {
+                performanceLogger.show("epochs");
+            }
+            //System.out.println(metricValues);
+            if (!Double.isNaN(bestValue) &&
+                    (perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue > bestValue) ||
+                    (!perfDescriptor.largerValueIsBetterPerformance(validationMetricName) && validationMetricValue < bestValue)) {
+                saver.saveModel(graph, "best" + validationMetricName);
+                bestValue = validationMetricValue;
+
+                performanceLogger.logMetrics(bestMetricName, numExamplesUsed, epoch, metricValues.toDoubleArray());
+                notImproved = 0;
+            } else {
+                notImproved++;
+            }
+            if (notImproved > args().stopWhenEpochsWithoutImprovement) {
+                // we have not improved after earlyStopCondition epoch, time to stop.
+                stopRequested = true;
+                return true;
+            }
+        }
+        performanceLogger.write();
+        return false;
+    }
+
+    /**
+     * Wait until the validation of the previous epoch completes.
+     */
+    private void waitForValidation(Future<Boolean> pendingValidation) throws IOException {
+        if (pendingValidation == null) {
+            return;
+        }
+        try {
+            pendingValidation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for validation.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Unable to validate model.", e.getCause());
+        }
+    }
 
     private double findMetricValue(String lookupName, String[] metricNames, double[] performanceValues) {
         int i = 0;
@@ -441,6 +575,15 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
     }
 
+    private MultiDataSetIterator cacheInMemory(MultiDataSetIterator iterator) {
+        if (args().memoryCacheOffHeap) {
+            final long memoryBudget = args().memoryCacheBudget > 0 ? args().memoryCacheBudget << 20 :
+                    OffHeapMemoryCache.defaultMemoryBudget();
+            return new OffHeapMemoryCache(iterator, memoryBudget, args().memoryCacheHalfPrecision);
+        }
+        return new FullyInMemoryCache(iterator);
+    }
+
     private MultiDataSetIterator readValidationSet() {
         Iterable<RecordType> validationRecords = domainDescriptor.getRecordIterable().apply(args().validationSet);
         try {
@@ -451,11 +594,12 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                     return args().validationSet;
                 }
             };
+            adapter.setNumMappingThreads(args().numMappingThreads);
             MultiDataSetIterator iterator = args().ignoreCache ? adapter : cacheHelper.cache(domainDescriptor,
                     adapter, adapter.getBasename(),
                     args().numValidation, args().miniBatchSize);
             if (args().memoryCacheValidation()) {
-                iterator = new FullyInMemoryCache(iterator);
+                iterator = cacheInMemory(iterator);
             }
             return iterator;
         } catch (IOException e) {
@@ -73,6 +73,41 @@ public abstract class TrainingArguments extends RecordingToolArguments {
             "only the validation set. Use none to disable caching entirely.")
     public String memoryCache = "validation";
 
+    @Parameter(names = "--memory-cache-off-heap", description = "When provided, sets cached in memory (see --memory-cache) are stored " +
+            "outside of the Java heap, in compact form. This avoids long garbage collection pauses with large caches.")
+    public boolean memoryCacheOffHeap;
+
+    @Parameter(names = "--memory-cache-budget", description = "Maximum amount of memory, in megabytes, used by each off-heap memory cache. " +
+            "Minibatches that do not fit are read from disk. When zero, half of the maximum heap size is used.")
+    public long memoryCacheBudget = 0;
+
+    @Parameter(names = "--memory-cache-half-precision", description = "When provided, off-heap memory caches store values at half precision.")
+    public boolean memoryCacheHalfPrecision;
+
+    @Parameter(names = "--memory-map-cache", description = "When provided, memory-map the mapped feature caches instead of reading them as streams. " +
+            "Processes that use the same cache share it through the OS page cache.")
+    public boolean memoryMapCache;
+
+    @Parameter(names = "--cache-codec", description = "Compression of the minibatches stored in new training caches: none or lz4. " +
+            "Compressed caches use less disk space and page cache, and are decoded on background threads.")
+    public String cacheCodec = "none";
+
+    @Parameter(names = "--incremental-cache", description = "Name of a training cache that grows with the training sets. The cache keeps " +
+            "the list of training sets it contains. When training sets are added, only the new sets are mapped and appended to the cache.")
+    public String incrementalCache;
+
+    @Parameter(names = "--record-cache", description = "When provided, convert the mapped feature caches to one row per record, and " +
+            "assemble minibatches of --mini-batch-size from these rows. A cache can then be reused with any minibatch size.")
+    public boolean recordCache;
+
+    @Parameter(names = "--shuffle-cached-records", description = "When provided, visit the records of the training cache in a different " +
+            "random order each epoch, so that minibatches contain different records. Requires --record-cache.")
+    public boolean shuffleCachedRecords;
+
+    @Parameter(names = "--shuffle-cached-minibatches", description = "When provided, visit the minibatches of the training cache in a different " +
+            "random order each epoch. Requires --memory-map-cache, or --memory-cache training.")
+    public boolean shuffleCachedMinibatches;
+
     public boolean memoryCacheTraining() {
         // do not cache in memory if just build a cache on disk:
         boolean result = memoryCache.length() > 1 && memoryCache.contains("training") && !buildCacheAndStop;
@@ -97,8 +132,30 @@ public abstract class TrainingArguments extends RecordingToolArguments {
     @Parameter(names = "--parallel", description = "When provided, trains on several GPUs in parallel.")
     public boolean parallel;
 
+    @Parameter(names = "--async-validation", description = "When provided, the model is copied at the end of each " +
+            "epoch and the copy is saved and validated on a background thread while the next epoch trains. " +
+            "Early stopping interrupts training as soon as validation results call for it.")
+    public boolean asyncValidation;
+
+    @Parameter(names = "--cpu-workers", description = "Number of model replicas trained in parallel on CPU threads. " +
+            "Replicas share the available cores and their parameters are averaged periodically. Use 1 to train a " +
+            "single model sequentially. Ignored when --parallel is provided.")
+    public int cpuWorkers = 1;
+
+    @Parameter(names = "--averaging-frequency", description = "Number of minibatches each CPU worker fits between " +
+            "two parameter averaging steps.")
+    public int averagingFrequency = 1;
+
+    @Parameter(names = "--deterministic-workers", description = "When provided, minibatches are dealt to CPU " +
+            "workers in a fixed order, so that runs can be reproduced and compared to sequential training. Otherwise, " +
+            "workers take minibatches as they become free.")
+    public boolean deterministicWorkers;
+
     protected abstract String defaultArchitectureClassname();
 
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map features and labels when building caches or training without a cache.")
+    public int numMappingThreads = 1;
+
     @Parameter(names = "--build-cache-then-stop", description = "When provided, build the caches, then immediately stop.")
     public boolean buildCacheAndStop = false;
 
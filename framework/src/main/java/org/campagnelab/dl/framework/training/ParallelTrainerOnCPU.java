@@ -0,0 +1,202 @@
+package org.campagnelab.dl.framework.training;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.logging.ProgressLogger;
+import org.campagnelab.dl.framework.models.ComputationGraphCopier;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.nativeblas.NativeOpsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Trainer that trains replicas of the model on several groups of CPU threads, with periodic parameter averaging.
+ * Training proceeds in synchronous rounds. In each round, every replica fits up to averagingFrequency minibatches,
+ * then the parameters and updater states of the replicas are averaged into the model and copied back to the
+ * replicas. Native operations of each replica run on availableProcessors/numWorkers OpenMP threads.
+ * <p>
+ * In deterministic mode, minibatches are read by the calling thread and dealt to replicas in a fixed order, so that
+ * runs with the same data and seed produce the same model. With one worker and an averaging frequency of one, the
+ * model is the same as with the {@link SequentialTrainer}. Otherwise, workers take minibatches from the iterator as
+ * they become free, which balances load when minibatches differ in cost.
+ */
+public class ParallelTrainerOnCPU implements Trainer {
+    static private Logger LOG = LoggerFactory.getLogger(ParallelTrainerOnCPU.class);
+
+    private final ComputationGraph[] replicas;
+    private final int averagingFrequency;
+    private final boolean deterministic;
+    private final int threadsPerWorker;
+    private final ExecutorService workers;
+    private boolean logSpeed;
+
+    public ParallelTrainerOnCPU(ComputationGraph graph, int numWorkers, int averagingFrequency, boolean deterministic) {
+        if (numWorkers < 1 || averagingFrequency < 1) {
+            throw new IllegalArgumentException("numWorkers and averagingFrequency must be at least 1.");
+        }
+        replicas = new ComputationGraph[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            replicas[i] = ComputationGraphCopier.copy(graph);
+        }
+        this.averagingFrequency = averagingFrequency;
+        this.deterministic = deterministic;
+        threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+        workers = Executors.newFixedThreadPool(numWorkers,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cpu-trainer-%d").build());
+        LOG.info("Training {} replicas with {} threads each, averaging every {} minibatches{}.", numWorkers,
+                threadsPerWorker, averagingFrequency, deterministic ? ", in deterministic mode" : "");
+    }
+
+    @Override
+    public int train(ComputationGraph graph, MultiDataSetIterator iterator, ProgressLogger pg) {
+        // the model may have been changed since the last call (e.g., when resuming training):
+        broadcast(graph);
+        int numExamplesUsed = 0;
+        int[] numFitted = new int[replicas.length];
+        List<List<MultiDataSet>> assigned = new ArrayList<>();
+        for (int worker = 0; worker < replicas.length; worker++) {
+            assigned.add(new ArrayList<>());
+        }
+        while (iterator.hasNext()) {
+            List<Future<int[]>> round = new ArrayList<>();
+            if (deterministic) {
+                for (int i = 0; i < replicas.length * averagingFrequency && iterator.hasNext(); i++) {
+                    assigned.get(i % replicas.length).add(iterator.next());
+                }
+                for (int worker = 0; worker < replicas.length; worker++) {
+                    final ComputationGraph replica = replicas[worker];
+                    final List<MultiDataSet> minibatches = assigned.get(worker);
+                    round.add(workers.submit(() -> fit(replica, minibatches)));
+                }
+            } else {
+                for (final ComputationGraph replica : replicas) {
+                    round.add(workers.submit(() -> fit(replica, iterator)));
+                }
+            }
+            int numMinibatches = 0;
+            for (int worker = 0; worker < replicas.length; worker++) {
+                final int[] fitted;
+                try {
+                    fitted = round.get(worker).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while training model replicas.", e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Unable to train model replica " + worker, e.getCause());
+                }
+                numFitted[worker] = fitted[0];
+                numMinibatches += fitted[0];
+                numExamplesUsed += fitted[1];
+                assigned.get(worker).clear();
+            }
+            average(graph, numFitted);
+            broadcast(graph);
+            if (logSpeed) {
+                pg.update(numMinibatches);
+            }
+        }
+        return numExamplesUsed;
+    }
+
+    /**
+     * Fit a replica with the minibatches dealt to it.
+     *
+     * @return the number of minibatches and examples fitted.
+     */
+    private int[] fit(ComputationGraph replica, List<MultiDataSet> minibatches) {
+        NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(threadsPerWorker);
+        int numExamples = 0;
+        for (MultiDataSet ds : minibatches) {
+            replica.fit(ds);
+            numExamples += ds.getFeatures(0).size(0);
+        }
+        return new int[]{minibatches.size(), numExamples};
+    }
+
+    /**
+     * Fit a replica with up to averagingFrequency minibatches taken from an iterator shared with other workers.
+     *
+     * @return the number of minibatches and examples fitted.
+     */
+    private int[] fit(ComputationGraph replica, MultiDataSetIterator iterator) {
+        NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(threadsPerWorker);
+        int numFitted = 0;
+        int numExamples = 0;
+        while (numFitted < averagingFrequency) {
+            MultiDataSet ds;
+            synchronized (iterator) {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                ds = iterator.next();
+            }
+            replica.fit(ds);
+            numExamples += ds.getFeatures(0).size(0);
+            numFitted++;
+        }
+        return new int[]{numFitted, numExamples};
+    }
+
+    /**
+     * Average the parameters, updater states and scores of the replicas that fitted minibatches in the last round.
+     * Replicas are summed in a fixed order, so that averages do not depend on thread scheduling.
+     */
+    private void average(ComputationGraph graph, int[] numFitted) {
+        INDArray params = null;
+        INDArray state = null;
+        double score = 0;
+        int numAveraged = 0;
+        for (int worker = 0; worker < replicas.length; worker++) {
+            if (numFitted[worker] == 0) {
+                continue;
+            }
+            final ComputationGraph replica = replicas[worker];
+            final INDArray replicaState = replica.getUpdater().getStateViewArray();
+            if (params == null) {
+                params = replica.params().dup();
+                state = replicaState == null ? null : replicaState.dup();
+            } else {
+                params.addi(replica.params());
+                if (state != null) {
+                    state.addi(replicaState);
+                }
+            }
+            score += replica.score();
+            numAveraged++;
+        }
+        if (numAveraged == 0) {
+            return;
+        }
+        graph.setParams(params.divi(numAveraged));
+        final INDArray graphState = graph.getUpdater().getStateViewArray();
+        if (state != null && graphState != null) {
+            graphState.assign(state.divi(numAveraged));
+        }
+        graph.setScore(score / numAveraged);
+    }
+
+    /**
+     * Copy the parameters and updater state of the model to the replicas.
+     */
+    private void broadcast(ComputationGraph graph) {
+        final INDArray graphState = graph.getUpdater().getStateViewArray();
+        for (ComputationGraph replica : replicas) {
+            replica.setParams(graph.params());
+            final INDArray replicaState = replica.getUpdater().getStateViewArray();
+            if (graphState != null && replicaState != null) {
+                replicaState.assign(graphState);
+            }
+        }
+    }
+
+    @Override
+    public void setLogSpeed(boolean logSpeed) {
+        this.logSpeed = logSpeed;
+    }
+}
@@ -0,0 +1,188 @@
+package org.campagnelab.dl.framework.domains;
+
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.prediction.BinaryClassPrediction;
+import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
+import org.campagnelab.dl.framework.tools.TrainingArguments;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.function.Function;
+
+/**
+ * A minimal domain for tests. Records are float arrays, mapped by the feature and label mappers given to the
+ * constructor. The graph has one input ("input") and one binary classification output ("output").
+ */
+public class FloatArrayDomainDescriptor extends DomainDescriptor<float[]> {
+    private final FeatureMapper<float[]> featureMapper;
+    private final LabelMapper<float[]> labelMapper;
+
+    public FloatArrayDomainDescriptor(FeatureMapper<float[]> featureMapper, LabelMapper<float[]> labelMapper) {
+        this.featureMapper = featureMapper;
+        this.labelMapper = labelMapper;
+        computationGraphAssembler = getComputationalGraph();
+    }
+
+    /**
+     * Create the graph of this domain, with fixed random weights.
+     */
+    public ComputationGraph createGraph() {
+        return getComputationalGraph().createComputationalGraph(this);
+    }
+
+    @Override
+    public FeatureMapper getFeatureMapper(String inputName) {
+        return featureMapper;
+    }
+
+    @Override
+    public LabelMapper getLabelMapper(String outputName) {
+        return labelMapper;
+    }
+
+    @Override
+    public PredictionInterpreter getPredictionInterpreter(String outputName) {
+        return new Interpreter();
+    }
+
+    @Override
+    public Function<String, ? extends Iterable<float[]>> getRecordIterable() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ComputationGraphAssembler getComputationalGraph() {
+        return new Assembler();
+    }
+
+    @Override
+    public int[] getNumInputs(String inputName) {
+        return new int[]{featureMapper.numberOfFeatures()};
+    }
+
+    @Override
+    public int[] getNumOutputs(String outputName) {
+        return new int[]{labelMapper.numberOfLabels()};
+    }
+
+    @Override
+    public int[] getNumMaskInputs(String inputName) {
+        return new int[]{featureMapper.numberOfFeatures()};
+    }
+
+    @Override
+    public int[] getNumMaskOutputs(String outputName) {
+        return new int[]{labelMapper.numberOfLabels()};
+    }
+
+    @Override
+    public int getNumHiddenNodes(String componentName) {
+        return 8;
+    }
+
+    @Override
+    public ILossFunction getOutputLoss(String outputName) {
+        return LossFunctions.LossFunction.MCXENT.getILossFunction();
+    }
+
+    @Override
+    public long getNumRecords(String[] recordFiles) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Interprets the two outputs of the graph as a binary prediction.
+     */
+    private static class Interpreter implements PredictionInterpreter<float[], BinaryClassPrediction> {
+        @Override
+        public BinaryClassPrediction interpret(INDArray trueLabels, INDArray output, int predictionIndex) {
+            return interpret(output.getRow(predictionIndex));
+        }
+
+        @Override
+        public BinaryClassPrediction interpret(float[] record, INDArray output) {
+            return interpret(output);
+        }
+
+        private BinaryClassPrediction interpret(INDArray output) {
+            BinaryClassPrediction prediction = new BinaryClassPrediction();
+            prediction.predictedLabelNo = output.getDouble(0, 0);
+            prediction.predictedLabelYes = output.getDouble(0, 1);
+            return prediction;
+        }
+    }
+
+    /**
+     * Assembles a small graph with one dense layer. Named, like the interpreter, because domain properties and
+     * cache names use the canonical names of these classes.
+     */
+    private class Assembler implements ComputationGraphAssembler {
+        @Override
+        public void setArguments(TrainingArguments arguments) {
+        }
+
+        @Override
+        public ComputationGraph createComputationalGraph(DomainDescriptor domainDescriptor) {
+            final int numInputs = featureMapper.numberOfFeatures();
+            ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                    .seed(1)
+                    .weightInit(WeightInit.XAVIER)
+                    .graphBuilder()
+                    .addInputs("input")
+                    .addLayer("dense", new DenseLayer.Builder().nIn(numInputs).nOut(8).activation("tanh").build(),
+                            "input")
+                    .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(8).nOut(2)
+                            .activation("softmax").build(), "dense")
+                    .setOutputs("output")
+                    .build();
+            ComputationGraph graph = new ComputationGraph(conf);
+            graph.init();
+            return graph;
+        }
+
+        @Override
+        public void setNumInputs(String inputName, int... dimension) {
+        }
+
+        @Override
+        public void setNumOutputs(String outputName, int... dimension) {
+        }
+
+        @Override
+        public void setNumHiddenNodes(String componentName, int numHiddenNodes) {
+        }
+
+        @Override
+        public String[] getInputNames() {
+            return new String[]{"input"};
+        }
+
+        @Override
+        public String[] getOutputNames() {
+            return new String[]{"output"};
+        }
+
+        @Override
+        public String[] getComponentNames() {
+            return new String[]{"dense"};
+        }
+
+        @Override
+        public void setLossFunction(String outputName, ILossFunction lossFunction) {
+        }
+
+        @Override
+        public void saveProperties(ModelPropertiesHelper helper) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.domains.FloatArrayDomainDescriptor;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelFromFeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that mapping on several threads produces the same minibatches, in the same order, as mapping on the
+ * calling thread.
+ */
+public class MultiDataSetIteratorAdapterTest {
+    private static final int NUM_RECORDS = 1003;
+    private static final int BATCH_SIZE = 10;
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_VALUES = 16;
+
+    @Test
+    public void parallelMappingReturnsSameMinibatches() throws IOException {
+        List<MultiDataSet> expected = minibatches(adapter(1));
+        MultiDataSetIteratorAdapter<float[]> adapter = adapter(NUM_THREADS);
+        assertEquals(NUM_THREADS, adapter.getNumMappingThreads());
+        List<MultiDataSet> minibatches = minibatches(adapter);
+        assertEquals(expected.size(), minibatches.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("features of minibatch " + i, expected.get(i).getFeatures(0), minibatches.get(i).getFeatures(0));
+            assertEquals("labels of minibatch " + i, expected.get(i).getLabels(0), minibatches.get(i).getLabels(0));
+        }
+    }
+
+    @Test
+    public void parallelTransformReturnsSameBytes() throws IOException {
+        List<byte[]> expected = serialized(adapter(1));
+        List<byte[]> serialized = serialized(adapter(NUM_THREADS));
+        assertEquals(expected.size(), serialized.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("minibatch " + i, expected.get(i), serialized.get(i));
+        }
+    }
+
+    private List<MultiDataSet> minibatches(MultiDataSetIteratorAdapter<float[]> adapter) {
+        List<MultiDataSet> minibatches = new ObjectArrayList<>();
+        while (adapter.hasNext()) {
+            minibatches.add(adapter.next());
+        }
+        return minibatches;
+    }
+
+    private List<byte[]> serialized(MultiDataSetIteratorAdapter<float[]> adapter) {
+        List<byte[]> minibatches = new ObjectArrayList<>();
+        Iterator<byte[]> iterator = adapter.transform(minibatch -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                minibatch.save(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to serialize minibatch", e);
+            }
+            return bytes.toByteArray();
+        });
+        iterator.forEachRemaining(minibatches::add);
+        return minibatches;
+    }
+
+    private MultiDataSetIteratorAdapter<float[]> adapter(int numThreads) throws IOException {
+        List<float[]> records = new ObjectArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            float[] record = new float[NUM_VALUES];
+            for (int j = 0; j < NUM_VALUES; j++) {
+                record[j] = (i * 31 + j * 17) % 101;
+            }
+            records.add(record);
+        }
+        MultiDataSetIteratorAdapter<float[]> adapter = new MultiDataSetIteratorAdapter<float[]>(records, BATCH_SIZE,
+                new ScaledDomainDescriptor()) {
+            @Override
+            public String getBasename() {
+                return "scaled";
+            }
+        };
+        adapter.setNumMappingThreads(numThreads);
+        return adapter;
+    }
+
+    /**
+     * A domain that creates new mappers for each mapping thread.
+     */
+    private static class ScaledDomainDescriptor extends FloatArrayDomainDescriptor {
+        ScaledDomainDescriptor() {
+            super(new ScaledMapper(), new LabelFromFeatureMapper<>(new ScaledMapper()));
+        }
+
+        @Override
+        public FeatureMapper newFeatureMapper(String inputName) {
+            return new ScaledMapper();
+        }
+
+        @Override
+        public LabelMapper newLabelMapper(String outputName) {
+            return new LabelFromFeatureMapper<>(new ScaledMapper());
+        }
+    }
+
+    /**
+     * Maps the values of a record divided by their maximum. The maximum is kept between prepareToNormalize and
+     * mapFeatures, so a mapper shared by several threads would scale records with the maximum of another record.
+     */
+    private static class ScaledMapper extends NoMaskFeatureMapper<float[]> {
+        private float max;
+
+        @Override
+        public int numberOfFeatures() {
+            return NUM_VALUES;
+        }
+
+        @Override
+        public void prepareToNormalize(float[] record, int indexOfRecord) {
+            max = 1;
+            for (float value : record) {
+                max = Math.max(max, value);
+            }
+        }
+
+        @Override
+        public void mapFeatures(float[] record, INDArray inputs, int indexOfRecord) {
+            for (int featureIndex = 0; featureIndex < NUM_VALUES; featureIndex++) {
+                inputs.putScalar(indexOfRecord, featureIndex, produceFeature(record, featureIndex));
+            }
+        }
+
+        @Override
+        public float produceFeature(float[] record, int featureIndex) {
+            return record[featureIndex] / max;
+        }
+    }
+}
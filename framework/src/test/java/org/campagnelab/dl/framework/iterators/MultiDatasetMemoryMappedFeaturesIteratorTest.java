@@ -0,0 +1,95 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that memory-mapped caches return the same minibatches as the streamed cache.
+ */
+public class MultiDatasetMemoryMappedFeaturesIteratorTest {
+    private static final String BASENAME = "test-results/mapped-cache/cache";
+    private static final int NUM_MINIBATCHES = 5;
+    private static final int MINIBATCH_SIZE = 4;
+
+    @Before
+    public void writeCache() throws IOException {
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        new File(BASENAME + ".cfi").delete();
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(BASENAME + ".cf"))) {
+            for (int i = 0; i < NUM_MINIBATCHES; i++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minibatch(i).save(bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            }
+        }
+        Properties cfp = new Properties();
+        cfp.put("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        cfp.put("numRecords", Integer.toString(NUM_MINIBATCHES * MINIBATCH_SIZE));
+        try (FileWriter writer = new FileWriter(BASENAME + ".cfp")) {
+            cfp.store(writer, "test");
+        }
+    }
+
+    private MultiDataSet minibatch(int index) {
+        INDArray features = Nd4j.zeros(MINIBATCH_SIZE, 3).addi(index);
+        INDArray labels = Nd4j.ones(MINIBATCH_SIZE, 2).muli(index);
+        return new org.nd4j.linalg.dataset.MultiDataSet(features, labels);
+    }
+
+    @Test
+    public void sameAsStream() {
+        MultiDatasetMappedFeaturesIterator streamed = new MultiDatasetMappedFeaturesIterator(BASENAME);
+        MultiDatasetMemoryMappedFeaturesIterator mapped = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME);
+        assertEquals(NUM_MINIBATCHES, mapped.numMinibatches());
+        while (streamed.hasNext()) {
+            MultiDataSet expected = streamed.next();
+            MultiDataSet observed = mapped.next();
+            assertEquals(expected.getFeatures(0), observed.getFeatures(0));
+            assertEquals(expected.getLabels(0), observed.getLabels(0));
+        }
+        assertFalse(mapped.hasNext());
+        assertTrue("the index must be written next to the cache", new File(BASENAME + ".cfi").exists());
+    }
+
+    @Test
+    public void randomAccess() {
+        MultiDatasetMemoryMappedFeaturesIterator mapped = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME);
+        for (int i = NUM_MINIBATCHES - 1; i >= 0; i--) {
+            assertEquals(i, mapped.get(i).getFeatures(0).getFloat(0, 0), 0);
+        }
+    }
+
+    @Test
+    public void shuffleVisitsAllMinibatches() {
+        MultiDatasetMemoryMappedFeaturesIterator mapped = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME);
+        mapped.shuffleMinibatches(1);
+        for (int epoch = 0; epoch < 3; epoch++) {
+            IntSet seen = new IntArraySet();
+            while (mapped.hasNext()) {
+                seen.add((int) mapped.next().getFeatures(0).getFloat(0, 0));
+            }
+            assertEquals(NUM_MINIBATCHES, seen.size());
+            mapped.reset();
+        }
+    }
+
+    @Test
+    public void cacheNLimitsMinibatches() {
+        MultiDatasetMemoryMappedFeaturesIterator mapped = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME, MINIBATCH_SIZE + 1);
+        assertEquals(2, mapped.numMinibatches());
+    }
+}
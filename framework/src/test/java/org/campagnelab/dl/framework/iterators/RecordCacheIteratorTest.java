@@ -0,0 +1,152 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.cache.RecordCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that record caches assemble minibatches of any size from the records of a minibatch cache.
+ */
+public class RecordCacheIteratorTest {
+    private static final String BASENAME = "test-results/record-cache/cache";
+    private static final int NUM_MINIBATCHES = 5;
+    private static final int MINIBATCH_SIZE = 4;
+    private static final int NUM_RECORDS = NUM_MINIBATCHES * MINIBATCH_SIZE;
+    private static final int SEQUENCE_LENGTH = 3;
+
+    @Before
+    public void writeCache() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(BASENAME + ".cf"))) {
+            for (int i = 0; i < NUM_MINIBATCHES; i++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minibatch(i).save(bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            }
+        }
+        Properties cfp = new Properties();
+        cfp.put("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        cfp.put("numRecords", Integer.toString(NUM_RECORDS));
+        try (FileWriter writer = new FileWriter(BASENAME + ".cfp")) {
+            cfp.store(writer, "test");
+        }
+    }
+
+    /**
+     * The values of each record encode the index of the record.
+     */
+    private MultiDataSet minibatch(int index) {
+        INDArray features = Nd4j.zeros(MINIBATCH_SIZE, 2, SEQUENCE_LENGTH);
+        INDArray labels = Nd4j.zeros(MINIBATCH_SIZE, 2);
+        INDArray mask = Nd4j.ones(MINIBATCH_SIZE, SEQUENCE_LENGTH);
+        for (int example = 0; example < MINIBATCH_SIZE; example++) {
+            final int record = index * MINIBATCH_SIZE + example;
+            for (int t = 0; t < SEQUENCE_LENGTH; t++) {
+                features.putScalar(new int[]{example, 0, t}, record);
+                features.putScalar(new int[]{example, 1, t}, 100 + t);
+            }
+            labels.putScalar(example, 0, record % 2);
+            labels.putScalar(example, 1, 1 - record % 2);
+            mask.putScalar(example, SEQUENCE_LENGTH - 1, record % 3 == 0 ? 0 : 1);
+        }
+        return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features}, new INDArray[]{labels},
+                new INDArray[]{mask}, null);
+    }
+
+    private void assertRecord(MultiDataSet minibatch, int example, int record) {
+        assertEquals(record, minibatch.getFeatures(0).getFloat(new int[]{example, 0, 1}), 0);
+        assertEquals(101, minibatch.getFeatures(0).getFloat(new int[]{example, 1, 1}), 0);
+        assertEquals(record % 2, minibatch.getLabels(0).getFloat(example, 0), 0);
+        assertEquals(record % 3 == 0 ? 0 : 1, minibatch.getFeaturesMaskArray(0).getFloat(example, SEQUENCE_LENGTH - 1), 0);
+        assertNull(minibatch.getLabelsMaskArrays());
+    }
+
+    @Test
+    public void rebatch() {
+        RecordCacheIterator iterator = new RecordCacheIterator(BASENAME, 3);
+        assertEquals(NUM_RECORDS, iterator.numRecords());
+        assertTrue(new File(BASENAME + RecordCache.EXTENSION).exists());
+        int record = 0;
+        while (iterator.hasNext()) {
+            MultiDataSet minibatch = iterator.next();
+            assertEquals(3, minibatch.getFeatures(0).rank());
+            assertEquals(SEQUENCE_LENGTH, minibatch.getFeatures(0).size(2));
+            for (int example = 0; example < minibatch.getFeatures(0).size(0); example++) {
+                assertRecord(minibatch, example, record++);
+            }
+        }
+        assertEquals(NUM_RECORDS, record);
+        // the last minibatch is partial:
+        assertEquals(NUM_RECORDS % 3, iterator.get(new int[]{18, 19}, 0, 2).getFeatures(0).size(0));
+    }
+
+    @Test
+    public void shuffleRecords() {
+        RecordCacheIterator iterator = new RecordCacheIterator(BASENAME, 8);
+        iterator.shuffleRecords(1);
+        IntList firstEpoch = null;
+        for (int epoch = 0; epoch < 2; epoch++) {
+            IntList visited = new IntArrayList();
+            while (iterator.hasNext()) {
+                MultiDataSet minibatch = iterator.next();
+                for (int example = 0; example < minibatch.getFeatures(0).size(0); example++) {
+                    final int record = (int) minibatch.getFeatures(0).getFloat(new int[]{example, 0, 0});
+                    assertRecord(minibatch, example, record);
+                    visited.add(record);
+                }
+            }
+            assertEquals(NUM_RECORDS, visited.size());
+            assertEquals(NUM_RECORDS, new IntOpenHashSet(visited).size());
+            if (firstEpoch != null) {
+                assertNotEquals(firstEpoch, visited);
+            }
+            firstEpoch = visited;
+            iterator.reset();
+        }
+    }
+
+    @Test
+    public void rebuiltCacheIsConvertedAgain() throws IOException {
+        new RecordCacheIterator(BASENAME, 4);
+        final long modified = new File(BASENAME + ".cf").lastModified();
+        // same shapes and length, minibatches in reverse order:
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(BASENAME + ".cf"))) {
+            for (int i = NUM_MINIBATCHES - 1; i >= 0; i--) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minibatch(i).save(bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            }
+        }
+        new File(BASENAME + ".cfi").delete();
+        assertTrue(new File(BASENAME + ".cf").setLastModified(modified + 10000));
+        RecordCacheIterator iterator = new RecordCacheIterator(BASENAME, MINIBATCH_SIZE);
+        MultiDataSet minibatch = iterator.next();
+        for (int example = 0; example < MINIBATCH_SIZE; example++) {
+            assertRecord(minibatch, example, NUM_RECORDS - MINIBATCH_SIZE + example);
+        }
+    }
+
+    @Test
+    public void cacheN() {
+        RecordCacheIterator iterator = new RecordCacheIterator(BASENAME, 4, 10);
+        assertEquals(10, iterator.numRecords());
+    }
+}
@@ -0,0 +1,105 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that compressed caches return the minibatches that were stored.
+ */
+public class CacheCodecTest {
+    private static final String BASENAME = "test-results/compressed-cache/cache";
+    private static final int NUM_MINIBATCHES = 20;
+    private static final int MINIBATCH_SIZE = 4;
+
+    @Before
+    public void writeCache() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(BASENAME + ".cf"))) {
+            for (int i = 0; i < NUM_MINIBATCHES; i++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minibatch(i).save(bytes);
+                byte[] encoded = CacheCodec.LZ4.encode(bytes.toByteArray());
+                assertTrue("one-hot features must compress", encoded.length < bytes.size());
+                output.writeInt(encoded.length);
+                output.write(encoded);
+            }
+        }
+        Properties cfp = new Properties();
+        cfp.put("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        cfp.put("numRecords", Integer.toString(NUM_MINIBATCHES * MINIBATCH_SIZE));
+        CacheCodec.LZ4.putProperties(cfp);
+        try (FileWriter writer = new FileWriter(BASENAME + ".cfp")) {
+            cfp.store(writer, "test");
+        }
+    }
+
+    private MultiDataSet minibatch(int index) {
+        INDArray features = Nd4j.zeros(MINIBATCH_SIZE, 100);
+        for (int example = 0; example < MINIBATCH_SIZE; example++) {
+            features.putScalar(example, (index + example) % 100, 1);
+        }
+        INDArray labels = Nd4j.ones(MINIBATCH_SIZE, 2).muli(index);
+        return new org.nd4j.linalg.dataset.MultiDataSet(features, labels);
+    }
+
+    @Test
+    public void streamed() {
+        MultiDatasetMappedFeaturesIterator iterator = new MultiDatasetMappedFeaturesIterator(BASENAME);
+        for (int epoch = 0; epoch < 2; epoch++) {
+            int index = 0;
+            while (iterator.hasNext()) {
+                MultiDataSet observed = iterator.next();
+                assertEquals(minibatch(index).getFeatures(0), observed.getFeatures(0));
+                assertEquals(minibatch(index).getLabels(0), observed.getLabels(0));
+                index++;
+            }
+            assertEquals(NUM_MINIBATCHES, index);
+            iterator.reset();
+        }
+    }
+
+    @Test
+    public void memoryMapped() {
+        MultiDatasetMemoryMappedFeaturesIterator iterator = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME);
+        assertEquals(NUM_MINIBATCHES, iterator.numMinibatches());
+        for (int i = NUM_MINIBATCHES - 1; i >= 0; i--) {
+            assertEquals(minibatch(i).getFeatures(0), iterator.get(i).getFeatures(0));
+        }
+    }
+
+    @Test
+    public void resetWhileDecoding() {
+        MultiDatasetMappedFeaturesIterator iterator = new MultiDatasetMappedFeaturesIterator(BASENAME);
+        iterator.next();
+        iterator.next();
+        iterator.reset();
+        assertEquals(minibatch(0).getLabels(0), iterator.next().getLabels(0));
+        int count = 1;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(NUM_MINIBATCHES, count);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void codecOfOldCaches() {
+        assertEquals(CacheCodec.NONE, CacheCodec.fromProperties(new Properties()));
+        assertEquals(CacheCodec.LZ4, CacheCodec.forName("LZ4"));
+    }
+}
@@ -0,0 +1,225 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.domains.FloatArrayDomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.mappers.LabelFromFeatureMapper;
+import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that caches extended with new sources are only modified when all the new sources were mapped, and that
+ * caches requested concurrently are built once.
+ */
+public class CacheHelperTest {
+    private static final String DIRECTORY = "test-results/cache-helper/";
+    private static final String[] CACHE_EXTENSIONS = {".cf", ".cfi", ".cfp", CacheManifest.EXTENSION};
+    private static final int RECORDS_PER_SOURCE = 6;
+
+    private FloatArrayDomainDescriptor domain;
+
+    @Before
+    public void writeSources() throws IOException {
+        FileUtils.deleteQuietly(new File(DIRECTORY));
+        FileUtils.forceMkdir(new File(DIRECTORY));
+        for (String source : new String[]{"a", "b", "failing"}) {
+            FileUtils.write(new File(DIRECTORY + source), source);
+        }
+        domain = new SourcesDomainDescriptor();
+    }
+
+    @Test
+    public void failedAppendKeepsPublishedCache() throws IOException {
+        CacheHelper<float[]> helper = new CacheHelper<>();
+        assertEquals(RECORDS_PER_SOURCE, numRecords(helper.cacheIncrementally(domain, sources("a"), this::adapter,
+                DIRECTORY + "cache", Integer.MAX_VALUE, 2)));
+        final String cacheName = DIRECTORY + "cache-" + domain.produceCacheUniqueId();
+        List<byte[]> published = read(cacheName);
+        try {
+            // the first new source is mapped and appended before the second one fails:
+            helper.cacheIncrementally(domain, sources("a", "b", "failing"), this::adapter, DIRECTORY + "cache",
+                    Integer.MAX_VALUE, 2);
+            fail("mapping the failing source must fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        List<byte[]> afterFailure = read(cacheName);
+        for (int i = 0; i < CACHE_EXTENSIONS.length; i++) {
+            assertArrayEquals(CACHE_EXTENSIONS[i], published.get(i), afterFailure.get(i));
+        }
+        assertEquals(2 * RECORDS_PER_SOURCE, numRecords(helper.cacheIncrementally(domain, sources("a", "b"),
+                this::adapter, DIRECTORY + "cache", Integer.MAX_VALUE, 2)));
+    }
+
+    @Test
+    public void concurrentRequestsBuildCacheOnce() throws Exception {
+        final AtomicInteger numMapped = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Integer>> requests = new ObjectArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                requests.add(executor.submit(() -> {
+                    MultiDataSetIteratorAdapter adapter = countingAdapter(numMapped);
+                    start.await();
+                    return numRecords(new CacheHelper<float[]>().cache(domain, adapter, DIRECTORY + "shared",
+                            Integer.MAX_VALUE, 2));
+                }));
+            }
+            for (Future<Integer> request : requests) {
+                assertEquals(RECORDS_PER_SOURCE, request.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("the records must be mapped once", RECORDS_PER_SOURCE, numMapped.get());
+    }
+
+    private List<String> sources(String... names) {
+        List<String> sources = new ObjectArrayList<>();
+        for (String name : names) {
+            sources.add(DIRECTORY + name);
+        }
+        return sources;
+    }
+
+    private MultiDataSetIteratorAdapter adapter(String source) {
+        Iterable<float[]> records = () -> new Iterator<float[]>() {
+            int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < RECORDS_PER_SOURCE;
+            }
+
+            @Override
+            public float[] next() {
+                if (source.endsWith("failing")) {
+                    throw new IllegalStateException("Unable to read " + source);
+                }
+                return new float[]{source.hashCode(), index++};
+            }
+        };
+        try {
+            return new MultiDataSetIteratorAdapter<float[]>(records, 2, domain) {
+                @Override
+                public String getBasename() {
+                    return source;
+                }
+            };
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * An adapter over the records of one source, slow enough for concurrent requests to overlap.
+     */
+    private MultiDataSetIteratorAdapter countingAdapter(AtomicInteger numMapped) throws IOException {
+        Iterable<float[]> records = () -> new Iterator<float[]>() {
+            int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < RECORDS_PER_SOURCE;
+            }
+
+            @Override
+            public float[] next() {
+                numMapped.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new float[]{1, index++};
+            }
+        };
+        return new MultiDataSetIteratorAdapter<float[]>(records, 2, domain) {
+            @Override
+            public String getBasename() {
+                return DIRECTORY + "shared";
+            }
+        };
+    }
+
+    private List<byte[]> read(String cacheName) throws IOException {
+        List<byte[]> contents = new ObjectArrayList<>();
+        for (String extension : CACHE_EXTENSIONS) {
+            contents.add(FileUtils.readFileToByteArray(new File(cacheName + extension)));
+        }
+        return contents;
+    }
+
+    private int numRecords(MultiDataSetIterator iterator) {
+        int numRecords = 0;
+        while (iterator.hasNext()) {
+            numRecords += iterator.next().getFeatures(0).rows();
+        }
+        return numRecords;
+    }
+
+    /**
+     * A domain with a known number of records per source, mapped by the caches.
+     */
+    private static class SourcesDomainDescriptor extends FloatArrayDomainDescriptor {
+        SourcesDomainDescriptor() {
+            super(new ValuesMapper(2), new LabelFromFeatureMapper<>(new ValuesMapper(2)));
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return RECORDS_PER_SOURCE * recordFiles.length;
+        }
+    }
+
+    /**
+     * Maps the values of a record.
+     */
+    private static class ValuesMapper extends NoMaskFeatureMapper<float[]> {
+        private final int numValues;
+
+        ValuesMapper(int numValues) {
+            this.numValues = numValues;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return numValues;
+        }
+
+        @Override
+        public void prepareToNormalize(float[] record, int indexOfRecord) {
+        }
+
+        @Override
+        public void mapFeatures(float[] record, INDArray inputs, int indexOfRecord) {
+            for (int featureIndex = 0; featureIndex < numValues; featureIndex++) {
+                inputs.putScalar(indexOfRecord, featureIndex, produceFeature(record, featureIndex));
+            }
+        }
+
+        @Override
+        public float produceFeature(float[] record, int featureIndex) {
+            return record[featureIndex];
+        }
+    }
+}
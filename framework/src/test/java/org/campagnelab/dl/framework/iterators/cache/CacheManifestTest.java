@@ -0,0 +1,68 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Check that cache manifests detect new, changed and removed sources.
+ */
+public class CacheManifestTest {
+    private static final String DIRECTORY = "test-results/cache-manifest/";
+    private static final String BASENAME = DIRECTORY + "cache";
+
+    @Before
+    public void writeSources() throws IOException {
+        FileUtils.deleteQuietly(new File(DIRECTORY));
+        FileUtils.forceMkdir(new File(DIRECTORY));
+        for (String name : new String[]{"a", "b", "c"}) {
+            FileUtils.writeStringToFile(new File(DIRECTORY + name + ".sbi"), "records of " + name);
+        }
+    }
+
+    private CacheManifest manifest(String... sources) throws IOException {
+        CacheManifest manifest = new CacheManifest();
+        for (String source : sources) {
+            manifest.add(CacheManifest.describe(source, 10));
+        }
+        return manifest;
+    }
+
+    @Test
+    public void newSources() throws IOException {
+        CacheManifest manifest = manifest(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi");
+        assertEquals(Collections.emptyList(), manifest.newSources(Arrays.asList(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi")));
+        assertEquals(Collections.singletonList(DIRECTORY + "c.sbi"),
+                manifest.newSources(Arrays.asList(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi", DIRECTORY + "c.sbi")));
+        // sources given as basenames resolve to the same files:
+        assertEquals(Collections.emptyList(), manifest.newSources(Arrays.asList(DIRECTORY + "a", DIRECTORY + "b")));
+    }
+
+    @Test
+    public void changedOrRemovedSources() throws IOException {
+        CacheManifest manifest = manifest(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi");
+        assertNull(manifest.newSources(Collections.singletonList(DIRECTORY + "a.sbi")));
+        FileUtils.writeStringToFile(new File(DIRECTORY + "b.sbi"), "records of B");
+        assertNull(manifest.newSources(Arrays.asList(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi")));
+    }
+
+    @Test
+    public void writeAndLoad() throws IOException {
+        assertNull(CacheManifest.load(BASENAME));
+        manifest(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi").write(BASENAME);
+        CacheManifest loaded = CacheManifest.load(BASENAME);
+        assertEquals(2, loaded.getEntries().size());
+        assertEquals(new File(DIRECTORY + "b.sbi").getAbsolutePath(), loaded.getEntries().get(1).getSource());
+        assertEquals(10, loaded.getEntries().get(1).getNumRecords());
+        assertEquals(Collections.singletonList(DIRECTORY + "c.sbi"),
+                loaded.newSources(Arrays.asList(DIRECTORY + "a.sbi", DIRECTORY + "b.sbi", DIRECTORY + "c.sbi")));
+    }
+}
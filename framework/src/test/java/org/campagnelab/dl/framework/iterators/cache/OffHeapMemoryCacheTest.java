@@ -0,0 +1,154 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMemoryMappedFeaturesIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that off-heap memory caches return the minibatches of their source, including those spilled to disk, and
+ * that memory caches shuffle minibatches between epochs.
+ */
+public class OffHeapMemoryCacheTest {
+    private static final String BASENAME = "test-results/off-heap-cache/cache";
+    private static final int NUM_MINIBATCHES = 10;
+    private static final int MINIBATCH_SIZE = 4;
+    private static final int SEQUENCE_LENGTH = 5;
+
+    @Before
+    public void writeCache() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(BASENAME + ".cf"))) {
+            for (int i = 0; i < NUM_MINIBATCHES; i++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                minibatch(i).save(bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            }
+        }
+        Properties cfp = new Properties();
+        cfp.put("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        cfp.put("numRecords", Integer.toString(NUM_MINIBATCHES * MINIBATCH_SIZE));
+        try (FileWriter writer = new FileWriter(BASENAME + ".cfp")) {
+            cfp.store(writer, "test");
+        }
+    }
+
+    private MultiDataSet minibatch(int index) {
+        INDArray features = Nd4j.zeros(MINIBATCH_SIZE, 3, SEQUENCE_LENGTH).addi(index + 0.5);
+        INDArray other = Nd4j.ones(MINIBATCH_SIZE, 7).muli(-index);
+        INDArray labels = Nd4j.ones(MINIBATCH_SIZE, 2).muli(index);
+        INDArray mask = Nd4j.ones(MINIBATCH_SIZE, SEQUENCE_LENGTH);
+        mask.putScalar(0, SEQUENCE_LENGTH - 1, 0);
+        return new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features, other}, new INDArray[]{labels},
+                new INDArray[]{mask, Nd4j.ones(MINIBATCH_SIZE, 1)}, null);
+    }
+
+    private void assertSameMinibatches(OffHeapMemoryCache cache) {
+        for (int epoch = 0; epoch < 2; epoch++) {
+            int index = 0;
+            while (cache.hasNext()) {
+                MultiDataSet expected = minibatch(index++);
+                MultiDataSet observed = cache.next();
+                assertEquals(expected.getFeatures(0), observed.getFeatures(0));
+                assertEquals(expected.getFeatures(1), observed.getFeatures(1));
+                assertEquals(expected.getLabels(0), observed.getLabels(0));
+                assertEquals(expected.getFeaturesMaskArray(0), observed.getFeaturesMaskArray(0));
+                assertEquals(expected.getFeaturesMaskArray(1), observed.getFeaturesMaskArray(1));
+                assertNull(observed.getLabelsMaskArrays());
+            }
+            assertEquals(NUM_MINIBATCHES, index);
+            cache.reset();
+        }
+    }
+
+    @Test
+    public void inMemory() {
+        OffHeapMemoryCache cache = new OffHeapMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME),
+                Long.MAX_VALUE, false);
+        assertEquals(NUM_MINIBATCHES, cache.numMinibatches());
+        assertSameMinibatches(cache);
+    }
+
+    @Test
+    public void halfPrecision() {
+        OffHeapMemoryCache full = new OffHeapMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME),
+                Long.MAX_VALUE, false);
+        OffHeapMemoryCache half = new OffHeapMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME),
+                Long.MAX_VALUE, true);
+        // these values are exactly represented at half precision:
+        assertSameMinibatches(half);
+        assertEquals(full.get(3).getFeatures(0), half.get(3).getFeatures(0));
+    }
+
+    @Test
+    public void spillToFile() throws IOException {
+        // only the first minibatches fit in memory:
+        OffHeapMemoryCache cache = new OffHeapMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME),
+                1000, false);
+        assertTrue(cache.getMemoryUsed() <= 1000);
+        assertSameMinibatches(cache);
+        cache.close();
+    }
+
+    @Test
+    public void spillToMappedCache() {
+        MultiDatasetMemoryMappedFeaturesIterator source = new MultiDatasetMemoryMappedFeaturesIterator(BASENAME);
+        source.shuffleMinibatches(1);
+        OffHeapMemoryCache cache = new OffHeapMemoryCache(source, 1000, false);
+        assertSameMinibatches(cache);
+        assertTrue(cache.getMemoryUsed() <= 1000);
+    }
+
+    @Test
+    public void shuffleMinibatches() {
+        OffHeapMemoryCache offHeap = new OffHeapMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME),
+                1000, false);
+        offHeap.shuffleMinibatches(1);
+        assertShuffledEpochs(offHeap);
+        FullyInMemoryCache inMemory = new FullyInMemoryCache(new MultiDatasetMappedFeaturesIterator(BASENAME));
+        inMemory.shuffleMinibatches(1);
+        assertShuffledEpochs(inMemory);
+    }
+
+    /**
+     * Check that each epoch visits all the minibatches, in a different order.
+     */
+    private void assertShuffledEpochs(MultiDataSetIterator cache) {
+        int[] previous = null;
+        for (int epoch = 0; epoch < 3; epoch++) {
+            IntArrayList order = new IntArrayList();
+            while (cache.hasNext()) {
+                order.add(cache.next().getLabels(0).getInt(0, 0));
+            }
+            int[] visited = order.toIntArray();
+            if (previous != null) {
+                assertFalse(Arrays.equals(previous, visited));
+            }
+            previous = visited.clone();
+            IntArrays.quickSort(visited);
+            for (int i = 0; i < NUM_MINIBATCHES; i++) {
+                assertEquals(i, visited[i]);
+            }
+            assertEquals(NUM_MINIBATCHES, visited.length);
+            cache.reset();
+        }
+    }
+}
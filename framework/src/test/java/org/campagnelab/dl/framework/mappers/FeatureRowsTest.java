@@ -0,0 +1,78 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that copied rows land in the row of the record, for contiguous and strided tensors.
+ */
+public class FeatureRowsTest {
+
+    @Test
+    public void putRow() {
+        float[] row = {1, 2, 3};
+        INDArray contiguous = Nd4j.zeros(4, 3);
+        INDArray fortran = Nd4j.zeros(new int[]{4, 3}, 'f');
+        FeatureRows.putRow(row, contiguous, 2);
+        FeatureRows.putRow(row, fortran, 2);
+        for (INDArray inputs : new INDArray[]{contiguous, fortran}) {
+            assertEquals(6, inputs.sumNumber().doubleValue(), 0);
+            for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+                assertEquals(row[featureIndex], inputs.getFloat(2, featureIndex), 0);
+            }
+        }
+    }
+
+    @Test
+    public void putRowInViews() {
+        float[] row = {1, 2, 3};
+        // a C-ordered view with an offset and a row stride larger than the row, written to the data buffer:
+        INDArray parent = Nd4j.zeros(6, 5);
+        INDArray view = parent.get(NDArrayIndex.interval(1, 5), NDArrayIndex.interval(1, 4));
+        FeatureRows.putRow(row, view, 2);
+        assertRowOfParent(row, parent, 3, 1);
+
+        // a transposed view is not C-ordered, and is written with putScalar:
+        parent = Nd4j.zeros(3, 4);
+        INDArray transposed = parent.transpose();
+        assertEquals('f', transposed.ordering());
+        FeatureRows.putRow(row, transposed, 2);
+        assertEquals(6, parent.sumNumber().doubleValue(), 0);
+        for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+            assertEquals(row[featureIndex], parent.getFloat(featureIndex, 2), 0);
+            assertEquals(row[featureIndex], transposed.getFloat(2, featureIndex), 0);
+        }
+    }
+
+    private void assertRowOfParent(float[] row, INDArray parent, int parentRow, int parentColumn) {
+        assertEquals(6, parent.sumNumber().doubleValue(), 0);
+        for (int featureIndex = 0; featureIndex < row.length; featureIndex++) {
+            assertEquals(row[featureIndex], parent.getFloat(parentRow, parentColumn + featureIndex), 0);
+        }
+    }
+
+    @Test
+    public void concatMatchesProduceFeature() {
+        ConcatFeatureMapper<String> concat = new ConcatFeatureMapper<>(
+                new OneHotBaseFeatureMapper<>(0, record -> record),
+                new OneHotHashModuloMapper<>(7, record -> record),
+                new OneHotBaseFeatureMapper<>(2, record -> record));
+        String[] records = {"ACG", "TTN", "GxA"};
+        INDArray inputs = Nd4j.zeros(records.length, concat.numberOfFeatures());
+        for (int indexOfRecord = 0; indexOfRecord < records.length; indexOfRecord++) {
+            concat.prepareToNormalize(records[indexOfRecord], indexOfRecord);
+            concat.mapFeatures(records[indexOfRecord], inputs, indexOfRecord);
+        }
+        for (int indexOfRecord = 0; indexOfRecord < records.length; indexOfRecord++) {
+            concat.prepareToNormalize(records[indexOfRecord], indexOfRecord);
+            for (int featureIndex = 0; featureIndex < concat.numberOfFeatures(); featureIndex++) {
+                assertEquals(concat.produceFeature(records[indexOfRecord], featureIndex),
+                        inputs.getFloat(indexOfRecord, featureIndex), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.campagnelab.dl.framework.mappers;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that a flattened mapper produces exactly the features of the tree it was compiled from.
+ */
+public class FlattenedFeatureMapperTest {
+
+    @Test
+    public void matchesTree() {
+        String[] records = {"ACGT", "TTNA", "GxAC", "CCCG"};
+        FeatureMapper<String> tree = tree();
+        FeatureMapper<String> flattened = FlattenedFeatureMapper.compile(tree());
+        assertEquals(5, ((FlattenedFeatureMapper) flattened).numberOfLeaves());
+        assertEquals(tree.numberOfFeatures(), flattened.numberOfFeatures());
+
+        INDArray expected = Nd4j.zeros(records.length, tree.numberOfFeatures());
+        INDArray observed = Nd4j.zeros(records.length, tree.numberOfFeatures());
+        for (int indexOfRecord = 0; indexOfRecord < records.length; indexOfRecord++) {
+            tree.prepareToNormalize(records[indexOfRecord], indexOfRecord);
+            tree.mapFeatures(records[indexOfRecord], expected, indexOfRecord);
+            flattened.prepareToNormalize(records[indexOfRecord], indexOfRecord);
+            flattened.mapFeatures(records[indexOfRecord], observed, indexOfRecord);
+            for (int featureIndex = 0; featureIndex < tree.numberOfFeatures(); featureIndex++) {
+                assertEquals(tree.produceFeature(records[indexOfRecord], featureIndex),
+                        flattened.produceFeature(records[indexOfRecord], featureIndex), 0);
+            }
+        }
+        assertArrayEquals(expected.data().asFloat(), observed.data().asFloat(), 0);
+    }
+
+    private FeatureMapper<String> tree() {
+        return new ConcatFeatureMapper<>(
+                new OneHotBaseFeatureMapper<>(0, record -> record),
+                new ConcatFeatureMapper<>(
+                        new OneHotHashModuloMapper<>(3, record -> record),
+                        new ReversingMapper(new ConcatFeatureMapper<>(
+                                new OneHotBaseFeatureMapper<>(0, record -> record),
+                                new OneHotBaseFeatureMapper<>(1, record -> record)))),
+                new OneHotBaseFeatureMapper<>(3, record -> record));
+    }
+
+    /**
+     * Maps the features of the reversed record.
+     */
+    private static class ReversingMapper extends NoMaskFeatureMapper<String>
+            implements RecordTransformingFeatureMapper<String> {
+        private final FeatureMapper<String> delegate;
+        private String reversed;
+
+        ReversingMapper(FeatureMapper<String> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public FeatureMapper<String> getDelegate() {
+            return delegate;
+        }
+
+        @Override
+        public String transform(String record) {
+            return new StringBuilder(record).reverse().toString();
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return delegate.numberOfFeatures();
+        }
+
+        @Override
+        public void prepareToNormalize(String record, int indexOfRecord) {
+            reversed = transform(record);
+            delegate.prepareToNormalize(reversed, indexOfRecord);
+        }
+
+        @Override
+        public void mapFeatures(String record, INDArray inputs, int indexOfRecord) {
+            delegate.mapFeatures(reversed, inputs, indexOfRecord);
+        }
+
+        @Override
+        public float produceFeature(String record, int featureIndex) {
+            return delegate.produceFeature(reversed, featureIndex);
+        }
+    }
+}
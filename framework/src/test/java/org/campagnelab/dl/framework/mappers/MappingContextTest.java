@@ -0,0 +1,118 @@
+package org.campagnelab.dl.framework.mappers;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.domains.FloatArrayDomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that mappers share the values derived from a record, and that the context is cleared between records.
+ */
+public class MappingContextTest {
+
+    @Test
+    public void featureAndLabelMappersShareValues() throws IOException {
+        int[] numSums = new int[1];
+        List<float[]> records = new ObjectArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            records.add(new float[]{i, 1});
+        }
+        MultiDataSet minibatch = adapter(records, 5, numSums).next();
+        // one sum per record, even though the feature and the label mapper both use it:
+        assertEquals(5, numSums[0]);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 1, minibatch.getFeatures(0).getFloat(i, 0), 0);
+            assertEquals(i + 1, minibatch.getLabels(0).getFloat(i, 0), 0);
+        }
+    }
+
+    @Test
+    public void mutatedRecordIsMappedAgain() throws IOException {
+        int[] numSums = new int[1];
+        // the same record instance is modified before it is returned again, like a reused protobuf builder:
+        float[] record = new float[2];
+        Iterable<float[]> records = () -> new Iterator<float[]>() {
+            int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < 3;
+            }
+
+            @Override
+            public float[] next() {
+                record[0] = ++index;
+                return record;
+            }
+        };
+        MultiDataSetIteratorAdapter<float[]> adapter = adapter(records, 1, numSums);
+        for (int i = 1; i <= 3; i++) {
+            MultiDataSet minibatch = adapter.next();
+            assertEquals(i, minibatch.getFeatures(0).getFloat(0, 0), 0);
+            assertEquals(i, minibatch.getLabels(0).getFloat(0, 0), 0);
+        }
+        assertEquals(3, numSums[0]);
+    }
+
+    private MultiDataSetIteratorAdapter<float[]> adapter(Iterable<float[]> records, int batchSize, int[] numSums) throws IOException {
+        FloatArrayDomainDescriptor domain = new FloatArrayDomainDescriptor(new SumMapper(numSums),
+                new LabelFromFeatureMapper<>(new SumMapper(numSums)));
+        return new MultiDataSetIteratorAdapter<float[]>(records, batchSize, domain) {
+            @Override
+            public String getBasename() {
+                return "sums";
+            }
+        };
+    }
+
+    /**
+     * Maps the sum of the values of a record, and the number of values. The sum is computed once per record, through
+     * the mapping context.
+     */
+    private static class SumMapper extends NoMaskFeatureMapper<float[]> {
+        private final int[] numSums;
+
+        SumMapper(int[] numSums) {
+            this.numSums = numSums;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return 2;
+        }
+
+        @Override
+        public void prepareToNormalize(float[] record, int indexOfRecord) {
+        }
+
+        @Override
+        public void mapFeatures(float[] record, INDArray inputs, int indexOfRecord) {
+            for (int featureIndex = 0; featureIndex < 2; featureIndex++) {
+                inputs.putScalar(indexOfRecord, featureIndex, produceFeature(record, featureIndex));
+            }
+        }
+
+        @Override
+        public float produceFeature(float[] record, int featureIndex) {
+            if (featureIndex == 1) {
+                return record.length;
+            }
+            return MappingContext.of(record).get("sum", () -> {
+                numSums[0]++;
+                float sum = 0;
+                for (float value : record) {
+                    sum += value;
+                }
+                return sum;
+            });
+        }
+    }
+}
@@ -43,4 +43,18 @@ public class OneHotHashModuloMapperTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRowMatchesProduceFeature() {
+        Object o[] = {"a s", 1, "F", 'g'};
+        OneHotHashModuloMapper<Object> mapper = new OneHotHashModuloMapper<>(10, object -> object);
+        float[] row = new float[12];
+        for (Object a : o) {
+            mapper.prepareToNormalize(a, 0);
+            mapper.mapFeatures(a, row, 2);
+            for (int featureIndex = 0; featureIndex < mapper.numberOfFeatures(); featureIndex++) {
+                assertEquals(mapper.produceFeature(a, featureIndex), row[2 + featureIndex], 0);
+            }
+        }
+    }
+}
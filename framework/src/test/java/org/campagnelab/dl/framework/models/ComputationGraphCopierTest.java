@@ -0,0 +1,72 @@
+package org.campagnelab.dl.framework.models;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Check that copies of graphs with many outputs compute the same outputs as the original.
+ */
+public class ComputationGraphCopierTest {
+    private static final String[] OUTPUTS = {"A", "T", "C", "G", "N", "I1", "I2", "I3", "I4", "I5", "metaData", "isVariant"};
+
+    @Test
+    public void copyWithManyOutputs() {
+        ComputationGraphConfiguration.GraphBuilder builder = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .learningRate(0.1)
+                .updater(Updater.ADAGRAD)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("dense", new DenseLayer.Builder().nIn(5).nOut(6).activation("relu").build(), "input");
+        for (int i = 0; i < OUTPUTS.length; i++) {
+            builder.addLayer(OUTPUTS[i], new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(6).nOut(2 + i % 3)
+                    .activation("softmax").build(), "dense");
+        }
+        ComputationGraph graph = new ComputationGraph(builder.setOutputs(OUTPUTS).build());
+        graph.init();
+
+        Random random = new Random(1);
+        INDArray features = Nd4j.zeros(4, 5);
+        for (int example = 0; example < 4; example++) {
+            for (int f = 0; f < 5; f++) {
+                features.putScalar(example, f, random.nextGaussian());
+            }
+        }
+        INDArray[] labels = new INDArray[OUTPUTS.length];
+        for (int i = 0; i < OUTPUTS.length; i++) {
+            labels[i] = Nd4j.zeros(4, 2 + i % 3);
+            for (int example = 0; example < 4; example++) {
+                labels[i].putScalar(example, random.nextInt(2 + i % 3), 1);
+            }
+        }
+        MultiDataSet minibatch = new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features}, labels);
+        graph.fit(minibatch);
+
+        ComputationGraph copy = ComputationGraphCopier.copy(graph);
+        assertNotSame(graph.params(), copy.params());
+        assertEquals(graph.params(), copy.params());
+        assertEquals(graph.getUpdater().getStateViewArray(), copy.getUpdater().getStateViewArray());
+        INDArray[] expected = graph.output(features);
+        INDArray[] outputs = copy.output(features);
+        for (int i = 0; i < OUTPUTS.length; i++) {
+            assertEquals(OUTPUTS[i], expected[i], outputs[i]);
+        }
+        assertEquals(graph.score(minibatch), copy.score(minibatch), 1e-6);
+    }
+}
@@ -0,0 +1,67 @@
+package org.campagnelab.dl.framework.models;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that outputs and score obtained with a single forward pass match ComputationGraph.output() and score().
+ */
+public class OutputAndScoreHelperTest {
+
+    @Test
+    public void matchesOutputThenScore() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .learningRate(0.1)
+                .l2(0.01).regularization(true)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("dense", new DenseLayer.Builder().nIn(5).nOut(6).activation("relu").build(), "input")
+                .addLayer("first", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(6).nOut(2)
+                        .activation("softmax").build(), "dense")
+                .addLayer("second", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(6).nOut(3)
+                        .activation("softmax").build(), "dense")
+                .setOutputs("first", "second")
+                .build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+
+        Random random = new Random(1);
+        INDArray features = Nd4j.zeros(7, 5);
+        INDArray first = Nd4j.zeros(7, 2);
+        INDArray second = Nd4j.zeros(7, 3);
+        for (int example = 0; example < 7; example++) {
+            for (int f = 0; f < 5; f++) {
+                features.putScalar(example, f, random.nextGaussian());
+            }
+            first.putScalar(example, random.nextInt(2), 1);
+            second.putScalar(example, random.nextInt(3), 1);
+        }
+        MultiDataSet minibatch = new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features},
+                new INDArray[]{first, second});
+
+        OutputAndScoreHelper helper = new OutputAndScoreHelper();
+        helper.evaluate(graph, minibatch);
+        INDArray[] expectedOutputs = graph.output(features);
+        final double expectedScore = graph.score(minibatch);
+        assertEquals(expectedOutputs.length, helper.getOutputs().length);
+        for (int i = 0; i < expectedOutputs.length; i++) {
+            assertEquals(expectedOutputs[i], helper.getOutputs()[i]);
+        }
+        assertEquals(expectedScore, helper.getScore(), 1e-6);
+    }
+}
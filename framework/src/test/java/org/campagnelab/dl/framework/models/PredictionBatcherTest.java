@@ -0,0 +1,57 @@
+package org.campagnelab.dl.framework.models;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that records are predicted in minibatches and that futures complete with the prediction of their record.
+ */
+public class PredictionBatcherTest {
+
+    @Test
+    public void predictsInMinibatches() throws ExecutionException, InterruptedException {
+        IntArrayList minibatchSizes = new IntArrayList();
+        PredictionBatcher<Integer, String> batcher = new PredictionBatcher<>(records -> {
+            minibatchSizes.add(records.size());
+            List<String> predictions = new ObjectArrayList<>();
+            for (Integer record : records) {
+                predictions.add("prediction-" + record);
+            }
+            return predictions;
+        }, 3);
+        List<CompletableFuture<String>> futures = new ObjectArrayList<>();
+        for (int record = 0; record < 7; record++) {
+            futures.add(batcher.submit(record));
+        }
+        assertEquals(1, batcher.numPending());
+        assertTrue(futures.get(5).isDone());
+        assertFalse(futures.get(6).isDone());
+        batcher.flush();
+        assertEquals(0, batcher.numPending());
+        for (int record = 0; record < 7; record++) {
+            assertEquals("prediction-" + record, futures.get(record).get());
+        }
+        assertEquals(new IntArrayList(new int[]{3, 3, 1}), minibatchSizes);
+    }
+
+    @Test
+    public void failedMinibatchCompletesExceptionally() {
+        PredictionBatcher<Integer, String> batcher = new PredictionBatcher<>(records -> {
+            throw new IllegalStateException("model failed");
+        }, 2);
+        CompletableFuture<String> first = batcher.submit(1);
+        CompletableFuture<String> second = batcher.submit(2);
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, batcher.numPending());
+    }
+}
@@ -0,0 +1,87 @@
+package org.campagnelab.dl.framework.performance;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that the sorted AUC calculation agrees with the pairwise definition of the AUC.
+ */
+public class AreaUnderTheROCCurveTest {
+
+    @Test
+    public void simple() {
+        assertEquals(1.0, AreaUnderTheROCCurve.evaluateStatistic(new double[]{0.9, 0.8, 0.2, 0.1},
+                new double[]{1, 1, -1, -1}), 1E-10);
+        assertEquals(0.0, AreaUnderTheROCCurve.evaluateStatistic(new double[]{0.1, 0.2, 0.8, 0.9},
+                new double[]{1, 1, -1, -1}), 1E-10);
+        assertEquals(0.5, AreaUnderTheROCCurve.evaluateStatistic(new double[]{0.5, 0.5, 0.5, 0.5},
+                new double[]{1, 1, -1, -1}), 1E-10);
+    }
+
+    @Test
+    public void sameAsPairwise() {
+        Random random = new Random(32);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 1 + random.nextInt(500);
+            double[] decisions = new double[n];
+            double[] labels = new double[n];
+            for (int i = 0; i < n; i++) {
+                labels[i] = random.nextBoolean() ? 1 : -1;
+                // few distinct values, to create ties:
+                decisions[i] = random.nextInt(20) / 20.0 + (labels[i] > 0 ? 0.1 : 0);
+                if (random.nextInt(50) == 0) {
+                    decisions[i] = Double.NaN;
+                }
+            }
+            assertEquals(pairwise(decisions, labels), AreaUnderTheROCCurve.evaluateStatistic(decisions, labels), 1E-10);
+        }
+    }
+
+    @Test
+    public void merge() {
+        Random random = new Random(12);
+        AreaUnderTheROCCurve all = new AreaUnderTheROCCurve();
+        AreaUnderTheROCCurve[] parts = new AreaUnderTheROCCurve[3];
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = new AreaUnderTheROCCurve();
+        }
+        for (int i = 0; i < 1000; i++) {
+            double label = random.nextBoolean() ? 1 : -1;
+            double decision = random.nextDouble() + (label > 0 ? 0.2 : 0);
+            all.observe(decision, label);
+            parts[i % parts.length].observe(decision, label);
+        }
+        for (int p = 1; p < parts.length; p++) {
+            parts[0].merge(parts[p]);
+        }
+        assertEquals(all.evaluateStatistic(), parts[0].evaluateStatistic(), 1E-10);
+    }
+
+    private double pairwise(double[] decisions, double[] labels) {
+        double sum = 0;
+        int numPositive = 0;
+        int numNegative = 0;
+        for (int i = 0; i < decisions.length; i++) {
+            if (labels[i] >= 0) {
+                numPositive++;
+            } else {
+                numNegative++;
+            }
+        }
+        for (int i = 0; i < decisions.length; i++) {
+            for (int j = 0; j < decisions.length; j++) {
+                if (labels[i] >= 0 && labels[j] < 0) {
+                    if (decisions[i] > decisions[j]) {
+                        sum += 1;
+                    } else if (decisions[i] == decisions[j]) {
+                        sum += 0.5;
+                    }
+                }
+            }
+        }
+        return sum / numPositive / numNegative;
+    }
+}
@@ -0,0 +1,118 @@
+package org.campagnelab.dl.framework.tools;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.domains.FloatArrayDomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.BinaryClassPrediction;
+import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
+import org.campagnelab.dl.framework.mappers.LabelFromFeatureMapper;
+import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Check that predicting minibatches of records with one forward pass gives the predictions obtained one record at
+ * a time, in the same order.
+ */
+public class PredictWithModelTest {
+    private static final int NUM_RECORDS = 10;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void minibatchesMatchOneRecordAtATime() {
+        List<float[]> records = new ObjectArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            float[] record = new float[4];
+            for (int j = 0; j < record.length; j++) {
+                record[j] = (float) random.nextGaussian();
+            }
+            records.add(record);
+        }
+        FloatArrayDomainDescriptor domain = new FloatArrayDomainDescriptor(new ValuesMapper(4),
+                new LabelFromFeatureMapper<>(new ValuesMapper(2)));
+        ComputationGraph graph = domain.createGraph();
+
+        List<Object> oneAtATime = predict(domain, graph, records, 1);
+        // the last minibatch is partial:
+        List<Object> minibatches = predict(domain, graph, records, 4);
+        assertEquals(2 * NUM_RECORDS, oneAtATime.size());
+        assertEquals(2 * NUM_RECORDS, minibatches.size());
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            // records are observed before they are predicted:
+            assertSame(records.get(i), oneAtATime.get(2 * i));
+            RecordPredictions<float[]> expected = (RecordPredictions<float[]>) oneAtATime.get(2 * i + 1);
+            RecordPredictions<float[]> predictions = predictions(minibatches, i);
+            assertSame(records.get(i), expected.record);
+            assertSame(records.get(i), predictions.record);
+            BinaryClassPrediction expectedPrediction = (BinaryClassPrediction) expected.predictions.get(0);
+            BinaryClassPrediction prediction = (BinaryClassPrediction) predictions.predictions.get(0);
+            assertEquals(i, prediction.index);
+            assertEquals(expectedPrediction.predictedLabelYes, prediction.predictedLabelYes, 1E-6);
+            assertEquals(expectedPrediction.predictedLabelNo, prediction.predictedLabelNo, 1E-6);
+        }
+        // with minibatches, the records of a minibatch are observed before the predictions of its first record:
+        assertSame(records.get(3), minibatches.get(3));
+        assertEquals(RecordPredictions.class, minibatches.get(4).getClass());
+    }
+
+    /**
+     * Return the observed records and the record predictions, in the order the consumers were called.
+     */
+    private List<Object> predict(FloatArrayDomainDescriptor domain, ComputationGraph graph, List<float[]> records,
+                                 int miniBatchSize) {
+        List<Object> events = new ObjectArrayList<>();
+        new PredictWithModel<>(domain).makePredictions(records.iterator(), graph, events::add, events::add,
+                index -> false, miniBatchSize);
+        return events;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RecordPredictions<float[]> predictions(List<Object> events, int recordIndex) {
+        int index = 0;
+        for (Object event : events) {
+            if (event instanceof RecordPredictions && index++ == recordIndex) {
+                return (RecordPredictions<float[]>) event;
+            }
+        }
+        throw new AssertionError("no predictions for record " + recordIndex);
+    }
+
+    /**
+     * Maps the first values of a record.
+     */
+    private static class ValuesMapper extends NoMaskFeatureMapper<float[]> {
+        private final int numValues;
+
+        ValuesMapper(int numValues) {
+            this.numValues = numValues;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return numValues;
+        }
+
+        @Override
+        public void prepareToNormalize(float[] record, int indexOfRecord) {
+        }
+
+        @Override
+        public void mapFeatures(float[] record, INDArray inputs, int indexOfRecord) {
+            for (int featureIndex = 0; featureIndex < numValues; featureIndex++) {
+                inputs.putScalar(indexOfRecord, featureIndex, produceFeature(record, featureIndex));
+            }
+        }
+
+        @Override
+        public float produceFeature(float[] record, int featureIndex) {
+            return record[featureIndex];
+        }
+    }
+}
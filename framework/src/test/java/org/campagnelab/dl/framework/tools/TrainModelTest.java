@@ -0,0 +1,188 @@
+package org.campagnelab.dl.framework.tools;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.FloatArrayDomainDescriptor;
+import org.campagnelab.dl.framework.mappers.LabelFromFeatureMapper;
+import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that validating on a background thread (--async-validation) logs the same validation scores, and takes the
+ * same best model and early stopping decisions, as validating at the end of each epoch.
+ */
+public class TrainModelTest {
+    private static final String DIRECTORY = "test-results/train-model/";
+    private static final int NUM_RECORDS = 200;
+    private static final int MAX_EPOCHS = 20;
+    private static final String[] PERFORMANCE_LOGS = {"epochs-perf-log.tsv", "bestscore-perf-log.tsv"};
+
+    @Before
+    public void writeDatasets() throws IOException {
+        FileUtils.deleteQuietly(new File(DIRECTORY));
+        FileUtils.forceMkdir(new File(DIRECTORY));
+        // records are generated from the name of the dataset, the files only need to exist:
+        FileUtils.write(new File(DIRECTORY + "training"), "training");
+        FileUtils.write(new File(DIRECTORY + "validation"), "validation");
+    }
+
+    @Test
+    public void asyncValidationTakesSameDecisions() throws IOException {
+        FloatArrayTrainModel sync = train(false);
+        FloatArrayTrainModel async = train(true);
+        List<List<String>> syncLogs = performanceLogs(sync);
+        List<List<String>> asyncLogs = performanceLogs(async);
+        // validation labels disagree with training labels, so validation stops improving and training stops early:
+        assertTrue("training must stop early", syncLogs.get(0).size() < MAX_EPOCHS + 1);
+        for (int i = 0; i < PERFORMANCE_LOGS.length; i++) {
+            assertEquals(PERFORMANCE_LOGS[i], syncLogs.get(i), asyncLogs.get(i));
+        }
+        assertEquals(sync.resultValues().get("bestModelEpoch"), async.resultValues().get("bestModelEpoch"));
+        assertEquals(sync.resultValues().get("score"), async.resultValues().get("score"));
+    }
+
+    private FloatArrayTrainModel train(boolean asyncValidation) throws IOException {
+        FloatArrayTrainModel tool = new FloatArrayTrainModel();
+        String commandLine = "-t " + DIRECTORY + "training -v " + DIRECTORY + "validation --ignore-cache " +
+                "--mini-batch-size 10 --max-epochs " + MAX_EPOCHS + " --early-stopping-num-epochs 1 " +
+                "--experimental-condition async-validation";
+        if (asyncValidation) {
+            commandLine += " --async-validation";
+        }
+        tool.parseArguments(commandLine.split(" "), "TrainModelTest", tool.createArguments());
+        tool.execute();
+        return tool;
+    }
+
+    /**
+     * Read the performance logs of a trained model, and delete the model.
+     */
+    private List<List<String>> performanceLogs(FloatArrayTrainModel tool) throws IOException {
+        File modelDirectory = new File("models/" + tool.resultValues().get("model-time"));
+        try {
+            List<List<String>> logs = new ObjectArrayList<>();
+            for (String log : PERFORMANCE_LOGS) {
+                logs.add(FileUtils.readLines(new File(modelDirectory, log)));
+            }
+            return logs;
+        } finally {
+            FileUtils.deleteQuietly(modelDirectory);
+        }
+    }
+
+    /**
+     * Records have two features followed by a one-hot label. The label of training records is the sign of the
+     * first feature. The label of validation records is the opposite.
+     */
+    private static List<float[]> records(String dataset) {
+        final boolean flipLabels = dataset.endsWith("validation");
+        Random random = new Random(dataset.hashCode());
+        List<float[]> records = new ObjectArrayList<>();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            float[] record = new float[4];
+            record[0] = (float) random.nextGaussian();
+            record[1] = (float) random.nextGaussian();
+            final boolean positive = record[0] > 0 ^ flipLabels;
+            record[positive ? 3 : 2] = 1;
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static class FloatArrayTrainModel extends TrainModel<float[]> {
+        private final DomainDescriptor<float[]> domain = new RecordsDomainDescriptor();
+
+        @Override
+        protected DomainDescriptor<float[]> domainDescriptor() {
+            return domain;
+        }
+
+        @Override
+        public Properties getReaderProperties(String trainingSet) throws IOException {
+            return new Properties();
+        }
+
+        @Override
+        public TrainingArguments createArguments() {
+            return new Arguments();
+        }
+    }
+
+    private static class Arguments extends TrainingArguments {
+        @Override
+        protected String defaultArchitectureClassname() {
+            return FloatArrayDomainDescriptor.class.getCanonicalName();
+        }
+
+        @Override
+        protected String defaultFeatureMapperClassname() {
+            return ValuesMapper.class.getCanonicalName();
+        }
+    }
+
+    /**
+     * A domain that reads the generated records of each dataset.
+     */
+    private static class RecordsDomainDescriptor extends FloatArrayDomainDescriptor {
+        RecordsDomainDescriptor() {
+            super(new ValuesMapper(0, 2), new LabelFromFeatureMapper<>(new ValuesMapper(2, 2)));
+        }
+
+        @Override
+        public Function<String, ? extends Iterable<float[]>> getRecordIterable() {
+            return TrainModelTest::records;
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return NUM_RECORDS * recordFiles.length;
+        }
+    }
+
+    /**
+     * Maps consecutive values of a record.
+     */
+    private static class ValuesMapper extends NoMaskFeatureMapper<float[]> {
+        private final int firstValue;
+        private final int numValues;
+
+        ValuesMapper(int firstValue, int numValues) {
+            this.firstValue = firstValue;
+            this.numValues = numValues;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return numValues;
+        }
+
+        @Override
+        public void prepareToNormalize(float[] record, int indexOfRecord) {
+        }
+
+        @Override
+        public void mapFeatures(float[] record, INDArray inputs, int indexOfRecord) {
+            for (int featureIndex = 0; featureIndex < numValues; featureIndex++) {
+                inputs.putScalar(indexOfRecord, featureIndex, produceFeature(record, featureIndex));
+            }
+        }
+
+        @Override
+        public float produceFeature(float[] record, int featureIndex) {
+            return record[firstValue + featureIndex];
+        }
+    }
+}
@@ -51,7 +51,7 @@ public class ConditionRecordingToolTest {
         tool.writeModelingConditions(args);
         assertEquals("Model condition file does not match expected.",
                 "Tag|Results|Specified_Arguments|Default_Arguments|Classname\n" +
-                        "YT5R9S||--learning-rate 1.0 --model-conditions test-results/model-conditions/1.txt --random-seed 1478359791323 --training-sets [T] --validation-set V|--build-cache-then-stop false --dropout-rate null --early-stopping-num-epochs 10 --eos-character null --error-enrichment false --experimental-condition not_specified --feature-mapper defaultFeatureMapperClassname --gpu-device null --ignore-cache false --learning-rate 1.0 --max-epochs 2147483647 --memory-cache validation --mini-batch-size 32 --model-conditions test-results/model-conditions/1.txt --net-architecture ABC --num-errors-added 16 --num-training 2147483647 --num-validation 2147483647 --parallel false --parameter-precision FP32 --previous-model-name bestAUC --previous-model-path null --previous-model-pretraining false --random-seed 1478359791323 --regularization-rate null --track PERFS --training-sets [T] --validate-every 1 --validation-set V|\n",
+                        "PABLTN||--learning-rate 1.0 --model-conditions test-results/model-conditions/1.txt --random-seed 1478359791323 --training-sets [T] --validation-set V|--async-validation false --averaging-frequency 1 --build-cache-then-stop false --cache-codec none --cpu-workers 1 --deterministic-workers false --dropout-rate null --early-stopping-num-epochs 10 --eos-character null --error-enrichment false --experimental-condition not_specified --feature-mapper defaultFeatureMapperClassname --gpu-device null --ignore-cache false --incremental-cache null --learning-rate 1.0 --mapping-threads 1 --max-epochs 2147483647 --memory-cache validation --memory-cache-budget 0 --memory-cache-half-precision false --memory-cache-off-heap false --memory-map-cache false --mini-batch-size 32 --model-conditions test-results/model-conditions/1.txt --net-architecture ABC --num-errors-added 16 --num-training 2147483647 --num-validation 2147483647 --parallel false --parameter-precision FP32 --previous-model-name bestAUC --previous-model-path null --previous-model-pretraining false --random-seed 1478359791323 --record-cache false --regularization-rate null --shuffle-cached-minibatches false --shuffle-cached-records false --track PERFS --training-sets [T] --validate-every 1 --validation-set V|\n",
                 FileUtils.readFileToString(new File(args.modelConditionFilename), "utf-8")
                 );
     }
@@ -0,0 +1,110 @@
+package org.campagnelab.dl.framework.training;
+
+import it.unimi.dsi.logging.ProgressLogger;
+import org.deeplearning4j.datasets.iterator.IteratorMultiDataSetIterator;
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Check that CPU data-parallel training is reproducible and matches sequential training with a single worker.
+ */
+public class ParallelTrainerOnCPUTest {
+    private static final int MINIBATCH_SIZE = 8;
+    private static final int NUM_MINIBATCHES = 11;
+
+    private static ComputationGraph graph() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+                .iterations(1)
+                .learningRate(0.05)
+                .updater(Updater.ADAGRAD)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("dense", new DenseLayer.Builder().nIn(4).nOut(8).activation("relu").build(), "input")
+                .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(8).nOut(2)
+                        .activation("softmax").build(), "dense")
+                .setOutputs("output")
+                .build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+        return graph;
+    }
+
+    private static List<MultiDataSet> minibatches() {
+        Random random = new Random(1);
+        List<MultiDataSet> minibatches = new ArrayList<>();
+        for (int i = 0; i < NUM_MINIBATCHES; i++) {
+            // the last minibatch is partial:
+            final int size = i == NUM_MINIBATCHES - 1 ? MINIBATCH_SIZE / 2 : MINIBATCH_SIZE;
+            INDArray features = Nd4j.zeros(size, 4);
+            INDArray labels = Nd4j.zeros(size, 2);
+            for (int example = 0; example < size; example++) {
+                for (int f = 0; f < 4; f++) {
+                    features.putScalar(example, f, random.nextGaussian());
+                }
+                labels.putScalar(example, features.getDouble(example, 0) > 0 ? 1 : 0, 1);
+            }
+            minibatches.add(new org.nd4j.linalg.dataset.MultiDataSet(features, labels));
+        }
+        return minibatches;
+    }
+
+    private static INDArray train(Trainer trainer, ComputationGraph graph, List<MultiDataSet> minibatches, int epochs) {
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            MultiDataSetIterator iterator = new IteratorMultiDataSetIterator(minibatches.iterator(), MINIBATCH_SIZE);
+            assertEquals(NUM_MINIBATCHES * MINIBATCH_SIZE - MINIBATCH_SIZE / 2,
+                    trainer.train(graph, iterator, new ProgressLogger()));
+        }
+        return graph.params().dup();
+    }
+
+    @Test
+    public void oneWorkerMatchesSequential() {
+        List<MultiDataSet> minibatches = minibatches();
+        INDArray sequential = train(new SequentialTrainer(), graph(), minibatches, 2);
+        ComputationGraph graph = graph();
+        INDArray parallel = train(new ParallelTrainerOnCPU(graph, 1, 1, true), graph, minibatches, 2);
+        assertEquals(sequential, parallel);
+        assertNotEquals(graph().params(), parallel);
+    }
+
+    @Test
+    public void deterministic() {
+        List<MultiDataSet> minibatches = minibatches();
+        ComputationGraph first = graph();
+        ComputationGraph second = graph();
+        INDArray firstParams = train(new ParallelTrainerOnCPU(first, 3, 2, true), first, minibatches, 2);
+        INDArray secondParams = train(new ParallelTrainerOnCPU(second, 3, 2, true), second, minibatches, 2);
+        assertEquals(firstParams, secondParams);
+        assertNotEquals(graph().params(), firstParams);
+        assertEquals(first.score(), second.score(), 0);
+    }
+
+    @Test
+    public void sharedIterator() {
+        ComputationGraph graph = graph();
+        INDArray params = train(new ParallelTrainerOnCPU(graph, 3, 2, false), graph, minibatches(), 1);
+        assertNotEquals(graph().params(), params);
+    }
+}
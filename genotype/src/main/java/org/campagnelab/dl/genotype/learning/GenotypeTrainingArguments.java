@@ -48,4 +48,8 @@ public class GenotypeTrainingArguments extends TrainingArguments {
 
     @Parameter(names = "--ploidy", description = "The organism ploidy (2 for humans, more for some plants). ")
     public int ploidy = 2;
+
+    @Parameter(names = "--prefetch-chunks", description = "Number of chunks of each .sbi file decoded ahead of training, in background " +
+            "threads. Use 0 to decode chunks on the thread that reads the records.")
+    public int prefetchChunks = 0;
 }
@@ -25,8 +25,8 @@ import org.campagnelab.dl.genotype.predictions.*;
 import org.campagnelab.dl.somatic.learning.TrainSomaticModel;
 import org.campagnelab.dl.somatic.learning.iterators.BaseInformationConcatIterator;
 import org.campagnelab.dl.somatic.learning.iterators.BaseInformationIterator;
+import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
-import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
@@ -115,6 +115,13 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
         if (featureMappers.containsKey(inputName)) {
             return featureMappers.get(inputName);
         }
+        FeatureMapper result = newFeatureMapper(inputName);
+        featureMappers.put(inputName, result);
+        return result;
+    }
+
+    @Override
+    public FeatureMapper newFeatureMapper(String inputName) {
         FeatureMapper result = null;
 
         if (args().featureMapperClassname != null) {
@@ -150,7 +157,6 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
                 throw new RuntimeException(e);
             }
         }
-        featureMappers.put(inputName, result);
         return result;
     }
 
@@ -205,6 +211,12 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
 
     }
 
+    @Override
+    public LabelMapper newLabelMapper(String outputName) {
+        // getLabelMapper never shares label mapper instances:
+        return getLabelMapper(outputName);
+    }
+
     private boolean needSortCounts() {
         return ((GenotypeFeatureMapper) getFeatureMapper("input")).sortCounts;
     }
@@ -310,7 +322,7 @@ public class GenotypeDomainDescriptor extends DomainDescriptor<BaseInformationRe
     public Function<String, ? extends Iterable<BaseInformationRecords.BaseInformation>> getRecordIterable() {
         return inputFilename -> {
             try {
-                return new SequenceBaseInformationReader(inputFilename);
+                return new RecordReader(inputFilename, args().prefetchChunks);
             } catch (IOException e) {
                 throw new RuntimeException("Unable to read records from " + inputFilename, e);
             }
@@ -2,6 +2,7 @@ package org.campagnelab.dl.genotype.learning.domains.predictions;
 
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.CombinedLabelsMapper;
+import org.campagnelab.dl.genotype.mappers.SortedCountsView;
 import org.campagnelab.dl.genotype.predictions.CombinedOutputLayerPrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.jetbrains.annotations.NotNull;
@@ -42,18 +43,17 @@ public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<Comb
 
     @Override
     public CombinedOutputLayerPrediction interpret(BaseInformationRecords.BaseInformation record, INDArray output) {
-        sortedCountRecord = sort(record);
         CombinedOutputLayerPrediction pred = new CombinedOutputLayerPrediction();
-        pred.inspectRecord(sortedCountRecord);
-        pred.predictedGenotype = getPrediction(sortedCountRecord, output);
+        pred.inspectRecord(record);
+        pred.predictedGenotype = getPrediction(sort(record), output);
         pred.overallProbability = probability;
         return pred;
     }
 
-    public String getPrediction(BaseInformationRecords.BaseInformation record, INDArray output) {
+    public String getPrediction(SortedCountsView sortedCounts, INDArray output) {
 
         for (int genotypeIndex = 0; genotypeIndex < MAX_GENOTYPES; genotypeIndex++) {
-            toSequences[genotypeIndex] = record.getSamples(0).getCounts(genotypeIndex).getToSequence();
+            toSequences[genotypeIndex] = sortedCounts.getCounts(genotypeIndex).getToSequence();
         }
         return reconstructGenotype(output, 0);
     }
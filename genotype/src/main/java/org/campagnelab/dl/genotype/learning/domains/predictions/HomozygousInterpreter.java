@@ -2,7 +2,6 @@ package org.campagnelab.dl.genotype.learning.domains.predictions;
 
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.HomozygousLabelsMapper;
-import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -57,7 +56,7 @@ public class HomozygousInterpreter extends  SortingCountInterpreter<HomozygousPr
             return "";
         }
         try {
-            return sort(currentRecord).getSamples(0).getCounts(maxIndex).getToSequence();
+            return sort(currentRecord).getCounts(maxIndex).getToSequence();
         } catch (IndexOutOfBoundsException e) {
             // predicted, but not present in the input features?
             return ".";
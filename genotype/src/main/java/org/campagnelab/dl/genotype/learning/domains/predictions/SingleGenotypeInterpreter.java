@@ -36,7 +36,7 @@ public class SingleGenotypeInterpreter extends  SortingCountInterpreter<SingleGe
     public SingleGenotypePrediction interpret(BaseInformationRecords.BaseInformation record, INDArray output) {
         SingleGenotypePrediction pred = new SingleGenotypePrediction();
         try {
-            pred.predictedSingleGenotype = sort(record).getSamples(0).getCounts(genotypeIndex).getToSequence();
+            pred.predictedSingleGenotype = sort(record).getCounts(genotypeIndex).getToSequence();
         } catch (IndexOutOfBoundsException e) {
             pred.predictedSingleGenotype = ".";
         }
@@ -3,8 +3,8 @@ package org.campagnelab.dl.genotype.learning.domains.predictions;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
+import org.campagnelab.dl.genotype.mappers.SortedCountsView;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
-import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * An interprepter that optionally sorts counts.
@@ -17,16 +17,12 @@ public abstract class SortingCountInterpreter<P extends Prediction> implements P
         this.sortCounts = sortCounts;
     }
 
-    public BaseInformationRecords.BaseInformation sort(BaseInformationRecords.BaseInformation record) {
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(record);
-        } else {
-            sortedCountRecord = record;
-        }
-        return sortedCountRecord;
+    public SortedCountsView sort(BaseInformationRecords.BaseInformation record) {
+        sortedCounts = sortHelper.view(record, sortCounts);
+        return sortedCounts;
     }
 
-    protected BaseInformationRecords.BaseInformation sortedCountRecord;
+    protected SortedCountsView sortedCounts;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
 }
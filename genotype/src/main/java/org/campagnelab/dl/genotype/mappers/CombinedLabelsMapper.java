@@ -33,27 +33,27 @@ public class CombinedLabelsMapper extends NoMasksLabelMapper<BaseInformationReco
 
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(record, labelIndex));
         }
     }
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        sortedCountRecord = sortHelper.sort(record);
+        sortedCounts = sortHelper.view(record);
     }
 
-    private BaseInformationRecords.BaseInformation sortedCountRecord;
+    private SortedCountsView sortedCounts;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
 
     @Override
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
         int correctLabelIndex;
-        boolean firstCalled = sortedCountRecord.getSamples(0).getCounts(0).getIsCalled();
-        boolean secondCalled = sortedCountRecord.getSamples(0).getCounts(1).getIsCalled();
+        boolean firstCalled = sortedCounts.getCounts(0).getIsCalled();
+        boolean secondCalled = sortedCounts.getCounts(1).getIsCalled();
         boolean otherCalled = false;
-        for (int i = 2; i < sortedCountRecord.getSamples(0).getCountsCount(); i++){
-            otherCalled |= sortedCountRecord.getSamples(0).getCounts(i).getIsCalled();
+        for (int i = 2; i < sortedCounts.getCountsCount(); i++){
+            otherCalled |= sortedCounts.getCounts(i).getIsCalled();
         }
         if (otherCalled){
             //other call case
@@ -1,14 +1,17 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
+import org.campagnelab.dl.framework.mappers.RecordTransformingFeatureMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * Created by fac2003 on 12/15/16.
  */
-public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder> {
+public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>
+        implements RecordTransformingFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
     FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate;
 
     public CountReorderingMapper(FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate) {
@@ -31,10 +34,25 @@ public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformati
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
 
-        sortedCountRecord = sortHelper.sort(record);
+        sortedCountRecord = transform(record);
         delegate.prepareToNormalize(sortedCountRecord, indexOfRecord);
     }
 
+    @Override
+    public FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public BaseInformationRecords.BaseInformationOrBuilder transform(BaseInformationRecords.BaseInformationOrBuilder record) {
+        return sortHelper.sort(record);
+    }
+
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] row, int offset) {
+        delegate.mapFeatures(sortedCountRecord, row, offset);
+    }
+
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
         return delegate.produceFeature(sortedCountRecord, featureIndex);
@@ -25,20 +25,16 @@ public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInf
 
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(record, labelIndex));
         }
     }
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(record);
-        } else {
-            sortedCountRecord = record;
-        }
+        sortedCounts = sortHelper.view(record, sortCounts);
     }
 
-    protected BaseInformationRecords.BaseInformation sortedCountRecord;
+    protected SortedCountsView sortedCounts;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
 }
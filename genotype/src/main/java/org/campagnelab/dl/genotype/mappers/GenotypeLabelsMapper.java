@@ -31,22 +31,21 @@ public class GenotypeLabelsMapper extends NoMasksLabelMapper<BaseInformationReco
         indices[0] = indexOfRecord;
         for (int labelIndex = 0; labelIndex < 2; labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(record, labelIndex));
         }
     }
 
-    private BaseInformationRecords.BaseInformation sortedCountRecord;
+    private SortedCountsView sortedCounts;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
     @Override
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
         assert labelIndex == 0 || labelIndex == 1 : "only one label.";
         boolean isCalled;
-        record = sortedCountRecord;
-        if (genotypeIndex >= record.getSamples(0).getCountsCount()) {
+        if (genotypeIndex >= sortedCounts.getCountsCount()) {
             isCalled = false;
         } else {
-            isCalled = record.getSamples(0).getCounts(genotypeIndex).getIsCalled();
+            isCalled = sortedCounts.getCounts(genotypeIndex).getIsCalled();
         }
         if (labelIndex == 0) {
             // first index is 1 when site is  called.
@@ -59,11 +58,7 @@ public class GenotypeLabelsMapper extends NoMasksLabelMapper<BaseInformationReco
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(record);
-        } else {
-            sortedCountRecord = record;
-        }
+        sortedCounts = sortHelper.view(record, sortCounts);
     }
 
 
@@ -31,48 +31,42 @@ public class HomozygousLabelsMapper extends NoMasksLabelMapper<BaseInformationRe
 
         for (int labelIndex = 0; labelIndex < numberOfLabels(); labelIndex++) {
             indices[1] = labelIndex;
-            labels.putScalar(indices, produceLabel(sortedCountRecord, labelIndex));
+            labels.putScalar(indices, produceLabel(record, labelIndex));
         }
     }
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
-        if (sortCounts) {
-            sortedCountRecord = sortHelper.sort(record);
-        } else {
-            sortedCountRecord = record;
-        }
+        sortedCounts = sortHelper.view(record, sortCounts);
     }
 
-    private BaseInformationRecords.BaseInformation sortedCountRecord;
+    private SortedCountsView sortedCounts;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
 
     @Override
     public float produceLabel(BaseInformationRecords.BaseInformation record, int labelIndex) {
 
-        record = sortedCountRecord;
-        if (!getHomozygous(record)) {
+        if (!getHomozygous()) {
             // this site is heterozygous. The Allele will only be encoded in the other outputs.
             return (labelIndex == IS_HETEROZYGOUS_INDEX/**last index */) ? 1 : 0;
         } else {
             // the site is homozygous.
-            if (labelIndex >= record.getSamples(0).getCountsCount()) {
+            if (labelIndex >= sortedCounts.getCountsCount()) {
                 // the labelIndex is outside the range of counts in the protobuff.
                 return 0;
             } else {
                 // The allele is encoded here:
-                return record.getSamples(0).getCounts(labelIndex).getIsCalled() ? 1 : 0;
+                return sortedCounts.getCounts(labelIndex).getIsCalled() ? 1 : 0;
             }
         }
     }
 
 
-    private boolean getHomozygous(BaseInformationRecords.BaseInformation record) {
-        record = sortedCountRecord;
+    private boolean getHomozygous() {
         //count number of called alleles
         int numAlleles = 0;
-        for (int i = 0; i < record.getSamples(0).getCountsCount(); i++) {
-            if (record.getSamples(0).getCounts(i).getIsCalled()) {
+        for (int i = 0; i < sortedCounts.getCountsCount(); i++) {
+            if (sortedCounts.getCounts(i).getIsCalled()) {
                 numAlleles++;
             }
         }
@@ -1,27 +1,66 @@
 package org.campagnelab.dl.genotype.mappers;
 
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
- * Sort genotypes of a record by decreasing count.
+ * Sort genotypes of a record by decreasing count. The order of the counts is kept in the {@link MappingContext} of
+ * the record as a {@link SortedCountsView}, so that a record is sorted only once, however many mappers need its
+ * sorted counts. Mappers that can read counts from the view should call {@link #view}; the sort methods build
+ * records with sorted counts for mappers that need a protobuf message (e.g., the delegates of
+ * {@link CountReorderingMapper}).
  * Created by fac2003 on 12/15/16.
  */
 public class RecordCountSortHelper {
+    private static final String SORTED_VIEW = "RecordCountSortHelper.sortedView";
+    private static final String UNSORTED_VIEW = "RecordCountSortHelper.unsortedView";
+    private static final String SORTED_COUNTS = "RecordCountSortHelper.sortedCounts";
+    private static final String SORTED_RECORD = "RecordCountSortHelper.sortedRecord";
+
+    /**
+     * Return a view of the counts of the record, sorted by decreasing count.
+     */
+    public SortedCountsView view(BaseInformationRecords.BaseInformationOrBuilder record) {
+        return MappingContext.of(record).get(SORTED_VIEW, () -> SortedCountsView.sorted(record));
+    }
 
+    /**
+     * Return a view of the counts of the record, sorted by decreasing count when sortCounts is true, or in the
+     * order of the record otherwise.
+     */
+    public SortedCountsView view(BaseInformationRecords.BaseInformationOrBuilder record, boolean sortCounts) {
+        if (sortCounts) {
+            return view(record);
+        }
+        return MappingContext.of(record).get(UNSORTED_VIEW, () -> SortedCountsView.unsorted(record));
+    }
 
+    /**
+     * Return a copy of the record with the counts of the first sample sorted by decreasing count. The copy is
+     * registered as derived from the record in its mapping context, so that mappers of the copy do not reset the
+     * context of the record, and the sort is shared with the label mappers of the record.
+     */
     public BaseInformationRecords.BaseInformationOrBuilder sort(BaseInformationRecords.BaseInformationOrBuilder record) {
-        final List<BaseInformationRecords.CountInfo> countsList = record.getSamples(0).getCountsList();
-        List<BaseInformationRecords.CountInfo> counts = new ArrayList<>();
-        counts.addAll(countsList);
+        final MappingContext context = MappingContext.of(record);
+        return context.get(SORTED_COUNTS, () -> derived(context, sortCounts(view(record))));
+    }
+
+    /**
+     * Return a copy of the record with the counts of the first sample sorted by decreasing count. See
+     * sort(BaseInformationOrBuilder).
+     */
+    public BaseInformationRecords.BaseInformation sort(BaseInformationRecords.BaseInformation record) {
+        final MappingContext context = MappingContext.of(record);
+        return context.get(SORTED_RECORD, () -> derived(context, sortRecord(record, view(record))));
+    }
 
-        Collections.sort(counts, (a, b) ->
-                (b.getGenotypeCountForwardStrand() + b.getGenotypeCountReverseStrand()) -
-                        (a.getGenotypeCountForwardStrand() + a.getGenotypeCountReverseStrand()));
+    private static <T> T derived(MappingContext context, T derivedRecord) {
+        context.addDerivedRecord(derivedRecord);
+        return derivedRecord;
+    }
 
+    private BaseInformationRecords.BaseInformationOrBuilder sortCounts(SortedCountsView view) {
+        final BaseInformationRecords.BaseInformationOrBuilder record = view.getRecord();
         BaseInformationRecords.BaseInformation.Builder copyOfRecord = BaseInformationRecords.BaseInformation.newBuilder();
         copyOfRecord.setGenomicSequenceContext(record.getGenomicSequenceContext());
         copyOfRecord.setPosition(record.getPosition());
@@ -29,27 +68,14 @@ public class RecordCountSortHelper {
         copyOfRecord.setReferenceBase(record.getReferenceBase());
         copyOfRecord.setTrueGenotype(record.getTrueGenotype());
         copyOfRecord.setReferenceIndex(record.getReferenceIndex());
-        final BaseInformationRecords.SampleInfo.Builder builder = record.getSamples(0).toBuilder();
-        builder.clearCounts();
-        builder.addAllCounts(counts);
-        copyOfRecord.addSamples(builder);
+        copyOfRecord.addSamples(view.sortedSample());
         return copyOfRecord.build();
     }
-    public BaseInformationRecords.BaseInformation sort(BaseInformationRecords.BaseInformation record) {
-        final List<BaseInformationRecords.CountInfo> countsList = record.getSamples(0).getCountsList();
-        List<BaseInformationRecords.CountInfo> counts = new ArrayList<>();
-        counts.addAll(countsList);
-
-        Collections.sort(counts, (a, b) ->
-                (b.getGenotypeCountForwardStrand() + b.getGenotypeCountReverseStrand()) -
-                        (a.getGenotypeCountForwardStrand() + a.getGenotypeCountReverseStrand()));
-
 
-        final BaseInformationRecords.SampleInfo.Builder builder = record.getSamples(0).toBuilder();
-        builder.clearCounts();
-        builder.addAllCounts(counts);
+    private BaseInformationRecords.BaseInformation sortRecord(BaseInformationRecords.BaseInformation record,
+                                                              SortedCountsView view) {
         BaseInformationRecords.BaseInformation.Builder copyOfRecord = record.toBuilder();
-        copyOfRecord.setSamples(0,builder);
+        copyOfRecord.setSamples(0, view.sortedSample());
         return copyOfRecord.build();
     }
 }
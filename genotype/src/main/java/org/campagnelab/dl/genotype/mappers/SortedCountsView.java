@@ -0,0 +1,104 @@
+package org.campagnelab.dl.genotype.mappers;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+/**
+ * A view of the genotype counts of the first sample of a record, ordered by decreasing count (forward + reverse
+ * strand). The view keeps the original record and a permutation of count indices, so that mappers and
+ * interpreters can read sorted counts without building a new protobuf message. Counts with the same total keep
+ * their original order.
+ */
+public class SortedCountsView {
+    private final BaseInformationRecords.BaseInformationOrBuilder record;
+    private final BaseInformationRecords.SampleInfo sample;
+    private final int[] permutation;
+
+    private SortedCountsView(BaseInformationRecords.BaseInformationOrBuilder record, int[] permutation) {
+        this.record = record;
+        this.sample = record.getSamples(0);
+        this.permutation = permutation;
+    }
+
+    /**
+     * Create a view where counts are ordered by decreasing count.
+     *
+     * @param record record whose counts should be sorted.
+     * @return sorted view of the counts of the first sample.
+     */
+    public static SortedCountsView sorted(BaseInformationRecords.BaseInformationOrBuilder record) {
+        final BaseInformationRecords.SampleInfo sample = record.getSamples(0);
+        final int numCounts = sample.getCountsCount();
+        int[] permutation = new int[numCounts];
+        int[] totals = new int[numCounts];
+        for (int i = 0; i < numCounts; i++) {
+            final BaseInformationRecords.CountInfo count = sample.getCounts(i);
+            final int total = count.getGenotypeCountForwardStrand() + count.getGenotypeCountReverseStrand();
+            // insertion sort: records have a handful of counts, and the sort must be stable.
+            int j = i;
+            while (j > 0 && totals[j - 1] < total) {
+                totals[j] = totals[j - 1];
+                permutation[j] = permutation[j - 1];
+                j--;
+            }
+            totals[j] = total;
+            permutation[j] = i;
+        }
+        return new SortedCountsView(record, permutation);
+    }
+
+    /**
+     * Create a view where counts are kept in the order of the record.
+     *
+     * @param record record whose counts should be viewed.
+     * @return view of the counts of the first sample, in their original order.
+     */
+    public static SortedCountsView unsorted(BaseInformationRecords.BaseInformationOrBuilder record) {
+        final int numCounts = record.getSamples(0).getCountsCount();
+        int[] permutation = new int[numCounts];
+        for (int i = 0; i < numCounts; i++) {
+            permutation[i] = i;
+        }
+        return new SortedCountsView(record, permutation);
+    }
+
+    /**
+     * Return the record this view was created from. Its counts are not sorted.
+     */
+    public BaseInformationRecords.BaseInformationOrBuilder getRecord() {
+        return record;
+    }
+
+    public int getCountsCount() {
+        return permutation.length;
+    }
+
+    /**
+     * Return the count at some position in the sorted order.
+     *
+     * @param sortedIndex index of the count in the sorted order.
+     * @return count of the first sample of the record.
+     * @throws IndexOutOfBoundsException when sortedIndex is not a valid count index.
+     */
+    public BaseInformationRecords.CountInfo getCounts(int sortedIndex) {
+        return sample.getCounts(permutation[sortedIndex]);
+    }
+
+    /**
+     * Return the index in the record of the count at some position in the sorted order.
+     */
+    public int getOriginalIndex(int sortedIndex) {
+        return permutation[sortedIndex];
+    }
+
+    /**
+     * Return the counts of the first sample, in sorted order, as a sample message.
+     */
+    BaseInformationRecords.SampleInfo.Builder sortedSample() {
+        final BaseInformationRecords.SampleInfo.Builder builder = sample.toBuilder();
+        builder.clearCounts();
+        for (int index : permutation) {
+            builder.addCounts(sample.getCounts(index));
+        }
+        return builder;
+    }
+}
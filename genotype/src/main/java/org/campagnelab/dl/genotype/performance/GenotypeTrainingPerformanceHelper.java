@@ -2,6 +2,7 @@ package org.campagnelab.dl.genotype.performance;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
+import org.campagnelab.dl.framework.models.OutputAndScoreHelper;
 import org.campagnelab.dl.framework.tools.PredictWithModel;
 import org.campagnelab.dl.genotype.predictions.GenotypePrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
@@ -21,6 +22,7 @@ import java.util.function.Predicate;
 public class GenotypeTrainingPerformanceHelper extends PredictWithModel<BaseInformationRecords.BaseInformation> {
 
     protected StatsAccumulator accumulator;
+    private final OutputAndScoreHelper outputAndScore = new OutputAndScoreHelper();
 
 
     public GenotypeTrainingPerformanceHelper(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
@@ -48,8 +50,10 @@ public class GenotypeTrainingPerformanceHelper extends PredictWithModel<BaseInfo
         List<Prediction> predictions = new ArrayList<>();
         while (iterator.hasNext()) {
             MultiDataSet next = iterator.next();
-            INDArray[] outputs = graph.output(next.getFeatures());
-            double dsScore = graph.score(next);
+            // outputs and score from a single forward pass:
+            outputAndScore.evaluate(graph, next);
+            INDArray[] outputs = outputAndScore.getOutputs();
+            double dsScore = outputAndScore.getScore();
             if (dsScore == dsScore) {
                 scoreObserver.accept(dsScore);
             }
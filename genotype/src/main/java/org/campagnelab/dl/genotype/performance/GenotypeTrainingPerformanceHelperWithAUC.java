@@ -17,7 +17,7 @@ public class GenotypeTrainingPerformanceHelperWithAUC extends GenotypeTrainingPe
     private final GenotypeTrainingPerformanceHelper delegate;
     private double observedScore;
     private double observedAUC;
-    AreaUnderTheROCCurve aucCalculator = new AreaUnderTheROCCurve(100000);
+    AreaUnderTheROCCurve aucCalculator = new AreaUnderTheROCCurve();
     private double observedAUC_F1;
 
     public GenotypeTrainingPerformanceHelperWithAUC(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
@@ -9,6 +9,7 @@ import org.campagnelab.goby.reads.RandomAccessSequenceInterface;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class implements the genotype prediction model expected by Goby 3.2+.  Make sure to move
@@ -49,6 +50,35 @@ public class DLGenotypePredictor implements GenotypePredictor, Predictor {
                 readerIdxs);
     }
 
+    /**
+     * Submit a site for prediction in a minibatch, instead of predicting it immediately as predict() does. Use this
+     * method when the caller can wait for the results of several sites. Futures complete in the order sites are
+     * submitted, when the minibatch is full or when flush() is called. Predictor instances are not thread-safe:
+     * each worker thread should load its own predictor.
+     *
+     * @return the future prediction for the site.
+     */
+    public CompletableFuture<GenotypePrediction> predictLater(RandomAccessSequenceInterface genome, String referenceId,
+                                                              SampleCountInfo[] sampleCounts, int referenceIndex,
+                                                              int pos, DiscoverVariantPositionData list,
+                                                              int[] readerIdxs) {
+        return model.submitGenotype(genome, referenceId, sampleCounts, referenceIndex, pos, list, readerIdxs);
+    }
+
+    /**
+     * Predict the sites submitted with predictLater and not yet predicted.
+     */
+    public void flush() {
+        model.flush();
+    }
+
+    /**
+     * Set the number of sites submitted with predictLater that are predicted together.
+     */
+    public void setBatchSize(int batchSize) {
+        model.setBatchSize(batchSize);
+    }
+
 
     @Override
     public boolean modelIsLoaded() {
@@ -5,7 +5,9 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.DomainDescriptorLoader;
 import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.FlattenedFeatureMapper;
 import org.campagnelab.dl.framework.models.ModelLoader;
+import org.campagnelab.dl.framework.models.PredictionBatcher;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.goby.algorithmic.dsv.DiscoverVariantPositionData;
 import org.campagnelab.goby.algorithmic.dsv.SampleCountInfo;
@@ -21,9 +23,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Encapsulates a trained genotype model.
+ * Encapsulates a trained genotype model. Sites can be predicted one at a time with predictGenotype, or gathered into
+ * minibatches with submitGenotype. Instances are not thread-safe: each worker thread should load its own model.
  * Created by fac2003 on 12/18/16.
  */
 public class GenotypeModel {
@@ -32,6 +36,12 @@ public class GenotypeModel {
     private final Properties modelProperties;
     private DomainDescriptor domainDescriptor;
     private GenotypeProtoPredictor protoPredictor;
+    private final PredictionBatcher<BaseInformationRecords.BaseInformation, GenotypePrediction> batcher;
+    /**
+     * Number of sites predicted together by submitGenotype, unless changed with setBatchSize. Can be set with
+     * -Dgenotype.prediction.batchSize when the model is loaded through the Goby SPI.
+     */
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("genotype.prediction.batchSize", 64);
 
     /**
      * Create a GenotypeModel with model path and prefix/label.
@@ -79,7 +89,8 @@ public class GenotypeModel {
         Model model = modelLoader.loadModel(prefix);
         modelProperties = modelLoader.getModelProperties();
         domainDescriptor = DomainDescriptorLoader.load(modelPath);
-        this.protoPredictor = new GenotypeProtoPredictor(domainDescriptor, model, featureMapper);
+        this.protoPredictor = new GenotypeProtoPredictor(domainDescriptor, model, FlattenedFeatureMapper.compile(featureMapper));
+        this.batcher = new PredictionBatcher<>(protoPredictor::predictGenotypes, DEFAULT_BATCH_SIZE);
     }
 
     public GenotypePrediction predictGenotype(RandomAccessSequenceInterface genome, String referenceID,
@@ -87,17 +98,54 @@ public class GenotypeModel {
                                                   int referenceIndex, int position,
                                                   DiscoverVariantPositionData list,
                                                   int[] readerIdxs) {
+        return protoPredictor.predictGenotype(toProto(genome, referenceID, sampleCounts, referenceIndex, position,
+                list, readerIdxs));
+    }
+
+    /**
+     * Submit a site for prediction. Sites are gathered into minibatches of getBatchSize() sites, and each minibatch
+     * is predicted with a single forward pass. The site is converted to a record before this method returns, so
+     * that the caller can reuse its arguments for the next site.
+     *
+     * @return the future prediction for the site. Futures complete in the order sites were submitted.
+     */
+    public CompletableFuture<GenotypePrediction> submitGenotype(RandomAccessSequenceInterface genome, String referenceID,
+                                                                SampleCountInfo sampleCounts[],
+                                                                int referenceIndex, int position,
+                                                                DiscoverVariantPositionData list,
+                                                                int[] readerIdxs) {
+        return batcher.submit(toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, readerIdxs));
+    }
+
+    /**
+     * Predict the sites submitted since the last minibatch, even if the minibatch is not full.
+     */
+    public void flush() {
+        batcher.flush();
+    }
+
+    public int getBatchSize() {
+        return batcher.getBatchSize();
+    }
+
+    public void setBatchSize(int batchSize) {
+        batcher.setBatchSize(batchSize);
+    }
+
+    private BaseInformationRecords.BaseInformation toProto(RandomAccessSequenceInterface genome, String referenceID,
+                                                           SampleCountInfo sampleCounts[],
+                                                           int referenceIndex, int position,
+                                                           DiscoverVariantPositionData list,
+                                                           int[] readerIdxs) {
         Integer[] sampleToReaderIdxs;
         // genotype models work with a single sample:
         sampleToReaderIdxs = new Integer[]{readerIdxs[0]};
 
         //in the past, predictions on 0 reads have been bypassed and given prediction value 0. leaving this out for now.
         int contextLength = (int)Float.parseFloat(modelProperties.getProperty("stats.genomicContextSize.max"));
-        BaseInformationRecords.BaseInformation proto = ProtoHelper.toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, sampleToReaderIdxs,contextLength);
-        return protoPredictor.predictGenotype(proto);
+        return ProtoHelper.toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, sampleToReaderIdxs,contextLength);
     }
 
-
     public Properties getProperties() {
         return modelProperties;
     }
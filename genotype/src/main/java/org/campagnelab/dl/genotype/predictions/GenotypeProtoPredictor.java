@@ -4,6 +4,7 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.framework.models.ModelOutputHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.deeplearning4j.nn.api.Model;
@@ -56,8 +57,38 @@ public class GenotypeProtoPredictor {
             }
         }
 
+        MappingContext.clear();
         GenotypePrediction overallPrediction = (GenotypePrediction) domainDescriptor.aggregatePredictions(predictions);
 
         return overallPrediction;
     }
+
+    /**
+     * Predict genotypes for a minibatch of records, with a single forward pass.
+     *
+     * @param records records to predict.
+     * @return one prediction per record, in record order.
+     */
+    public List<GenotypePrediction> predictGenotypes(List<BaseInformationRecords.BaseInformation> records) {
+        assert model != null : "Model cannot be null";
+
+        outputHelper.predictForRecords(model, records, mapper);
+        List<GenotypePrediction> genotypePredictions = new ArrayList<>(records.size());
+        int recordIndex = 0;
+        for (BaseInformationRecords.BaseInformation record : records) {
+            predictions.clear();
+            for (int outputIndex = 0; outputIndex < domainDescriptor.getNumModelOutputs(); outputIndex++) {
+                if (interpretors[outputIndex] != null) {
+                    Prediction prediction = interpretors[outputIndex].interpret(record,
+                            outputHelper.getOutput(outputIndex, recordIndex));
+                    prediction.outputIndex = outputIndex;
+                    predictions.add(prediction);
+                }
+            }
+            MappingContext.clear();
+            genotypePredictions.add((GenotypePrediction) domainDescriptor.aggregatePredictions(predictions));
+            recordIndex++;
+        }
+        return genotypePredictions;
+    }
 }
@@ -3,6 +3,7 @@ package org.campagnelab.dl.genotype.tools;
 
 import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
+import org.campagnelab.dl.framework.mappers.FlattenedFeatureMapper;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
 
 import java.io.IOException;
@@ -59,8 +60,9 @@ public class FeatureNamePrinter extends AbstractTool<FeatureNameArguments> {
                     "stats.insertSizes.max=2.8001616E7\n" +
                     "stats.numVariationsInRead.min=0.0"));
             ((ConfigurableFeatureMapper)mapper).configure(prop);
-            for (int i = 0; i < mapper.numberOfFeatures(); i++){
-                System.out.println(mapper.getFeatureName(i) + "\t");
+            FeatureNameMapper names = (FeatureNameMapper) FlattenedFeatureMapper.compile(mapper);
+            for (int i = 0; i < names.numberOfFeatures(); i++){
+                System.out.println(names.getFeatureName(i) + "\t");
             }
         } catch (IllegalAccessException e) {
             e.printStackTrace();
@@ -0,0 +1,110 @@
+package org.campagnelab.dl.genotype.mappers;
+
+import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.MappingContext;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Check that sorted views order counts like the sorted records.
+ */
+public class SortedCountsViewTest {
+
+    @Test
+    public void sortsByDecreasingCount() {
+        BaseInformationRecords.BaseInformation record = record(0, 9, 3, 9, 3);
+        SortedCountsView view = new RecordCountSortHelper().view(record);
+        assertEquals(5, view.getCountsCount());
+        // counts with the same total keep their original order:
+        int[] expected = {1, 3, 2, 4, 0};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], view.getOriginalIndex(i));
+            assertEquals(Integer.toString(expected[i]), view.getCounts(i).getToSequence());
+        }
+        BaseInformationRecords.BaseInformation sorted = new RecordCountSortHelper().sort(record);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(view.getCounts(i), sorted.getSamples(0).getCounts(i));
+        }
+        assertEquals(record.getSamples(1), sorted.getSamples(1));
+    }
+
+    @Test
+    public void unsortedKeepsRecordOrder() {
+        BaseInformationRecords.BaseInformation record = record(0, 9, 3);
+        SortedCountsView view = new RecordCountSortHelper().view(record, false);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, view.getOriginalIndex(i));
+            assertEquals(record.getSamples(0).getCounts(i), view.getCounts(i));
+        }
+    }
+
+    @Test
+    public void featuresAndLabelsShareOneSort() {
+        BaseInformationRecords.BaseInformation record = record(0, 9, 3);
+        RecordCountSortHelper sortHelper = new RecordCountSortHelper();
+        // the delegate keeps its own values in the context of the sorted record, like the somatic count mappers:
+        CountReorderingMapper features = new CountReorderingMapper(
+                new AbstractFeatureMapper1D<BaseInformationRecords.BaseInformationOrBuilder>() {
+                    @Override
+                    public String getFeatureName(int featureIndex) {
+                        return "firstCount";
+                    }
+
+                    @Override
+                    public int numberOfFeatures() {
+                        return 1;
+                    }
+
+                    @Override
+                    public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
+                    }
+
+                    @Override
+                    public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
+                        return MappingContext.of(record).get("firstCount",
+                                () -> Float.parseFloat(record.getSamples(0).getCounts(0).getToSequence()));
+                    }
+                });
+        GenotypeLabelsMapper labels = new GenotypeLabelsMapper(0, true);
+        INDArray inputs = Nd4j.zeros(1, 1);
+        INDArray outputs = Nd4j.zeros(1, 2);
+        features.prepareToNormalize(record, 0);
+        SortedCountsView view = sortHelper.view(record);
+        features.mapFeatures(record, inputs, 0);
+        assertEquals(1, inputs.getFloat(0, 0), 0);
+        labels.prepareToNormalize(record, 0);
+        labels.mapLabels(record, outputs, 0);
+        // the labels were mapped with the sort done for the features:
+        assertSame(view, sortHelper.view(record));
+        assertSame(sortHelper.sort(record), sortHelper.sort(record));
+
+        MappingContext.clear();
+        assertNotSame(view, sortHelper.view(record));
+        MappingContext.clear();
+    }
+
+    private BaseInformationRecords.BaseInformation record(int... totals) {
+        BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder();
+        for (int i = 0; i < totals.length; i++) {
+            sample.addCounts(BaseInformationRecords.CountInfo.newBuilder()
+                    .setMatchesReference(i == 0)
+                    .setFromSequence("A")
+                    .setToSequence(Integer.toString(i))
+                    .setGenotypeCountForwardStrand(totals[i] / 2)
+                    .setGenotypeCountReverseStrand(totals[i] - totals[i] / 2)
+                    .setIsIndel(false));
+        }
+        return BaseInformationRecords.BaseInformation.newBuilder()
+                .setReferenceIndex(0)
+                .setPosition(1)
+                .addSamples(sample)
+                .addSamples(sample)
+                .build();
+    }
+}
@@ -17,6 +17,10 @@ public class SomaticTrainingArguments extends TrainingArguments {
     @Parameter(names = "--early-stopping-measure", description = "Name of the measure to monitor to stop early stopping. One of score or AUC.")
     public String earlyStoppingMeasureName="AUC";
 
+    @Parameter(names = "--prefetch-chunks", description = "Number of chunks of each .sbi file decoded ahead of training, in background " +
+            "threads. Use 0 to decode chunks on the thread that reads the records.")
+    public int prefetchChunks = 0;
+
     @Override
     protected String defaultArchitectureClassname() {
         return SixDenseLayersNarrower2WithFrequencyAndBase.class.getCanonicalName();
@@ -18,8 +18,8 @@ import org.campagnelab.dl.somatic.learning.iterators.BaseInformationIterator;
 import org.campagnelab.dl.somatic.mappers.IsBaseMutatedMapper;
 import org.campagnelab.dl.somatic.mappers.IsSomaticMutationMapper;
 import org.campagnelab.dl.somatic.mappers.SomaticFrequencyLabelMapper;
+import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
-import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.lossfunctions.ILossFunction;
@@ -85,6 +85,13 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
         if (cachedFeatureMappers.containsKey(inputName)) {
             return cachedFeatureMappers.get(inputName);
         }
+        FeatureMapper result = newFeatureMapper(inputName);
+        cachedFeatureMappers.put(inputName, result);
+        return result;
+    }
+
+    @Override
+    public FeatureMapper newFeatureMapper(String inputName) {
         FeatureMapper result;
         if (args().featureMapperClassname != null) {
             assert "input".equals(inputName) : "Only one input supported by this domain.";
@@ -107,9 +114,13 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
                 throw new RuntimeException(e);
             }
         }
-        cachedFeatureMappers.put(inputName, result);
         return result;
+    }
 
+    @Override
+    public LabelMapper newLabelMapper(String outputName) {
+        // getLabelMapper never shares label mapper instances:
+        return getLabelMapper(outputName);
     }
 
 
@@ -146,7 +157,7 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
     public Function<String, ? extends Iterable<BaseInformationRecords.BaseInformation>> getRecordIterable() {
         return inputFilename -> {
             try {
-                return new SequenceBaseInformationReader(inputFilename);
+                return new RecordReader(inputFilename, args().prefetchChunks);
             } catch (IOException e) {
                 throw new RuntimeException("Unable to read records from " + inputFilename, e);
             }
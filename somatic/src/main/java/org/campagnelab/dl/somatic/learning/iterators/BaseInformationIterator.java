@@ -3,6 +3,7 @@ package org.campagnelab.dl.somatic.learning.iterators;
 import org.apache.commons.compress.utils.IOUtils;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
@@ -89,6 +90,7 @@ public class BaseInformationIterator implements NamedDataSetIterator, Closeable
                 featureMapper.mapFeatures(record, inputs, i);
                 labelMapper.prepareToNormalize(record, i);
                 labelMapper.mapLabels(record, labels, i);
+                MappingContext.clear();
             } else {
                 // some records may be empty in the very last minibatch at the end of the iterator.
             }
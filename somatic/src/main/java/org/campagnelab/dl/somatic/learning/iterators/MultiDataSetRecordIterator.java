@@ -2,6 +2,7 @@ package org.campagnelab.dl.somatic.learning.iterators;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
@@ -100,6 +101,7 @@ public abstract class MultiDataSetRecordIterator<RecordType> implements MultiDat
                     labelMappers[j].prepareToNormalize(record, i);
                     labelMappers[j].mapLabels(record, labels[j], i);
                 }
+                MappingContext.clear();
             } else {
                 // some records may be empty in the very last minibatch at the end of the iterator.
             }
@@ -3,6 +3,7 @@ package org.campagnelab.dl.somatic.mappers;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.framework.mappers.MappedDimensions;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -84,40 +85,57 @@ public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.Bas
 
     protected abstract void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count);
 
-    private BaseInformationRecords.BaseInformationOrBuilder recordCached[][] = new BaseInformationRecords.BaseInformationOrBuilder[2][2];
-    private ObjectArrayList<? extends GenotypeCount> cachedResult[][] = new ObjectArrayList[2][2];
+    /**
+     * Keys of the count lists in the mapping context, indexed by [isTumor][sort]. Mappers of the same class
+     * initialize counts the same way, and share the lists they compute for a record.
+     */
+    private final CountsKey[][] countsKeys = {
+            {new CountsKey("counts", getClass(), 0, false), new CountsKey("counts", getClass(), 0, true)},
+            {new CountsKey("counts", getClass(), 1, false), new CountsKey("counts", getClass(), 1, true)}};
 
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
                                                                     boolean isTumor, boolean sort) {
-        ObjectArrayList<? extends GenotypeCount> cached = getCachedResult(isTumor, sort);
-        if (cached != null && record.equals(recordCached[isTumor ? 1 : 0][sort ? 1 : 0])) {
-            return cached;
-        } else {
+        return MappingContext.of(record).get(countsKeys[isTumor ? 1 : 0][sort ? 1 : 0], () -> {
 
             assert oneSampleHasTumor(record.getSamplesList()) : "at least one sample must have hasTumor=true.";
 
             for (int i = 0; i < record.getSamplesCount(); i++) {
                 if (isTumor != record.getSamples(i).getIsTumor()) continue;
                 // a subclass is expected to override getGenotypeCountFactory to provide its own type for Genotype counts:
-                cached = getAllCounts(record, getGenotypeCountFactory(), isTumor, sort);
-                putInCache(record, cached, isTumor, sort);
-                return cached;
+                return getAllCounts(record, getGenotypeCountFactory(), isTumor, sort);
             }
             throw new InternalError("At least one sample matching isTumor, and one matching not isTumor must be found.");
-        }
+        });
     }
 
-    private void putInCache(BaseInformationRecords.BaseInformationOrBuilder record, ObjectArrayList<? extends GenotypeCount> cached, boolean isTumor, boolean sort) {
-        int index1 = isTumor ? 1 : 0;
-        int index2 = sort ? 1 : 0;
-        recordCached[index1][index2] = record;
-        cachedResult[index1][index2] = cached;
-    }
+    /**
+     * Identifies a list of genotype counts in the mapping context of a record.
+     */
+    protected static final class CountsKey {
+        private final String kind;
+        private final Class<?> mapperClass;
+        private final int sampleIndex;
+        private final boolean sort;
+
+        public CountsKey(String kind, Class<?> mapperClass, int sampleIndex, boolean sort) {
+            this.kind = kind;
+            this.mapperClass = mapperClass;
+            this.sampleIndex = sampleIndex;
+            this.sort = sort;
+        }
 
-    private ObjectArrayList<? extends GenotypeCount> getCachedResult(boolean isTumor, boolean sort) {
-        int index1 = isTumor ? 1 : 0;
-        int index2 = sort ? 1 : 0;
-        return cachedResult[index1][index2];
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CountsKey)) return false;
+            CountsKey other = (CountsKey) o;
+            return kind.equals(other.kind) && mapperClass == other.mapperClass &&
+                    sampleIndex == other.sampleIndex && sort == other.sort;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((kind.hashCode() * 31 + mapperClass.hashCode()) * 31 + sampleIndex) * 2 + (sort ? 1 : 0);
+        }
     }
 
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
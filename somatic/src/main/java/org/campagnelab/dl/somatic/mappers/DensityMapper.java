@@ -2,6 +2,9 @@ package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.framework.mappers.NoMaskFeatureMapper;
+import org.campagnelab.dl.somatic.mappers.functional.IntToFloatFunction;
+import org.campagnelab.dl.somatic.mappers.functional.RecordValues;
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -12,57 +15,90 @@ import java.util.function.Function;
 
 /**
  * Produces feature that represent a density of values for a given number of bins..
+ * Values are visited with a {@link RecordValues} and binned with a primitive value function, so that mapping a
+ * record does not box values or gather them in lists. The bin of each value between the min and max statistics is
+ * precomputed when the range is small enough. Mappers built with list functions (see {@link TraversalHelper}) are
+ * adapted to the same primitive binning and produce identical features.
  * Created by fac2003 on 10/21/16.
  */
 public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
+    /**
+     * Largest range of values (max-min) for which bins are precomputed.
+     */
+    private static final int MAX_PRECOMPUTED_RANGE = 1 << 16;
 
-    protected Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues;
+    protected RecordValues recordValues;
     protected int minValue=Integer.MAX_VALUE;
     protected int maxValue=Integer.MIN_VALUE;
     protected float binWidth;
     protected String name;
-    protected Function<Integer, Float> valueFunction;
+    protected IntToFloatFunction valueFunction;
     int numBins = 10;
     float[] bins;
-    protected int[] indices;
+    protected float numElements;
+    protected int[] indices = new int[]{0, 0};
+    private float minFunctionValue;
+    /**
+     * Bin of each value between minValue and maxValue, before values outside of the bins are ignored.
+     */
+    private int[] binOfValue;
+    private final RecordValues.NumberWithFrequencyConsumer accumulator = this::accumulate;
 
     public DensityMapper(String name, int numBins, Properties sbiProperties,
                          Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
-        this(name, numBins, sbiProperties, recordToValues, Integer::floatValue);
+        this(name, numBins, sbiProperties, TraversalHelper.fromList(recordToValues));
     }
 
     public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties,
                          Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
-        this(name1, name2, numBins, sbiProperties, recordToValues, Integer::floatValue);
+        this(name1, name2, numBins, sbiProperties, TraversalHelper.fromList(recordToValues));
     }
 
+    public DensityMapper(String name, int numBins, Properties sbiProperties,
+                         Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues,
+                         Function<Integer, Float> valueFunction) {
+        this(name, numBins, sbiProperties, TraversalHelper.fromList(recordToValues), valueFunction::apply);
+    }
+
+    public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties,
+                         Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues,
+                         Function<Integer, Float> valueFunction
+    ) {
+        this(name1, name2, numBins, sbiProperties, TraversalHelper.fromList(recordToValues), valueFunction::apply);
+    }
+
+    public DensityMapper(String name, int numBins, Properties sbiProperties, RecordValues recordValues) {
+        this(name, numBins, sbiProperties, recordValues, value -> value);
+    }
+
+    public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties, RecordValues recordValues) {
+        this(name1, name2, numBins, sbiProperties, recordValues, value -> value);
+    }
 
     /**
      * @param name
      * @param numBins number of bins to represent this density with. If -1, use a bin for every increment between minValue and maxValue.
      * @param sbiProperties
-     * @param recordToValues
+     * @param recordValues
      * @param valueFunction
      */
-    public DensityMapper(String name, int numBins, Properties sbiProperties,
-                         Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues,
-                         Function<Integer, Float> valueFunction) {
+    public DensityMapper(String name, int numBins, Properties sbiProperties, RecordValues recordValues,
+                         IntToFloatFunction valueFunction) {
         if (!propertiesPresent(sbiProperties, "stats." + name)) {
             throw new UnsupportedOperationException("The sbip file does not contain the statistics for " + name + " (stats." + name + ".min and stats." + name + ".max)");
         }
         this.minValue = (int)getMin(sbiProperties, "stats." + name);
         this.maxValue = (int)getMax(sbiProperties, "stats." + name);
-        constructorHelper(name,numBins,recordToValues,valueFunction);
+        constructorHelper(name,numBins,recordValues,valueFunction);
     }
 
 
     //handle case where there are two protobuf fields contributing to one map.
-    public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties,
-                         Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues,
-                         Function<Integer, Float> valueFunction
+    public DensityMapper(String name1, String name2, int numBins, Properties sbiProperties, RecordValues recordValues,
+                         IntToFloatFunction valueFunction
     ) {
 
         if (!propertiesPresent(sbiProperties, "stats." + name1)) {
@@ -74,13 +110,12 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         //extend range to handle two fields
         this.minValue = Math.min((int)getMin(sbiProperties, "stats." + name1),(int)getMin(sbiProperties, "stats." + name2));
         this.maxValue = Math.max((int)getMax(sbiProperties, "stats." + name1),(int)getMax(sbiProperties, "stats." + name2));
-        constructorHelper(name1 + "+" + name2,numBins,recordToValues,valueFunction);
+        constructorHelper(name1 + "+" + name2,numBins,recordValues,valueFunction);
     }
 
 
-    protected void constructorHelper(String name, int numBins,
-                                   Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues,
-                                   Function<Integer, Float> valueFunction){
+    protected void constructorHelper(String name, int numBins, RecordValues recordValues,
+                                     IntToFloatFunction valueFunction){
         this.name = name;
         this.valueFunction = valueFunction;
         if (numBins == -1){
@@ -89,11 +124,45 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
             this.numBins = numBins;
         }
         bins = new float[this.numBins];
-        this.recordToValues = recordToValues;
-        this.binWidth = (valueFunction.apply(maxValue) - valueFunction.apply(minValue) )/ this.numBins;
+        this.recordValues = recordValues;
+        this.minFunctionValue = valueFunction.apply(minValue);
+        this.binWidth = (valueFunction.apply(maxValue) - minFunctionValue) / this.numBins;
+        final long range = (long) maxValue - minValue;
+        if (range >= 0 && range <= MAX_PRECOMPUTED_RANGE) {
+            binOfValue = new int[(int) range + 1];
+            for (int i = 0; i < binOfValue.length; i++) {
+                binOfValue[i] = computeBin(minValue + i);
+            }
+        }
     }
 
+    private int computeBin(int value) {
+        return (int) ((valueFunction.apply(value) - minFunctionValue) / binWidth);
+    }
 
+    /**
+     * Return the bin of a value. The bin may be outside of [0, numBins) for values outside of min-max.
+     */
+    protected int bin(int value) {
+        final long offset = (long) value - minValue;
+        if (binOfValue != null && offset >= 0 && offset < binOfValue.length) {
+            return binOfValue[(int) offset];
+        }
+        return computeBin(value);
+    }
+
+    /**
+     * Add a value to the bins, with its frequency.
+     */
+    protected void accumulate(int number, int frequency) {
+        int featureIndex = bin(number);
+        if (featureIndex < 0 || featureIndex >= numBins) {
+            //ignore points outside of min-max
+        } else {
+            bins[featureIndex] += frequency;
+            numElements += frequency;
+        }
+    }
 
     @Override
     public int numberOfFeatures() {
@@ -103,17 +172,8 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
         Arrays.fill(bins, 0);
-        List<BaseInformationRecords.NumberWithFrequency> listOfValues = recordToValues.apply(record);
-        float numElements = 0;
-        for (BaseInformationRecords.NumberWithFrequency n : listOfValues) {
-            int featureIndex = (int) ((valueFunction.apply(n.getNumber()) - valueFunction.apply(minValue)) / binWidth);
-            if (featureIndex < 0 || featureIndex >= numBins) {
-                //ignore points outside of min-max
-            } else {
-                bins[featureIndex] += n.getFrequency();
-                numElements += n.getFrequency();
-            }
-        }
+        numElements = 0;
+        recordValues.forEach(record, accumulator);
         // normalize the counts to produce a density:
         if (numElements > 0) {
             for (int featureIndex = 0; featureIndex < numBins; featureIndex++) {
@@ -125,6 +185,7 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs, int indexOfRecord) {
         mapFeatures(record, bins, 0, indexOfRecord);
+        indices[0] = indexOfRecord;
         for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
             indices[1] = featureIndex;
             inputs.putScalar(indices, bins[featureIndex]);
@@ -136,6 +197,11 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         return bins[featureIndex];
     }
 
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] row, int offset) {
+        System.arraycopy(bins, 0, row, offset, numBins);
+    }
+
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
         // do not copy if inputs is bins (call from mapFeatures above)
         if (inputs != bins) {
@@ -1,8 +1,9 @@
 package org.campagnelab.dl.somatic.mappers;
 
+import org.campagnelab.dl.somatic.mappers.functional.RecordValues;
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.function.Function;
@@ -21,38 +22,30 @@ public class DensityMapperCapped extends DensityMapper {
     public DensityMapperCapped(String name1, String name2, int linearBinMin, int linearBinMax, Properties sbiProperties,
                          Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues
     ) {
+        this(name1, name2, linearBinMin, linearBinMax, sbiProperties, TraversalHelper.fromList(recordToValues));
+    }
+
+    public DensityMapperCapped(String name1, String name2, int linearBinMin, int linearBinMax, Properties sbiProperties,
+                               RecordValues recordValues) {
 
-        super(name1, name2, 1, sbiProperties, recordToValues, Integer::floatValue);
+        super(name1, name2, 1, sbiProperties, recordValues, value -> value);
         //now cap bins:
         this.numBins = linearBinMax - linearBinMin;
         this.linearBinMax = linearBinMax;
         this.linearBinMin = linearBinMin;
         bins = new float[this.numBins];
-        this.recordToValues = recordToValues;
         this.binWidth = 1;
     }
 
 
-
-
-    public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
-        Arrays.fill(bins, 0);
-        List<BaseInformationRecords.NumberWithFrequency> listOfValues = recordToValues.apply(record);
-        float numElements = 0;
-        for (BaseInformationRecords.NumberWithFrequency n : listOfValues) {
-            int featureIndex = (int) ((valueFunction.apply(n.getNumber()) - linearBinMin));
-            //handle higher than linearMax case, lower than linearMin case
-            if (featureIndex >= (numLinearBins) || featureIndex < 0) {
-            } else {
-                bins[featureIndex] += n.getFrequency();
-                numElements += n.getFrequency();
-            }
-        }
-        // normalize the counts to produce a density:
-        if (numElements > 0) {
-            for (int featureIndex = 0; featureIndex < numBins; featureIndex++) {
-                bins[featureIndex] /= numElements;
-            }
+    @Override
+    protected void accumulate(int number, int frequency) {
+        int featureIndex = (int) ((valueFunction.apply(number) - linearBinMin));
+        //handle higher than linearMax case, lower than linearMin case
+        if (featureIndex >= (numLinearBins) || featureIndex < 0) {
+        } else {
+            bins[featureIndex] += frequency;
+            numElements += frequency;
         }
     }
 }
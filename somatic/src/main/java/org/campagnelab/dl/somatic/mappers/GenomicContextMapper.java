@@ -4,18 +4,28 @@ import org.campagnelab.dl.framework.mappers.*;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.function.Function;
 
 /**
- * Maps the full genomic context using multiple onehotfeaturemapper
+ * Maps the full genomic context with one one-hot block per context position (see {@link OneHotBaseFeatureMapper}
+ * for the encoding of bases). The context is decoded once per record into one code per position, and the one-hot
+ * blocks are written in a single pass over the codes.
  * Created by rct66 on 10/25/16.
  */
 
 
 public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>, FeatureNameMapper<BaseInformationRecords.BaseInformationOrBuilder> {
-    private ConcatFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> delegate;
+    private static final int NUM_CODES = 6;
+    private final int contextSize;
+    /**
+     * Function that returns the context of a record. Null when the context is the genomic sequence context.
+     */
+    private final Function<BaseInformationRecords.BaseInformationOrBuilder, String> function;
+    private final byte[] codes;
+    private float[] row;
 
     public GenomicContextMapper(Properties sbiProperties, int maxContextSize) {
 
@@ -34,12 +44,9 @@ public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRec
     }
 
     public GenomicContextMapper(int contextSize) {
-        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] refContext = new OneHotBaseFeatureMapper[contextSize];
-        for (int i = 0; i < contextSize; i++) {
-            refContext[i] = new OneHotBaseFeatureMapper<>(i,
-                    record -> trim(contextSize, record.getGenomicSequenceContext()));
-        }
-        delegate = new ConcatFeatureMapper<>(refContext);
+        this.contextSize = contextSize;
+        this.function = null;
+        this.codes = new byte[contextSize];
     }
 
     /**
@@ -61,35 +68,82 @@ public class GenomicContextMapper extends NoMaskFeatureMapper<BaseInformationRec
         return result;
     }
 
-    public GenomicContextMapper(int contextSize, Function<BaseInformationRecords.BaseInformationOrBuilder, String> function) {
-        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] refContext = new OneHotBaseFeatureMapper[contextSize];
-        for (int i = 0; i < contextSize; i++) {
-            refContext[i] = new OneHotBaseFeatureMapper<>(i, function);
+    /**
+     * Return the index in a larger context of the first base of the trimmed context (see {@link #trim}), without
+     * building the trimmed context.
+     *
+     * @param trimLength                   target context size.
+     * @param recordGenomicSequenceContext the genomic context from the sbi file, may be larger than trimLength
+     * @return index of the first base of the trimmed context.
+     * @throws StringIndexOutOfBoundsException when the context is shorter than trimLength, like trim.
+     */
+    int trimStart(int trimLength, String recordGenomicSequenceContext) {
+        assert trimLength<=recordGenomicSequenceContext.length() :
+                String.format("The trim length (%d) must be smaller than the .sbi context length (%d).",
+                        trimLength,  recordGenomicSequenceContext.length()) ;
+        final int length = recordGenomicSequenceContext.length();
+        if (length == trimLength) {
+            return 0;
+        }
+        int clipLength = (length - trimLength) / 2;
+        if (clipLength < 0 || trimLength + clipLength > length) {
+            throw new StringIndexOutOfBoundsException(String.format("The context (length %d) is shorter than %d.",
+                    length, trimLength));
         }
-        delegate = new ConcatFeatureMapper<>(refContext);
+        return clipLength;
+    }
+
+    public GenomicContextMapper(int contextSize, Function<BaseInformationRecords.BaseInformationOrBuilder, String> function) {
+        this.contextSize = contextSize;
+        this.function = function;
+        this.codes = new byte[contextSize];
     }
 
     @Override
     public int numberOfFeatures() {
-        return delegate.numberOfFeatures();
+        return contextSize * NUM_CODES;
 
     }
 
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformationOrBuilder record, int indexOfRecord) {
-        delegate.prepareToNormalize(record, indexOfRecord);
+        if (contextSize == 0) {
+            return;
+        }
+        if (function == null) {
+            final String context = record.getGenomicSequenceContext();
+            final int start = trimStart(contextSize, context);
+            for (int i = 0; i < contextSize; i++) {
+                codes[i] = (byte) OneHotBaseFeatureMapper.getIntegerOfBase(context.charAt(start + i));
+            }
+        } else {
+            final String context = function.apply(record);
+            for (int i = 0; i < contextSize; i++) {
+                codes[i] = (byte) OneHotBaseFeatureMapper.getIntegerOfBase(context, i);
+            }
+        }
     }
 
-    int[] indices = new int[]{0, 0};
-
     @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, INDArray inputs, int indexOfRecord) {
-        delegate.mapFeatures(record, inputs, indexOfRecord);
+        if (row == null) {
+            row = new float[numberOfFeatures()];
+        }
+        mapFeatures(record, row, 0);
+        FeatureRows.putRow(row, inputs, indexOfRecord);
+    }
+
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] row, int offset) {
+        Arrays.fill(row, offset, offset + numberOfFeatures(), 0F);
+        for (int i = 0; i < contextSize; i++) {
+            row[offset + i * NUM_CODES + codes[i]] = 1F;
+        }
     }
 
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
-        return delegate.produceFeature(record, featureIndex);
+        return codes[featureIndex / NUM_CODES] == featureIndex % NUM_CODES ? 1F : 0F;
     }
 
     @Override
@@ -0,0 +1,27 @@
+package org.campagnelab.dl.somatic.mappers.functional;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+/**
+ * Visits the numbers with frequency of a record, without gathering them in a list. See {@link TraversalHelper} for
+ * the usual traversals of samples and counts.
+ */
+@FunctionalInterface
+public interface RecordValues {
+
+    /**
+     * Receives one number with its frequency.
+     */
+    @FunctionalInterface
+    interface NumberWithFrequencyConsumer {
+        void accept(int number, int frequency);
+    }
+
+    /**
+     * Call the consumer with each number and frequency of the record, in the order of the record.
+     *
+     * @param record   record to traverse.
+     * @param consumer consumer of the numbers and their frequency.
+     */
+    void forEach(BaseInformationRecords.BaseInformationOrBuilder record, NumberWithFrequencyConsumer consumer);
+}
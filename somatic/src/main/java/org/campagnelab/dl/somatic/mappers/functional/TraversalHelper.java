@@ -81,4 +81,88 @@ public class TraversalHelper {
         list.addAll(reverseFunction.apply(countInfo));
         return list;
     }
+
+    /**
+     * Visit the numbers with frequency found across all samples and counts of these samples.
+     * @param field function that returns a field of a count (e.g., CountInfo::getQualityScoresForwardStrandList).
+     * @return values of the field in each count of each sample.
+     */
+    public static RecordValues allSampleCounts(Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> field) {
+        return (record, consumer) -> {
+            final int numSamples = record.getSamplesCount();
+            for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
+                visitCounts(record.getSamples(sampleIndex), field, consumer);
+            }
+        };
+    }
+
+    /**
+     * Visit the numbers with frequency found across all counts of one sample.
+     * @param sampleIndex index of the sample.
+     * @param field function that returns a field of a count.
+     * @return values of the field in each count of the sample.
+     */
+    public static RecordValues sampleCounts(int sampleIndex,
+                                            Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> field) {
+        return (record, consumer) -> visitCounts(record.getSamples(sampleIndex), field, consumer);
+    }
+
+    /**
+     * Visit the numbers with frequency of one count of one sample.
+     * @param sampleIndex index of the sample.
+     * @param genotypeIndex index of the count in the sample.
+     * @param field function that returns a field of a count.
+     * @return values of the field in the count.
+     */
+    public static RecordValues oneSampleGenotype(int sampleIndex, int genotypeIndex,
+                                                 Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> field) {
+        return (record, consumer) -> visit(field.apply(record.getSamples(sampleIndex).getCounts(genotypeIndex)), consumer);
+    }
+
+    /**
+     * Visit the numbers with frequency of one count of one sample, on both strands. Numbers of the forward strand
+     * are visited first, and a number may be visited once for each strand.
+     * @param sampleIndex index of the sample.
+     * @param genotypeIndex index of the count in the sample.
+     * @param forwardField function that returns a field of a count, for the forward strand.
+     * @param reverseField function that returns a field of a count, for the reverse strand.
+     * @return values of the fields in the count.
+     */
+    public static RecordValues oneSampleGenotypeBothStrands(int sampleIndex, int genotypeIndex,
+                                                            Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> forwardField,
+                                                            Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> reverseField) {
+        return (record, consumer) -> {
+            BaseInformationRecords.CountInfo countInfo = record.getSamples(sampleIndex).getCounts(genotypeIndex);
+            visit(forwardField.apply(countInfo), consumer);
+            visit(reverseField.apply(countInfo), consumer);
+        };
+    }
+
+    /**
+     * Visit the numbers with frequency of the list a function returns for each record. Use this method to adapt
+     * functions written for the list traversals above.
+     * @param recordToValues function that reduces a record to a list of numbers with frequency.
+     * @return values in the list.
+     */
+    public static RecordValues fromList(Function<BaseInformationRecords.BaseInformationOrBuilder, List<BaseInformationRecords.NumberWithFrequency>> recordToValues) {
+        return (record, consumer) -> visit(recordToValues.apply(record), consumer);
+    }
+
+    private static void visitCounts(BaseInformationRecords.SampleInfo sampleInfo,
+                                    Function<BaseInformationRecords.CountInfo, List<BaseInformationRecords.NumberWithFrequency>> field,
+                                    RecordValues.NumberWithFrequencyConsumer consumer) {
+        final int numCounts = sampleInfo.getCountsCount();
+        for (int genotypeIndex = 0; genotypeIndex < numCounts; genotypeIndex++) {
+            visit(field.apply(sampleInfo.getCounts(genotypeIndex)), consumer);
+        }
+    }
+
+    private static void visit(List<BaseInformationRecords.NumberWithFrequency> values,
+                              RecordValues.NumberWithFrequencyConsumer consumer) {
+        final int size = values.size();
+        for (int i = 0; i < size; i++) {
+            final BaseInformationRecords.NumberWithFrequency n = values.get(i);
+            consumer.accept(n.getNumber(), n.getFrequency());
+        }
+    }
 }
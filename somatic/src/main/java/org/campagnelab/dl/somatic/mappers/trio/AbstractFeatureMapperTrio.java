@@ -1,6 +1,7 @@
 package org.campagnelab.dl.somatic.mappers.trio;
 
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.somatic.mappers.AbstractFeatureMapper;
 import org.campagnelab.dl.somatic.mappers.GenotypeCount;
@@ -65,34 +66,23 @@ public abstract class AbstractFeatureMapperTrio<T extends BaseInformationRecords
         return list;
     }
 
-    private BaseInformationRecords.BaseInformationOrBuilder recordCached[][] = new BaseInformationRecords.BaseInformationOrBuilder[3][2];
-    private ObjectArrayList<? extends GenotypeCount> cachedResult[][] = new ObjectArrayList[3][2];
+    /**
+     * Keys of the count lists in the mapping context, indexed by [sampleIndex][sort].
+     */
+    private final CountsKey[][] countsKeys = {
+            {new CountsKey("trioCounts", getClass(), 0, false), new CountsKey("trioCounts", getClass(), 0, true)},
+            {new CountsKey("trioCounts", getClass(), 1, false), new CountsKey("trioCounts", getClass(), 1, true)},
+            {new CountsKey("trioCounts", getClass(), 2, false), new CountsKey("trioCounts", getClass(), 2, true)}};
 
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
                                                                     int sampleIndex, boolean sort) {
-        ObjectArrayList<? extends GenotypeCount> cached = getCachedResult(sampleIndex, sort);
-        if (cached != null && record.equals(recordCached[sampleIndex][sort ? 1 : 0])) {
-            return cached;
-        } else {
+        return MappingContext.of(record).get(countsKeys[sampleIndex][sort ? 1 : 0], () -> {
 
             assert oneSampleHasTumor(record.getSamplesList()) : "at least one sample must have hasTumor=true.";
 
             // a subclass is expected to override getGenotypeCountFactory to provide its own type for Genotype counts:
-            cached = getAllCounts(record, getGenotypeCountFactory(), sampleIndex, sort);
-            putInCache(record, cached, sampleIndex, sort);
-            return cached;
-        }
-    }
-
-    private void putInCache(BaseInformationRecords.BaseInformationOrBuilder record, ObjectArrayList<? extends GenotypeCount> cached, int sampleIndex, boolean sort) {
-        int index2 = sort ? 1 : 0;
-        recordCached[sampleIndex][index2] = record;
-        cachedResult[sampleIndex][index2] = cached;
-    }
-
-    private ObjectArrayList<? extends GenotypeCount> getCachedResult(int sampleIndex, boolean sort) {
-        int index2 = sort ? 1 : 0;
-        return cachedResult[sampleIndex][index2];
+            return getAllCounts(record, getGenotypeCountFactory(), sampleIndex, sort);
+        });
     }
 
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
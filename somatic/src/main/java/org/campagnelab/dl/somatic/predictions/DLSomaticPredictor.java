@@ -8,6 +8,7 @@ import org.campagnelab.goby.predictions.SomaticPredictor;
 import org.campagnelab.goby.reads.RandomAccessSequenceInterface;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class will be moved to the variation project to remove the dependency on model-utils, then loaded
@@ -47,6 +48,34 @@ public class DLSomaticPredictor implements SomaticPredictor {
                 readerIdxs);
     }
 
+    /**
+     * Submit a site for prediction in a minibatch, instead of predicting it immediately as predict() does. Futures
+     * complete in the order sites are submitted, when the minibatch is full or when flush() is called. Predictor
+     * instances are not thread-safe: each worker thread should load its own predictor.
+     *
+     * @return the future prediction for the site.
+     */
+    public CompletableFuture<ProtoPredictor.Prediction> predictLater(RandomAccessSequenceInterface genome, String referenceId,
+                                                                     SampleCountInfo[] sampleCounts, int referenceIndex,
+                                                                     int pos, DiscoverVariantPositionData list,
+                                                                     int[] readerIdxs) {
+        return model.submitMutation(genome, referenceId, sampleCounts, referenceIndex, pos, list, readerIdxs);
+    }
+
+    /**
+     * Predict the sites submitted with predictLater and not yet predicted.
+     */
+    public void flush() {
+        model.flush();
+    }
+
+    /**
+     * Set the number of sites submitted with predictLater that are predicted together.
+     */
+    public void setBatchSize(int batchSize) {
+        model.setBatchSize(batchSize);
+    }
+
     @Override
     public double probabilityIsMutated() {
 
@@ -5,8 +5,10 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.DomainDescriptorLoader;
 import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.FlattenedFeatureMapper;
 import org.campagnelab.dl.somatic.utils.ProtoPredictor;
 import org.campagnelab.dl.framework.models.ModelLoader;
+import org.campagnelab.dl.framework.models.PredictionBatcher;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.goby.algorithmic.dsv.DiscoverVariantPositionData;
 import org.campagnelab.goby.algorithmic.dsv.SampleCountInfo;
@@ -22,8 +24,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * Encapsulates a trained somatic model. Instances are not thread-safe: each worker thread should load its own model.
  * Created by rct66 on 6/23/16.
  */
 public class SomaticModel {
@@ -34,6 +38,12 @@ public class SomaticModel {
 
     private ProtoPredictor predictor;
     private boolean isTrio;
+    private PredictionBatcher<BaseInformationRecords.BaseInformation, ProtoPredictor.Prediction> batcher;
+    /**
+     * Number of sites predicted together by submitMutation, unless changed with setBatchSize. Can be set with
+     * -Dsomatic.prediction.batchSize when the model is loaded through the Goby SPI.
+     */
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("somatic.prediction.batchSize", 64);
 
 
 
@@ -80,8 +90,9 @@ public class SomaticModel {
         ModelLoader modelLoader = new ModelLoader(modelPath);
         Model model = modelLoader.loadModel(prefix);
         domainDescriptor = DomainDescriptorLoader.load(modelPath);
-        this.predictor = new ProtoPredictor(domainDescriptor, model, featureMapper);
+        this.predictor = new ProtoPredictor(domainDescriptor, model, FlattenedFeatureMapper.compile(featureMapper));
         this.isTrio = featureMapper.getClass().getCanonicalName().contains("Trio");
+        this.batcher = new PredictionBatcher<>(predictor::mutPredictions, DEFAULT_BATCH_SIZE);
     }
 
     /**
@@ -104,12 +115,50 @@ public class SomaticModel {
                                                    int referenceIndex, int position,
                                                    DiscoverVariantPositionData list,
                                                    int[] readerIdxs) {
+        return predictor.mutPrediction(toProto(genome, referenceID, sampleCounts, referenceIndex, position, list,
+                readerIdxs));
+    }
+
+    /**
+     * Submit a site for prediction. Sites are gathered into minibatches of getBatchSize() sites, and each minibatch
+     * is predicted with a single forward pass. The site is converted to a record before this method returns, so
+     * that the caller can reuse its arguments for the next site. Arguments are the same as for mutPrediction.
+     *
+     * @return the future prediction for the site. Futures complete in the order sites were submitted.
+     */
+    public CompletableFuture<ProtoPredictor.Prediction> submitMutation(RandomAccessSequenceInterface genome, String referenceID,
+                                                                       SampleCountInfo sampleCounts[],
+                                                                       int referenceIndex, int position,
+                                                                       DiscoverVariantPositionData list,
+                                                                       int[] readerIdxs) {
+        return batcher.submit(toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, readerIdxs));
+    }
+
+    /**
+     * Predict the sites submitted since the last minibatch, even if the minibatch is not full.
+     */
+    public void flush() {
+        batcher.flush();
+    }
+
+    public int getBatchSize() {
+        return batcher.getBatchSize();
+    }
+
+    public void setBatchSize(int batchSize) {
+        batcher.setBatchSize(batchSize);
+    }
+
+    private BaseInformationRecords.BaseInformation toProto(RandomAccessSequenceInterface genome, String referenceID,
+                                                           SampleCountInfo sampleCounts[],
+                                                           int referenceIndex, int position,
+                                                           DiscoverVariantPositionData list,
+                                                           int[] readerIdxs) {
         Integer[] sampleToReaderIdxs;
         sampleToReaderIdxs = isTrio ? (new Integer[]{readerIdxs[0], readerIdxs[1], readerIdxs[2]}) : (new Integer[]{readerIdxs[3], readerIdxs[2]});
 
         //in the past, predictions on 0 reads have been bypassed and given prediction value 0. leaving this out for now.
-        BaseInformationRecords.BaseInformation proto = ProtoHelper.toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, sampleToReaderIdxs);
-        return predictor.mutPrediction(proto);
+        return ProtoHelper.toProto(genome, referenceID, sampleCounts, referenceIndex, position, list, sampleToReaderIdxs);
     }
 
 }
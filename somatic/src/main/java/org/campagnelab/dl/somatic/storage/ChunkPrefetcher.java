@@ -0,0 +1,151 @@
+package org.campagnelab.dl.somatic.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates the records of an .sbi file while background threads read, decompress and parse the next chunks. At most
+ * queueDepth chunks are decoded ahead of the consumer, and records are returned in file order.
+ * <p>
+ * The prefetcher counts the time the consumer spends waiting for a chunk. A large stall time indicates that the job
+ * is limited by reading and decompression, a small one that it is limited by the work done with the records.
+ * <p>
+ * Chunks are decoded by a pool of daemon threads shared by all prefetchers. The size of the pool is set with the
+ * system property sbi.prefetch.threads (default: half of the available processors).
+ */
+public class ChunkPrefetcher implements Iterator<BaseInformationRecords.BaseInformation> {
+    static private Logger LOG = LoggerFactory.getLogger(ChunkPrefetcher.class);
+    public static final int NUM_THREADS = Integer.getInteger("sbi.prefetch.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ExecutorService DECODERS = Executors.newFixedThreadPool(NUM_THREADS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sbi-prefetch-%d").build());
+
+    private final String path;
+    private final long[] offsets;
+    private final int queueDepth;
+    private final ObjectArrayFIFOQueue<Future<List<BaseInformationRecords.BaseInformation>>> pending = new ObjectArrayFIFOQueue<>();
+    private int nextChunk;
+    private Iterator<BaseInformationRecords.BaseInformation> current;
+    private long recordsReturned;
+    private long stallNanos;
+    private long numStalls;
+    private boolean statisticsLogged;
+
+    /**
+     * @param path       path to the .sbi file.
+     * @param queueDepth maximum number of chunks decoded ahead of the consumer.
+     * @throws IOException when the chunks of the file cannot be located.
+     */
+    public ChunkPrefetcher(String path, int queueDepth) throws IOException {
+        this.path = path;
+        this.offsets = RecordIndex.chunkOffsets(path);
+        this.queueDepth = Math.max(1, queueDepth);
+        while (pending.size() < this.queueDepth && submitNextChunk()) ;
+    }
+
+    private boolean submitNextChunk() {
+        if (nextChunk >= offsets.length) {
+            return false;
+        }
+        final long offset = offsets[nextChunk++];
+        pending.enqueue(DECODERS.submit(() -> {
+            List<BaseInformationRecords.BaseInformation> records = new ObjectArrayList<>();
+            try (RecordReader reader = new RecordReader(offset, offset + 1, path)) {
+                BaseInformationRecords.BaseInformation record;
+                while ((record = reader.nextRecord()) != null) {
+                    records.add(record);
+                }
+            }
+            return records;
+        }));
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current == null || !current.hasNext()) {
+            if (pending.isEmpty()) {
+                if (!statisticsLogged) {
+                    statisticsLogged = true;
+                    LOG.info("Read {} records in {} chunks from {}. Waited {} ms for chunks to be decoded, {} times.",
+                            recordsReturned, offsets.length, path, getStallTimeMillis(), numStalls);
+                }
+                return false;
+            }
+            Future<List<BaseInformationRecords.BaseInformation>> chunk = pending.dequeue();
+            try {
+                if (chunk.isDone()) {
+                    current = chunk.get().iterator();
+                } else {
+                    final long start = System.nanoTime();
+                    current = chunk.get().iterator();
+                    stallNanos += System.nanoTime() - start;
+                    numStalls++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reading " + path, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new UncheckedIOException("Unable to read records from " + path, (IOException) e.getCause());
+                }
+                throw new RuntimeException("Unable to read records from " + path, e.getCause());
+            }
+            submitNextChunk();
+        }
+        return true;
+    }
+
+    @Override
+    public BaseInformationRecords.BaseInformation next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        recordsReturned++;
+        return current.next();
+    }
+
+    /**
+     * Stop decoding chunks ahead of the consumer.
+     */
+    public void close() {
+        while (!pending.isEmpty()) {
+            pending.dequeue().cancel(false);
+        }
+        nextChunk = offsets.length;
+        current = null;
+        statisticsLogged = true;
+    }
+
+    public long getRecordsReturned() {
+        return recordsReturned;
+    }
+
+    /**
+     * @return the time the consumer spent waiting for a chunk to be read and decompressed.
+     */
+    public long getStallTimeMillis() {
+        return stallNanos / 1000000;
+    }
+
+    /**
+     * @return the number of times the consumer had to wait for a chunk.
+     */
+    public long getNumStalls() {
+        return numStalls;
+    }
+}
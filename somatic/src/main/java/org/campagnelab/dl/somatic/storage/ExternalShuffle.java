@@ -0,0 +1,472 @@
+package org.campagnelab.dl.somatic.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedInputStream;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
+import org.campagnelab.goby.baseinfo.SequenceBaseInformationWriter;
+import org.campagnelab.goby.compression.MessageChunksWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+/**
+ * Shuffles the records of one or several .sbi files with an external-memory shuffle:
+ * <ol>
+ * <li>Input files are split into byte ranges that several threads read concurrently. Each record is sent to a
+ * temporary bucket file determined by hashing the seed with the position of the record in the input.</li>
+ * <li>Buckets are loaded, shuffled and compressed concurrently. The number of serialized bytes loaded at any
+ * time is bounded by a memory budget. A bucket larger than the budget is split into smaller buckets with another
+ * hash of the record positions, recursively, and its smaller buckets are shuffled one after the other.</li>
+ * <li>Shuffled buckets are appended to the output .sbi file in bucket order, and the properties of all buckets
+ * are merged in the output .sbip file.</li>
+ * </ol>
+ * The order of the output records only depends on the seed, on the input files, on the number of records
+ * per bucket and on the memory budget, not on the number of threads.
+ */
+public class ExternalShuffle {
+    static private Logger LOG = LoggerFactory.getLogger(ExternalShuffle.class);
+    /**
+     * Number of bytes after the last entry of a .sbi file (delimiter, codec and final message length).
+     */
+    private static final int TERMINATOR_LENGTH = MessageChunksWriter.DELIMITER_LENGTH + 1 + MessageChunksWriter.SIZE_OF_MESSAGE_LENGTH;
+    private static final long COPY_BUFFER_SIZE = 10 * 1024 * 1024;
+    /**
+     * Largest bucket that can be loaded in a byte array.
+     */
+    private static final long MAX_BUCKET_SIZE = Integer.MAX_VALUE - 8;
+    // number of records each reader thread reads between two updates of the progress logger:
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private final long seed;
+    private final int numThreads;
+    private final long memoryBudget;
+    private final int recordsPerBucket;
+    private final int chunkSize;
+    private long splitSize = 64 * 1024 * 1024;
+
+    /**
+     * Create a shuffle engine.
+     *
+     * @param seed             seed that determines the order of output records.
+     * @param numThreads       number of threads used to read input files and to shuffle buckets.
+     * @param memoryBudget     maximum number of serialized record bytes loaded in memory for shuffling. Buckets
+     *                         larger than the budget are split before they are loaded.
+     * @param recordsPerBucket average number of records in each bucket.
+     * @param chunkSize        number of records per chunk in the output file.
+     */
+    public ExternalShuffle(long seed, int numThreads, long memoryBudget, int recordsPerBucket, int chunkSize) {
+        this.seed = seed;
+        this.numThreads = Math.max(1, numThreads);
+        this.memoryBudget = memoryBudget;
+        this.recordsPerBucket = recordsPerBucket;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Set the size of the byte ranges that input files are split into. Changing the split size changes the order of
+     * output records.
+     *
+     * @param splitSize size of a split, in bytes.
+     */
+    public void setSplitSize(long splitSize) {
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * Shuffle input files into an output file.
+     *
+     * @param inputFiles       input .sbi files.
+     * @param outputFile       output .sbi file (or its basename).
+     * @param workingDirectory directory where temporary files are written. The directory is deleted when done.
+     * @return the number of records written.
+     * @throws IOException when input files cannot be read or output files cannot be written.
+     */
+    public long shuffle(List<String> inputFiles, String outputFile, File workingDirectory) throws IOException {
+        long totalRecords = 0;
+        for (String filename : inputFiles) {
+            RecordReader source = new RecordReader(filename);
+            totalRecords += source.getTotalRecords();
+            source.close();
+        }
+        final int numBuckets = (int) (totalRecords / recordsPerBucket) + 1;
+        FileUtils.forceMkdir(workingDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("shuffle-%d").build());
+        try {
+            long[] bucketSizes = scatter(inputFiles, workingDirectory, numBuckets, totalRecords, executor);
+            return shuffleBuckets(bucketSizes, SequenceBaseInformationReader.getBasename(outputFile),
+                    workingDirectory, executor);
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteDirectory(workingDirectory);
+        }
+    }
+
+    /**
+     * Read input files with several threads, and append each record to its bucket.
+     *
+     * @return the number of bytes written to each bucket.
+     */
+    private long[] scatter(List<String> inputFiles, File workingDirectory, int numBuckets, long totalRecords,
+                           ExecutorService executor) throws IOException {
+        // keep write buffers within a fraction of the memory budget:
+        final int bufferSize = (int) Math.max(1024, Math.min(64 * 1024, memoryBudget / 4 / numBuckets));
+        final DataOutputStream[] buckets = new DataOutputStream[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            buckets[i] = new DataOutputStream(new FastBufferedOutputStream(
+                    new FileOutputStream(bucketFile(workingDirectory, i)), bufferSize));
+        }
+        ProgressLogger pgRead = new ProgressLogger(LOG);
+        pgRead.itemsName = "sites";
+        pgRead.expectedUpdates = totalRecords;
+        pgRead.displayFreeMemory = true;
+        pgRead.start();
+
+        LOG.info("Filling {} temp buckets randomly", numBuckets);
+        List<Future<?>> splits = new ObjectArrayList<>();
+        int splitIndex = 0;
+        for (String filename : inputFiles) {
+            final String path = SequenceBaseInformationReader.getBasename(filename) + ".sbi";
+            final long length = new File(path).length();
+            for (long start = 0; start < length; start += splitSize) {
+                final long splitStart = start;
+                final long splitEnd = Math.min(length, start + splitSize);
+                // records are identified by their split and their index in the split:
+                final long splitKey = ((long) splitIndex++) << 32;
+                splits.add(executor.submit(() -> {
+                    RecordReader reader = new RecordReader(splitStart, splitEnd, path);
+                    try {
+                        long key = splitKey;
+                        // records read since the last progress update, counted locally to avoid contention:
+                        int numRead = 0;
+                        BaseInformationRecords.BaseInformation record;
+                        while ((record = reader.nextRecord()) != null) {
+                            byte[] bytes = record.toByteArray();
+                            DataOutputStream bucket = buckets[bucketOf(key, numBuckets)];
+                            synchronized (bucket) {
+                                bucket.writeLong(key);
+                                bucket.writeInt(bytes.length);
+                                bucket.write(bytes);
+                            }
+                            key++;
+                            if (++numRead == PROGRESS_INTERVAL) {
+                                updateProgress(pgRead, numRead);
+                                numRead = 0;
+                            }
+                        }
+                        updateProgress(pgRead, numRead);
+                    } finally {
+                        reader.close();
+                    }
+                    return null;
+                }));
+            }
+        }
+        waitFor(splits);
+        long[] bucketSizes = new long[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            buckets[i].close();
+            bucketSizes[i] = bucketFile(workingDirectory, i).length();
+        }
+        pgRead.stop();
+        return bucketSizes;
+    }
+
+    private static void updateProgress(ProgressLogger pg, int numRecords) {
+        synchronized (pg) {
+            pg.update(numRecords);
+        }
+    }
+
+    /**
+     * Shuffle and compress buckets concurrently, and append them to the output in bucket order.
+     */
+    private long shuffleBuckets(long[] bucketSizes, String outputBasename, File workingDirectory,
+                                ExecutorService executor) throws IOException {
+        final int numBuckets = bucketSizes.length;
+        LOG.info("Shuffling contents of each bucket and writing to output file. There are {} buckets to shuffle",
+                numBuckets);
+        // permits are kilobytes of serialized records loaded in memory:
+        final int budgetKB = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / 1024));
+        final Semaphore memory = new Semaphore(budgetKB, true);
+        List<Future<List<ShuffledPiece>>> shuffled = new ObjectArrayList<>(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            final int bucketIndex = i;
+            shuffled.add(executor.submit(() -> shuffleBucket(bucketFile(workingDirectory, bucketIndex),
+                    bucketSizes[bucketIndex], HashCommon.murmurHash3(seed + bucketIndex),
+                    shuffledBasename(workingDirectory, bucketIndex), memory, budgetKB)));
+        }
+
+        ProgressLogger pgTempBucket = new ProgressLogger(LOG);
+        pgTempBucket.itemsName = "buckets";
+        pgTempBucket.expectedUpdates = numBuckets;
+        pgTempBucket.displayFreeMemory = true;
+        pgTempBucket.start();
+        List<Properties> properties = new ObjectArrayList<>();
+        long numWritten = 0;
+        FileChannel output = new FileOutputStream(outputBasename + ".sbi").getChannel();
+        try {
+            // the last piece keeps its terminator, so we append a piece only when the next one is known:
+            File pending = null;
+            for (int i = 0; i < numBuckets; i++) {
+                for (ShuffledPiece piece : waitFor(shuffled.get(i))) {
+                    properties.add(piece.properties);
+                    numWritten += Long.parseLong(piece.properties.getProperty("numRecords", "0"));
+                    if (pending != null) {
+                        append(pending, output, true);
+                    }
+                    pending = new File(piece.basename + ".sbi");
+                }
+                pgTempBucket.update();
+            }
+            if (pending != null) {
+                append(pending, output, false);
+            }
+        } finally {
+            output.close();
+        }
+        pgTempBucket.stop();
+        if (properties.isEmpty()) {
+            // no records, write an empty file:
+            new RecordWriter(outputBasename).close();
+        } else {
+            SequenceBaseInformationWriter.writeProperties(outputBasename, properties);
+        }
+        return numWritten;
+    }
+
+    /**
+     * Shuffle one bucket and write it, compressed, to temporary .sbi files. A bucket larger than the memory budget is
+     * split into smaller buckets, which are shuffled one after the other.
+     *
+     * @param bucketFile     file with the records of the bucket.
+     * @param bucketSize     size of the bucket file, in bytes.
+     * @param bucketSeed     seed used to shuffle the bucket, or to split it.
+     * @param outputBasename basename of the shuffled .sbi file, and prefix of the files of smaller buckets.
+     * @param memory         permits for the kilobytes of serialized records loaded in memory.
+     * @param budgetKB       total number of permits.
+     * @return the shuffled pieces of the bucket, in output order. Empty when the bucket is empty.
+     */
+    private List<ShuffledPiece> shuffleBucket(File bucketFile, long bucketSize, long bucketSeed, String outputBasename,
+                                              Semaphore memory, int budgetKB) throws IOException, InterruptedException {
+        List<ShuffledPiece> pieces = new ObjectArrayList<>();
+        if (bucketSize == 0) {
+            bucketFile.delete();
+            return pieces;
+        }
+        if (bucketSize > Math.min(memoryBudget, MAX_BUCKET_SIZE)) {
+            long[] smallerSizes = split(bucketFile, bucketSize, bucketSeed, outputBasename);
+            if (smallerSizes != null) {
+                for (int i = 0; i < smallerSizes.length; i++) {
+                    pieces.addAll(shuffleBucket(new File(outputBasename + "-bucket" + i), smallerSizes[i],
+                            HashCommon.murmurHash3(bucketSeed + i + 1), outputBasename + "-" + i, memory, budgetKB));
+                }
+                return pieces;
+            }
+        }
+        final int permits = (int) Math.min(budgetKB, bucketSize / 1024 + 1);
+        memory.acquire(permits);
+        try {
+            pieces.add(new ShuffledPiece(outputBasename, shuffleInMemory(bucketFile, (int) bucketSize, bucketSeed,
+                    outputBasename)));
+        } finally {
+            memory.release(permits);
+        }
+        return pieces;
+    }
+
+    /**
+     * Split a bucket into smaller buckets, with a hash of the seed of the bucket and of the position of each record.
+     *
+     * @return the number of bytes written to each smaller bucket, or null when the bucket has a single record and
+     * cannot be split.
+     */
+    private long[] split(File bucketFile, long bucketSize, long bucketSeed, String outputBasename) throws IOException {
+        final long maxBucketSize = Math.min(memoryBudget, MAX_BUCKET_SIZE);
+        final int numBuckets = (int) Math.min(Integer.MAX_VALUE, 2 * (bucketSize / maxBucketSize) + 2);
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(bucketFile)))) {
+            long key = input.readLong();
+            int length = input.readInt();
+            if (12 + length == bucketSize) {
+                return null;
+            }
+            final DataOutputStream[] buckets = new DataOutputStream[numBuckets];
+            try {
+                for (int i = 0; i < numBuckets; i++) {
+                    buckets[i] = new DataOutputStream(new FastBufferedOutputStream(
+                            new FileOutputStream(outputBasename + "-bucket" + i)));
+                }
+                byte[] bytes = new byte[length];
+                for (long position = 0; position < bucketSize; position += 12 + length) {
+                    if (position > 0) {
+                        key = input.readLong();
+                        length = input.readInt();
+                    }
+                    if (bytes.length < length) {
+                        bytes = new byte[length];
+                    }
+                    input.readFully(bytes, 0, length);
+                    DataOutputStream bucket = buckets[bucketOf(key, bucketSeed, numBuckets)];
+                    bucket.writeLong(key);
+                    bucket.writeInt(length);
+                    bucket.write(bytes, 0, length);
+                }
+            } finally {
+                for (DataOutputStream bucket : buckets) {
+                    IOUtils.closeQuietly(bucket);
+                }
+            }
+        }
+        bucketFile.delete();
+        long[] bucketSizes = new long[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            bucketSizes[i] = new File(outputBasename + "-bucket" + i).length();
+        }
+        return bucketSizes;
+    }
+
+    /**
+     * Load a bucket, shuffle its records and write them, compressed, to a temporary .sbi file.
+     *
+     * @return the properties of the shuffled bucket.
+     */
+    private Properties shuffleInMemory(File bucketFile, int bucketSize, long bucketSeed, String basename)
+            throws IOException {
+        byte[] buffer = new byte[bucketSize];
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(bucketFile)))) {
+            input.readFully(buffer);
+        }
+        bucketFile.delete();
+        // locate records in the buffer:
+        int numRecords = 0;
+        for (int position = 0; position < bucketSize; numRecords++) {
+            position += 12 + readInt(buffer, position + 8);
+        }
+        final long[] keys = new long[numRecords];
+        final int[] offsets = new int[numRecords];
+        final int[] order = new int[numRecords];
+        for (int i = 0, position = 0; i < numRecords; i++) {
+            keys[i] = readLong(buffer, position);
+            offsets[i] = position + 12;
+            order[i] = i;
+            position += 12 + readInt(buffer, position + 8);
+        }
+        // records were appended by several threads, restore a deterministic order before shuffling:
+        IntArrays.quickSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Long.compare(keys[a], keys[b]);
+            }
+        });
+        IntArrays.shuffle(order, new XoRoShiRo128PlusRandom(bucketSeed));
+
+        RecordWriter writer = new RecordWriter(basename, chunkSize);
+        try {
+            for (int i : order) {
+                int offset = offsets[i];
+                writer.writeRecord(BaseInformationRecords.BaseInformation.parseFrom(
+                        CodedInputStream.newInstance(buffer, offset, readInt(buffer, offset - 4))));
+            }
+        } finally {
+            writer.close();
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(basename + ".sbip")) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    /**
+     * Append a shuffled bucket to the output and delete it.
+     *
+     * @param stripTerminator true when more entries will be appended after this bucket.
+     */
+    private static void append(File piece, FileChannel output, boolean stripTerminator) throws IOException {
+        FileChannel input = new FileInputStream(piece).getChannel();
+        try {
+            long bytesToCopy = input.size() - (stripTerminator ? TERMINATOR_LENGTH : 0);
+            long position = 0;
+            while (position < bytesToCopy) {
+                position += input.transferTo(position, Math.min(COPY_BUFFER_SIZE, bytesToCopy - position), output);
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        piece.delete();
+    }
+
+    private int bucketOf(long key, int numBuckets) {
+        return bucketOf(key, seed, numBuckets);
+    }
+
+    private static int bucketOf(long key, long seed, int numBuckets) {
+        return (int) ((HashCommon.murmurHash3(key ^ seed) >>> 1) % numBuckets);
+    }
+
+    private static File bucketFile(File workingDirectory, int bucketIndex) {
+        return new File(workingDirectory, "bucket" + bucketIndex);
+    }
+
+    private static String shuffledBasename(File workingDirectory, int bucketIndex) {
+        return new File(workingDirectory, "shuffled" + bucketIndex).getPath();
+    }
+
+    private static int readInt(byte[] buffer, int position) {
+        return ((buffer[position] & 0xff) << 24) | ((buffer[position + 1] & 0xff) << 16)
+                | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] buffer, int position) {
+        return ((long) readInt(buffer, position) << 32) | (readInt(buffer, position + 4) & 0xffffffffL);
+    }
+
+    /**
+     * A shuffled bucket, or a shuffled part of a bucket that was too large to be loaded at once.
+     */
+    private static class ShuffledPiece {
+        final String basename;
+        final Properties properties;
+
+        ShuffledPiece(String basename, Properties properties) {
+            this.basename = basename;
+            this.properties = properties;
+        }
+    }
+
+    private static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            waitFor(future);
+        }
+    }
+}
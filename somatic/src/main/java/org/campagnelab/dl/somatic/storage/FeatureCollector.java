@@ -1,13 +1,14 @@
 package org.campagnelab.dl.somatic.storage;
 
 
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.campagnelab.dl.somatic.mappers.FeatureMapperV18;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
 import java.io.*;
-import java.util.Set;
+import java.util.stream.Stream;
 
 
 /**
@@ -26,11 +27,13 @@ import java.util.Set;
  * @author rct66
  */
 public class FeatureCollector {
-    private static FeatureNameMapper mapper = new FeatureMapperV18();
+    // mappers keep per-record state, records are mapped with one mapper per thread:
+    private static final ThreadLocal<FeatureNameMapper> mapper = ThreadLocal.withInitial(FeatureMapperV18::new);
+    private static final int NUM_RECORDS_CHECKED_FOR_ORDER = 1000;
     String recordsPath;
     BufferedReader positionsReader;
     BufferedWriter outputWriter;
-    private Set<String> idSet = new ObjectOpenHashSet<String>();
+    private LongSet idSet = new LongOpenHashSet();
 
     public static void main(String[] args) throws IOException {
         if (args.length<1) {
@@ -51,16 +54,15 @@ public class FeatureCollector {
         this.outputWriter = new BufferedWriter(new FileWriter(outputPath));
     }
 
-    private void outputRecord(BaseInformationRecords.BaseInformation base) throws IOException {
-        String out =
-                + base.getReferenceIndex() + ":" + base.getPosition() + "\t"
+    private String formatRecord(BaseInformationRecords.BaseInformation base) {
+        return base.getReferenceIndex() + ":" + base.getPosition() + "\t"
                 + getSumCounts(base)
                 + getFeatures(base) + "\n";
-        outputWriter.append(out);
     }
 
     private String getFeatures(BaseInformationRecords.BaseInformation base) {
         StringBuffer sb = new StringBuffer();
+        FeatureNameMapper mapper = FeatureCollector.mapper.get();
         mapper.prepareToNormalize(base,-1);
         for (int i = 0; i < mapper.numberOfFeatures(); i++){
             sb.append("\t" + mapper.produceFeature(base,i));
@@ -82,25 +84,56 @@ public class FeatureCollector {
         String line;
         while ((line = positionsReader.readLine()) != null) {
             String[] fields = line.split("\t");
-            idSet.add(fields[0]+":"+fields[1]);
+            try {
+                idSet.add(RecordIndex.key(Integer.parseInt(fields[0]), Integer.parseInt(fields[1])));
+            } catch (NumberFormatException e) {
+                // header line, not a position
+            }
         }
     }
 
     private void execute() throws IOException {
         outputWriter.write(getHeader());
-        RecordReader reader = new RecordReader(recordsPath);
-        for (BaseInformationRecords.BaseInformation base : reader) {
-            if (idSet.contains(base.getReferenceIndex()+":"+base.getPosition())) {
-                outputRecord(base);
-            }
+        // sites are mapped in parallel and written in file order:
+        try (Stream<BaseInformationRecords.BaseInformation> sites = sites()) {
+            sites.map(this::formatRecord).forEachOrdered(line -> {
+                try {
+                    outputWriter.append(line);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
         }
         outputWriter.close();
     }
 
+    /**
+     * Return the records at the positions. For files sorted by position, only the chunks that contain the positions
+     * are decompressed, using the index of the file. Any chunk of a randomized file may contain the positions, so
+     * these files are scanned, with chunks decompressed in parallel.
+     */
+    private Stream<BaseInformationRecords.BaseInformation> sites() throws IOException {
+        if (RecordIndex.startsSorted(recordsPath, NUM_RECORDS_CHECKED_FOR_ORDER)) {
+            IndexedRecordReader reader = new IndexedRecordReader(recordsPath);
+            if (reader.getIndex().isSorted()) {
+                return reader.sites(idSet).parallelStream();
+            }
+        }
+        RecordReader reader = new RecordReader(recordsPath);
+        return reader.stream(true).filter(base -> idSet.contains(RecordIndex.key(base))).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
 
     private String getHeader() {
         StringBuffer sb = new StringBuffer();
         sb.append("id\tsumCounts");
+        FeatureNameMapper mapper = FeatureCollector.mapper.get();
         for (int i = 0; i < mapper.numberOfFeatures(); i++){
             sb.append("\t" + mapper.getFeatureName(i));
         }
@@ -0,0 +1,83 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reads the records of a genomic region, or of a set of sites, from an .sbi file. The reader uses the chunk index
+ * of the file (see {@link RecordIndex}) and decompresses only the chunks that may contain the requested positions.
+ * The index is built the first time a file is opened with this reader.
+ */
+public class IndexedRecordReader {
+    private final String path;
+    private final RecordIndex index;
+
+    public IndexedRecordReader(String filename) throws IOException {
+        this.path = SequenceBaseInformationReader.getBasename(filename) + ".sbi";
+        this.index = RecordIndex.loadOrBuild(filename);
+    }
+
+    public RecordIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Return the records of a region, in file order.
+     *
+     * @param referenceIndex index of the reference sequence.
+     * @param startPosition  first position of the region.
+     * @param endPosition    last position of the region (inclusive).
+     * @return the records with positions in the region.
+     * @throws IOException when the file cannot be read.
+     */
+    public List<BaseInformationRecords.BaseInformation> region(int referenceIndex, int startPosition, int endPosition) throws IOException {
+        final long fromKey = RecordIndex.key(referenceIndex, startPosition);
+        final long toKey = RecordIndex.key(referenceIndex, endPosition);
+        return read(index.chunksOverlapping(fromKey, toKey), record -> {
+            final long key = RecordIndex.key(record);
+            return key >= fromKey && key <= toKey;
+        });
+    }
+
+    /**
+     * Return the records at a set of sites, in file order.
+     *
+     * @param sites keys of the sites, see {@link RecordIndex#key(int, int)}.
+     * @return the records found at these sites.
+     * @throws IOException when the file cannot be read.
+     */
+    public List<BaseInformationRecords.BaseInformation> sites(LongSet sites) throws IOException {
+        IntSortedSet chunks = new IntRBTreeSet();
+        for (long site : sites) {
+            chunks.addAll(index.chunksOverlapping(site, site));
+        }
+        return read(new IntArrayList(chunks), record -> sites.contains(RecordIndex.key(record)));
+    }
+
+    private List<BaseInformationRecords.BaseInformation> read(IntList chunks,
+                                                              Predicate<BaseInformationRecords.BaseInformation> filter) throws IOException {
+        List<BaseInformationRecords.BaseInformation> result = new ObjectArrayList<>();
+        for (int chunk : chunks) {
+            final long offset = index.chunkOffset(chunk);
+            try (RecordReader reader = new RecordReader(offset, offset + 1, path)) {
+                BaseInformationRecords.BaseInformation record;
+                while ((record = reader.nextRecord()) != null) {
+                    if (filter.test(record)) {
+                        result.add(record);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -3,6 +3,7 @@ package org.campagnelab.dl.somatic.storage;
 
 import com.google.protobuf.TextFormat;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
 import java.io.IOException;
@@ -25,6 +26,7 @@ import java.util.Set;
  * @author rct66
  */
 public class ProtobufPrinter {
+    private static final int NUM_RECORDS_CHECKED_FOR_ORDER = 1000;
 
     String path;
     boolean focusPrint = false;
@@ -71,6 +73,20 @@ public class ProtobufPrinter {
 
     public void print() {
         try {
+            if (focusPrint && !customPosOnly && RecordIndex.startsSorted(path, NUM_RECORDS_CHECKED_FOR_ORDER)) {
+                // seek to the chunks that contain the position, using the index of the file:
+                IndexedRecordReader indexedReader = new IndexedRecordReader(path);
+                if (indexedReader.getIndex().isSorted()) {
+                    LongOpenHashSet site = new LongOpenHashSet();
+                    site.add(RecordIndex.key(refIndex, position));
+                    for (BaseInformationRecords.BaseInformation base : indexedReader.sites(site)) {
+                        recordPrinter(base);
+                        actualCount++;
+                    }
+                    return;
+                }
+            }
+            // randomized files are scanned, since any chunk may contain the position:
             RecordReader reader = new RecordReader(path);
             for (BaseInformationRecords.BaseInformation base : reader) {
                 if (!(focusPrint || customPosOnly) ||
@@ -0,0 +1,292 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
+import org.campagnelab.goby.compression.MessageChunksWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the compressed chunks of an .sbi file. For each chunk, the index stores the byte offset where the chunk
+ * starts, the number of records in the chunk, and the smallest and largest genomic position (referenceIndex, position)
+ * of its records. Readers use the index to decompress only the chunks that may contain a region or a site.
+ * <p>
+ * The index is stored next to the .sbi file, in a file with the .sbii extension. Lookups are fastest when records
+ * are sorted by genomic position (as written by Goby). Randomized files can be indexed, but most of their chunks
+ * overlap any region.
+ */
+public class RecordIndex {
+    static private Logger LOG = LoggerFactory.getLogger(RecordIndex.class);
+    public static final String EXTENSION = ".sbii";
+    private static final int FORMAT_VERSION = 2;
+    private static final int CHUNK_HEADER_LENGTH = 1 + MessageChunksWriter.DELIMITER_LENGTH + MessageChunksWriter.SIZE_OF_MESSAGE_LENGTH;
+
+    private final long sbiLength;
+    private final long[] offsets;
+    private final int[] numRecords;
+    private final long[] minKeys;
+    private final long[] maxKeys;
+    private final boolean sorted;
+
+    private RecordIndex(long sbiLength, long[] offsets, int[] numRecords, long[] minKeys, long[] maxKeys) {
+        this.sbiLength = sbiLength;
+        this.offsets = offsets;
+        this.numRecords = numRecords;
+        this.minKeys = minKeys;
+        this.maxKeys = maxKeys;
+        boolean sorted = true;
+        for (int i = 1; i < offsets.length && sorted; i++) {
+            sorted = maxKeys[i - 1] <= minKeys[i];
+        }
+        this.sorted = sorted;
+    }
+
+    /**
+     * Combine a genomic position into a key that sorts in genomic order.
+     */
+    public static long key(int referenceIndex, int position) {
+        return ((long) referenceIndex) << 32 | (position & 0xFFFFFFFFL);
+    }
+
+    public static long key(BaseInformationRecords.BaseInformationOrBuilder record) {
+        return key(record.getReferenceIndex(), record.getPosition());
+    }
+
+    /**
+     * Return the index of a file, building and saving the index when it is missing or older than the file. When the
+     * index cannot be read, it is rebuilt. When it cannot be saved (e.g., the directory of the file is read-only), the
+     * index is only kept in memory.
+     *
+     * @param filename path to the .sbi file, or its basename.
+     * @return the index.
+     * @throws IOException when the .sbi file cannot be read.
+     */
+    public static RecordIndex loadOrBuild(String filename) throws IOException {
+        String basename = SequenceBaseInformationReader.getBasename(filename);
+        File indexFile = new File(basename + EXTENSION);
+        long sbiLength = new File(basename + ".sbi").length();
+        if (indexFile.exists()) {
+            try {
+                RecordIndex index = load(basename);
+                if (index.sbiLength == sbiLength) {
+                    return index;
+                }
+                LOG.info("Index {} is out of date, rebuilding it.", indexFile);
+            } catch (IOException e) {
+                LOG.warn("Unable to read index {}, rebuilding it: {}", indexFile, e.getMessage());
+            }
+        }
+        RecordIndex index = build(basename);
+        try {
+            index.save(basename);
+        } catch (IOException e) {
+            LOG.warn("Unable to save index {}, the index will be kept in memory: {}", indexFile, e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Check whether the first records of a file are sorted by genomic position. Only the first chunks of the file
+     * are read, so this is a cheap test to tell files written in genomic order from randomized files before
+     * building an index.
+     *
+     * @param filename   path to the .sbi file, or its basename.
+     * @param numRecords number of records to check.
+     * @return true when the first numRecords records (or all the records of a smaller file) are sorted.
+     * @throws IOException when the file cannot be read.
+     */
+    public static boolean startsSorted(String filename, int numRecords) throws IOException {
+        try (RecordReader reader = new RecordReader(filename)) {
+            long previousKey = Long.MIN_VALUE;
+            BaseInformationRecords.BaseInformation record;
+            for (int i = 0; i < numRecords && (record = reader.nextRecord()) != null; i++) {
+                final long key = key(record);
+                if (key < previousKey) {
+                    return false;
+                }
+                previousKey = key;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Index a file in one pass. Chunks are decompressed in parallel. Empty chunks (e.g., written when a writer is
+     * closed) are left out of the index, since they have no range of positions.
+     *
+     * @param filename path to the .sbi file, or its basename.
+     * @return the index.
+     * @throws IOException when the file cannot be read.
+     */
+    public static RecordIndex build(String filename) throws IOException {
+        final String path = SequenceBaseInformationReader.getBasename(filename) + ".sbi";
+        final long[] offsets = chunkOffsets(path);
+        final int numChunks = offsets.length;
+        final int[] numRecords = new int[numChunks];
+        final long[] minKeys = new long[numChunks];
+        final long[] maxKeys = new long[numChunks];
+        IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int count = 0;
+            try (RecordReader reader = new RecordReader(offsets[chunk], offsets[chunk] + 1, path)) {
+                BaseInformationRecords.BaseInformation record;
+                while ((record = reader.nextRecord()) != null) {
+                    final long key = key(record);
+                    min = Math.min(min, key);
+                    max = Math.max(max, key);
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to index " + path, e);
+            }
+            numRecords[chunk] = count;
+            minKeys[chunk] = min;
+            maxKeys[chunk] = max;
+        });
+        int numIndexed = 0;
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            if (numRecords[chunk] > 0) {
+                offsets[numIndexed] = offsets[chunk];
+                numRecords[numIndexed] = numRecords[chunk];
+                minKeys[numIndexed] = minKeys[chunk];
+                maxKeys[numIndexed] = maxKeys[chunk];
+                numIndexed++;
+            }
+        }
+        return new RecordIndex(new File(path).length(), Arrays.copyOf(offsets, numIndexed),
+                Arrays.copyOf(numRecords, numIndexed), Arrays.copyOf(minKeys, numIndexed),
+                Arrays.copyOf(maxKeys, numIndexed));
+    }
+
+    /**
+     * Find where chunks start, by reading the chunk headers. Chunks are not decompressed.
+     */
+    static long[] chunkOffsets(String path) throws IOException {
+        LongList offsets = new LongArrayList();
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            final long length = file.length();
+            long position = 0;
+            byte[] delimiter = new byte[MessageChunksWriter.DELIMITER_LENGTH];
+            while (position + CHUNK_HEADER_LENGTH <= length) {
+                file.seek(position);
+                // codec registration code:
+                file.readByte();
+                file.readFully(delimiter);
+                for (byte b : delimiter) {
+                    if (b != MessageChunksWriter.DELIMITER_CONTENT) {
+                        throw new IOException(String.format("No chunk delimiter at offset %d in %s", position, path));
+                    }
+                }
+                final int chunkLength = file.readInt();
+                if (chunkLength == 0) {
+                    // end of file marker:
+                    break;
+                }
+                offsets.add(position);
+                position += CHUNK_HEADER_LENGTH + chunkLength;
+            }
+        }
+        return offsets.toLongArray();
+    }
+
+    public void save(String filename) throws IOException {
+        String basename = SequenceBaseInformationReader.getBasename(filename);
+        try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(
+                new FileOutputStream(basename + EXTENSION)))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(sbiLength);
+            output.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                output.writeLong(offsets[i]);
+                output.writeInt(numRecords[i]);
+                output.writeLong(minKeys[i]);
+                output.writeLong(maxKeys[i]);
+            }
+        }
+    }
+
+    public static RecordIndex load(String filename) throws IOException {
+        String basename = SequenceBaseInformationReader.getBasename(filename);
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(
+                new FileInputStream(basename + EXTENSION)))) {
+            final int version = input.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported index version %d in %s%s", version, basename, EXTENSION));
+            }
+            final long sbiLength = input.readLong();
+            final int numChunks = input.readInt();
+            long[] offsets = new long[numChunks];
+            int[] numRecords = new int[numChunks];
+            long[] minKeys = new long[numChunks];
+            long[] maxKeys = new long[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                offsets[i] = input.readLong();
+                numRecords[i] = input.readInt();
+                minKeys[i] = input.readLong();
+                maxKeys[i] = input.readLong();
+            }
+            return new RecordIndex(sbiLength, offsets, numRecords, minKeys, maxKeys);
+        }
+    }
+
+    /**
+     * Return the chunks that may contain records with keys between fromKey and toKey (inclusive), in file order.
+     */
+    public IntList chunksOverlapping(long fromKey, long toKey) {
+        IntList chunks = new IntArrayList();
+        int first = 0;
+        if (sorted) {
+            // skip the chunks that end before the range:
+            int low = 0;
+            int high = offsets.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (maxKeys[middle] < fromKey) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            first = low;
+        }
+        for (int chunk = first; chunk < offsets.length; chunk++) {
+            if (sorted && minKeys[chunk] > toKey) {
+                break;
+            }
+            if (minKeys[chunk] <= toKey && maxKeys[chunk] >= fromKey) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    public int numChunks() {
+        return offsets.length;
+    }
+
+    public long chunkOffset(int chunk) {
+        return offsets[chunk];
+    }
+
+    public int numRecords(int chunk) {
+        return numRecords[chunk];
+    }
+
+    /**
+     * @return true when chunks hold consecutive ranges of genomic positions.
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+}
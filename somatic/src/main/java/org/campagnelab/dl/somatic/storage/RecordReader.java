@@ -6,11 +6,15 @@ import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
 import org.campagnelab.goby.exception.GobyRuntimeException;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Spliterator;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A reader for base information records stored in protobuf format.
@@ -20,10 +24,60 @@ import java.util.function.Consumer;
 public class RecordReader implements Closeable, RecordIterable, RecordReaderI<BaseInformationRecords.BaseInformation> {
 
     private SequenceBaseInformationReader reader;
+    private final String path;
+    private final int prefetchChunks;
+    private ChunkPrefetcher prefetcher;
 
+    /**
+     * Reads all the records of a file, decoding chunks on the thread that reads the records.
+     *
+     * @param filepath the .sbi file.
+     * @throws IOException
+     */
     public RecordReader(String filepath) throws IOException {
+        this(filepath, 0);
+    }
+
+    /**
+     * Reads all the records of a file, decoding chunks in background threads.
+     *
+     * @param filepath       the .sbi file.
+     * @param prefetchChunks maximum number of chunks decoded ahead of the consumer. Use 0 to decode chunks on
+     *                       the thread that reads the records.
+     * @throws IOException
+     */
+    public RecordReader(String filepath, int prefetchChunks) throws IOException {
 
         reader = new SequenceBaseInformationReader(filepath);
+        path = SequenceBaseInformationReader.getBasename(filepath) + ".sbi";
+        this.prefetchChunks = prefetchChunks;
+    }
+
+    /**
+     * Reads the records of the chunks that start between two byte positions of the file. Splitting a file
+     * into adjacent byte ranges makes it possible to read each record exactly once with several readers.
+     *
+     * @param startOffset position of the first byte of the range.
+     * @param endOffset   position after the last byte of the range.
+     * @param filepath    the .sbi file.
+     * @throws IOException
+     */
+    public RecordReader(long startOffset, long endOffset, String filepath) throws IOException {
+
+        reader = new SequenceBaseInformationReader(startOffset, endOffset, filepath);
+        path = SequenceBaseInformationReader.getBasename(filepath) + ".sbi";
+        prefetchChunks = 0;
+    }
+
+    /**
+     * Return the prefetcher of this reader, starting it on the first call. Returns null when chunks are decoded
+     * by the reading thread.
+     */
+    private ChunkPrefetcher prefetcher() throws IOException {
+        if (prefetcher == null && prefetchChunks > 0) {
+            prefetcher = new ChunkPrefetcher(path, prefetchChunks);
+        }
+        return prefetcher;
     }
 
 
@@ -34,6 +88,9 @@ public class RecordReader implements Closeable, RecordIterable, RecordReaderI<Ba
      * @throws IOException
      */
     public BaseInformationRecords.BaseInformation nextRecord() throws IOException {
+        if (prefetcher() != null) {
+            return prefetcher.hasNext() ? prefetcher.next() : null;
+        }
         try {
             if (reader.hasNext()) return reader.next();
             else return null;
@@ -55,6 +112,9 @@ public class RecordReader implements Closeable, RecordIterable, RecordReaderI<Ba
      */
     @Override
     public void close() throws IOException {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
         IOUtils.closeQuietly(reader);
     }
 
@@ -64,7 +124,24 @@ public class RecordReader implements Closeable, RecordIterable, RecordReaderI<Ba
      * @return records loaded
      */
     public long getRecordsLoadedSoFar() {
-        return reader.getRecordsLoadedSoFar();
+        return prefetcher != null ? prefetcher.getRecordsReturned() : reader.getRecordsLoadedSoFar();
+    }
+
+    /**
+     * Gets the time spent waiting for chunks to be decoded by the background threads. Compare with the elapsed
+     * time to find out if a job is limited by reading records or by the work done with them.
+     *
+     * @return stall time in milliseconds, 0 when chunks are not prefetched.
+     */
+    public long getStallTimeMillis() {
+        return prefetcher != null ? prefetcher.getStallTimeMillis() : 0;
+    }
+
+    /**
+     * @return the number of times the reader waited for a chunk to be decoded, 0 when chunks are not prefetched.
+     */
+    public long getNumStalls() {
+        return prefetcher != null ? prefetcher.getNumStalls() : 0;
     }
 
     /**
@@ -77,53 +154,73 @@ public class RecordReader implements Closeable, RecordIterable, RecordReaderI<Ba
     }
 
 
+    /**
+     * Returns an iterator over all the records of the file. Each call starts a new pass from the first record of the
+     * file (e.g., for each epoch of training). When chunks are prefetched, the prefetcher of the previous pass is
+     * stopped, and nextRecord() continues from the position of the new iterator.
+     *
+     * @return an iterator over the records of the file.
+     */
     @Override
     public Iterator<BaseInformationRecords.BaseInformation> iterator() {
-        return reader.iterator();
+        if (prefetchChunks == 0) {
+            return reader.iterator();
+        }
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        try {
+            prefetcher = new ChunkPrefetcher(path, prefetchChunks);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read records from " + path, e);
+        }
+        return prefetcher;
     }
 
     /**
-     * Performs the given action for each element of the {@code Iterable}
-     * until all elements have been processed or the action throws an
-     * exception.  Unless otherwise specified by the implementing class,
-     * actions are performed in the order of iteration (if an iteration order
-     * is specified).  Exceptions thrown by the action are relayed to the
-     * caller.
+     * Performs the given action for each record of the file, in a new pass over the file.
      *
-     * @param action The action to be performed for each element
-     * @throws NullPointerException if the specified action is null
-     * @implSpec <p>The default implementation behaves as if:
-     * <pre>{@code
-     *     for (T t : this)
-     *         action.accept(t);
-     * }</pre>
-     * @since 1.8
+     * @param action The action to be performed for each record
      */
     @Override
     public void forEach(Consumer<? super BaseInformationRecords.BaseInformation> action) {
-
+        for (BaseInformationRecords.BaseInformation record : this) {
+            action.accept(record);
+        }
     }
 
     /**
-     * Creates a {@link Spliterator} over the elements described by this
-     * {@code Iterable}.
+     * Creates a spliterator over all the records of the file. The spliterator reads the file independently of this
+     * reader, and splits at compressed chunk boundaries, so that parallel streams decompress and parse chunks on
+     * several threads.
      *
-     * @return a {@code Spliterator} over the elements described by this
-     * {@code Iterable}.
-     * @implSpec The default implementation creates an
-     * <em><a href="Spliterator.html#binding">early-binding</a></em>
-     * spliterator from the iterable's {@code Iterator}.  The spliterator
-     * inherits the <em>fail-fast</em> properties of the iterable's iterator.
-     * @implNote The default implementation should usually be overridden.  The
-     * spliterator returned by the default implementation has poor splitting
-     * capabilities, is unsized, and does not report any spliterator
-     * characteristics. Implementing classes can nearly always provide a
-     * better implementation.
-     * @since 1.8
+     * @return a {@code Spliterator} over the records of the file.
      */
     @Override
     public Spliterator<BaseInformationRecords.BaseInformation> spliterator() {
-        return null;
+        return spliterator(RecordSpliterator.DEFAULT_MIN_SPLIT_SIZE);
+    }
+
+    /**
+     * Creates a spliterator over all the records of the file.
+     *
+     * @param minSplitSize byte ranges smaller than twice this size are not split further.
+     * @return a {@code Spliterator} over the records of the file.
+     */
+    public Spliterator<BaseInformationRecords.BaseInformation> spliterator(long minSplitSize) {
+        return new RecordSpliterator(path, new File(path).length(), getTotalRecords(), minSplitSize);
+    }
+
+    /**
+     * Returns a stream over all the records of the file. Parallel streams keep the order of records in the file for
+     * ordered operations (e.g., forEachOrdered, collect). Call unordered() on the stream when order does not matter,
+     * to let threads make progress independently.
+     *
+     * @param parallel true to process the records with all the threads of the common fork-join pool.
+     * @return a stream of the records.
+     */
+    public Stream<BaseInformationRecords.BaseInformation> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
     }
 
 
@@ -0,0 +1,115 @@
+package org.campagnelab.dl.somatic.storage;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the records of an .sbi file. The spliterator covers a byte range of the file and reads the
+ * records of the compressed chunks that start in this range. Splitting divides the byte range in two, so that each
+ * split decompresses and parses its own chunks. Records are reported in file order, which parallel streams preserve
+ * unless the stream is made unordered.
+ * <p>
+ * Each split opens its own reader when traversal starts and closes it once its records have been consumed.
+ */
+public class RecordSpliterator implements Spliterator<BaseInformationRecords.BaseInformation> {
+    /**
+     * Ranges smaller than twice this size are not split further. Chunks hold thousands of records, so smaller
+     * ranges would mostly contain no chunk start.
+     */
+    public static final long DEFAULT_MIN_SPLIT_SIZE = 1024 * 1024;
+
+    private final String path;
+    private final long minSplitSize;
+    private final double recordsPerByte;
+    private long start;
+    private final long end;
+    private boolean exactSize;
+    private RecordReader reader;
+    private boolean exhausted;
+
+    /**
+     * Create a spliterator over all the records of a file.
+     *
+     * @param path         path to the .sbi file.
+     * @param length       length of the file, in bytes.
+     * @param numRecords   number of records in the file.
+     * @param minSplitSize ranges smaller than twice this number of bytes are not split.
+     */
+    public RecordSpliterator(String path, long length, long numRecords, long minSplitSize) {
+        this(path, 0, length, length == 0 ? 0 : ((double) numRecords) / length, minSplitSize);
+        this.exactSize = true;
+    }
+
+    private RecordSpliterator(String path, long start, long end, double recordsPerByte, long minSplitSize) {
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.recordsPerByte = recordsPerByte;
+        this.minSplitSize = Math.max(1, minSplitSize);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BaseInformationRecords.BaseInformation> action) {
+        BaseInformationRecords.BaseInformation record = next();
+        if (record == null) {
+            return false;
+        }
+        action.accept(record);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super BaseInformationRecords.BaseInformation> action) {
+        BaseInformationRecords.BaseInformation record;
+        while ((record = next()) != null) {
+            action.accept(record);
+        }
+    }
+
+    private BaseInformationRecords.BaseInformation next() {
+        try {
+            if (exhausted) {
+                return null;
+            }
+            if (reader == null) {
+                reader = new RecordReader(start, end, path);
+                // the range is now being read, it can no longer be split:
+                start = end;
+            }
+            BaseInformationRecords.BaseInformation record = reader.nextRecord();
+            if (record == null) {
+                exhausted = true;
+                reader.close();
+            }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read records from " + path, e);
+        }
+    }
+
+    @Override
+    public Spliterator<BaseInformationRecords.BaseInformation> trySplit() {
+        if (reader != null || end - start < 2 * minSplitSize) {
+            return null;
+        }
+        final long middle = start + (end - start) / 2;
+        RecordSpliterator prefix = new RecordSpliterator(path, start, middle, recordsPerByte, minSplitSize);
+        start = middle;
+        exactSize = false;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.round((end - start) * recordsPerByte);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE | (exactSize && reader == null ? SIZED : 0);
+    }
+}
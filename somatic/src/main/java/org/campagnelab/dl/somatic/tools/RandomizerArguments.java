@@ -25,5 +25,14 @@ public class RandomizerArguments implements ToolArguments {
     @Parameter(required = false, names = {"-c", "--chunk-size"}, description = "Size of chunks for each bucket writer.")
 
     public int chunkSizePerWriter = 1000;
+
+    @Parameter(required = false, names = {"-t", "--num-threads"}, description = "Number of threads used to read input files and to shuffle buckets. The output does not depend on the number of threads.")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(required = false, names = {"--memory-budget"}, description = "Maximum amount of serialized records (in megabytes) loaded in memory at any time to shuffle buckets. Larger buckets are split before they are shuffled.")
+    public int memoryBudget = 1024;
+
+    @Parameter(required = false, names = {"--random-seed"}, description = "Random seed. The same seed produces the same output for the same input files.")
+    public long seed = 2398823;
 }
 
@@ -1,9 +1,11 @@
 package org.campagnelab.dl.somatic.utils;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
 import org.campagnelab.dl.framework.models.ModelOutputHelper;
 import org.campagnelab.dl.somatic.learning.domains.SomaticFrequencyInterpreter;
 import org.campagnelab.dl.somatic.learning.domains.predictions.IsMutatedPrediction;
@@ -99,10 +101,43 @@ public class ProtoPredictor {
                     outputHelper.getOutput(SOMATIC_FREQUENCY_INDEX));
             prediction.setPredictedSomaticFrequency(somaticFrequencyPrediction.predictedValue);
         }
-
+        MappingContext.clear();
         return prediction;
     }
 
+    /**
+     * Predict a minibatch of records. Computation graphs predict the minibatch with a single forward pass; other
+     * models predict one record at a time.
+     *
+     * @param records records to predict.
+     * @return one prediction per record, in record order.
+     */
+    public List<Prediction> mutPredictions(List<BaseInformationRecords.BaseInformation> records) {
+        List<Prediction> predictions = new ObjectArrayList<>(records.size());
+        if (!(model instanceof ComputationGraph) || domainDescriptor == null) {
+            for (BaseInformationRecords.BaseInformation record : records) {
+                predictions.add(mutPrediction(record));
+            }
+            return predictions;
+        }
+        outputHelper.predictForRecords(model, records, mapper);
+        int recordIndex = 0;
+        for (BaseInformationRecords.BaseInformation record : records) {
+            Prediction prediction = new Prediction();
+            IsMutatedPrediction isSomaticPrediction = isSomatic.interpret(record,
+                    outputHelper.getOutput(PROBABILITY_OUTPUT_INDEX, recordIndex));
+            prediction.set((float) isSomaticPrediction.predictedLabelYes,
+                    (float) isSomaticPrediction.predictedLabelNo);
+            SomaticFrequencyPrediction somaticFrequencyPrediction = somaticFrequency.interpret(record,
+                    outputHelper.getOutput(SOMATIC_FREQUENCY_INDEX, recordIndex));
+            prediction.setPredictedSomaticFrequency(somaticFrequencyPrediction.predictedValue);
+            MappingContext.clear();
+            predictions.add(prediction);
+            recordIndex++;
+        }
+        return predictions;
+    }
+
     public Prediction getNullPrediction() {
         return new Prediction(0, 0);
     }
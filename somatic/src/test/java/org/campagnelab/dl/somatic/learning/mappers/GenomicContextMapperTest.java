@@ -1,14 +1,19 @@
 package org.campagnelab.dl.somatic.learning.mappers;
 
 import com.google.protobuf.TextFormat;
+import org.campagnelab.dl.framework.mappers.ConcatFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.OneHotBaseFeatureMapper;
 import org.campagnelab.dl.somatic.mappers.GenomicContextMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.junit.Test;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.function.Function;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 /**
  * Created by fac2003 on 5/27/16.
@@ -35,6 +40,77 @@ public class GenomicContextMapperTest {
         }
     }
 
+    @Test
+    public void matchesOneHotBaseMappers() {
+        for (String context : new String[]{"ATCGNOacgtnATCGNOacgtn", "ATCGNOacgtnATCGNOacgtnAC", "ATCGNOacgtnATCGNOacgtnACG",
+                "ATCGNOacgtnATCGNOacgtnACGTACGT", "ATCGNOacgtnATCGNOacgt"}) {
+            BaseInformationRecords.BaseInformation record = BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition(1).setReferenceIndex(0).setGenomicSequenceContext(context).build();
+            assertSameFeatures(record, new GenomicContextMapper(21), oneHotMappers(21,
+                    r -> trim(21, r.getGenomicSequenceContext())));
+            // custom contexts shorter than the context size are padded with code 5:
+            assertSameFeatures(record, new GenomicContextMapper(25, r -> r.getGenomicSequenceContext().substring(3)),
+                    oneHotMappers(25, r -> r.getGenomicSequenceContext().substring(3)));
+        }
+    }
+
+    @Test
+    public void shorterContext() {
+        BaseInformationRecords.BaseInformation record = BaseInformationRecords.BaseInformation.newBuilder()
+                .setPosition(1).setReferenceIndex(0).setGenomicSequenceContext("ACGTA").build();
+        Class expected = exception(oneHotMappers(6, r -> trim(6, r.getGenomicSequenceContext())), record);
+        assertNotNull(expected);
+        assertEquals(expected, exception(new GenomicContextMapper(6), record));
+    }
+
+    private Class exception(FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> mapper,
+                            BaseInformationRecords.BaseInformation record) {
+        try {
+            mapper.prepareToNormalize(record, 0);
+            return null;
+        } catch (Throwable e) {
+            return e.getClass();
+        }
+    }
+
+    private void assertSameFeatures(BaseInformationRecords.BaseInformation record,
+                                    FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> mapper,
+                                    FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> expected) {
+        assertEquals(expected.numberOfFeatures(), mapper.numberOfFeatures());
+        INDArray expectedInputs = Nd4j.zeros(1, expected.numberOfFeatures());
+        INDArray inputs = Nd4j.zeros(1, mapper.numberOfFeatures());
+        expected.prepareToNormalize(record, 0);
+        expected.mapFeatures(record, expectedInputs, 0);
+        mapper.prepareToNormalize(record, 0);
+        mapper.mapFeatures(record, inputs, 0);
+        assertEquals(expectedInputs, inputs);
+        for (int featureIndex = 0; featureIndex < mapper.numberOfFeatures(); featureIndex++) {
+            assertEquals(expected.produceFeature(record, featureIndex), mapper.produceFeature(record, featureIndex), 0);
+        }
+    }
+
+    private FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> oneHotMappers(int contextSize,
+            Function<BaseInformationRecords.BaseInformationOrBuilder, String> function) {
+        OneHotBaseFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] mappers = new OneHotBaseFeatureMapper[contextSize];
+        for (int i = 0; i < contextSize; i++) {
+            mappers[i] = new OneHotBaseFeatureMapper<>(i, function);
+        }
+        return new ConcatFeatureMapper<>(mappers);
+    }
+
+    /**
+     * The trimming of GenomicContextMapper, with substring. Contexts shorter than trimLength fail like they do in
+     * GenomicContextMapper: with an AssertionError when assertions are enabled, or a StringIndexOutOfBoundsException.
+     */
+    private static String trim(int trimLength, String context) {
+        assert trimLength <= context.length();
+        if (context.length() == trimLength) {
+            return context;
+        }
+        int clipLength = (context.length() - trimLength) / 2;
+        return context.substring(clipLength, trimLength + clipLength);
+    }
+
     String[] records = {
                     "reference_index: 0\n" +
                             "position: 20913\n" +
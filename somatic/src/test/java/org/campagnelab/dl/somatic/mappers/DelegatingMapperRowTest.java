@@ -0,0 +1,91 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.framework.mappers.ConfigurableFeatureMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.MappingContext;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that mappers that forward to a delegate created in configure map rows like they produce features.
+ */
+public class DelegatingMapperRowTest {
+
+    @Test
+    public void rowsMatchProducedFeatures() {
+        BaseInformationRecords.BaseInformation record = record();
+        for (ConfigurableFeatureMapper mapper : new ConfigurableFeatureMapper[]{new FeatureMapperV19(),
+                new FeatureMapperV22(), new FeatureMapperV25()}) {
+            mapper.configure(properties());
+            @SuppressWarnings("unchecked")
+            FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> featureMapper = (FeatureMapper) mapper;
+            featureMapper.prepareToNormalize(record, 0);
+            float[] expected = new float[featureMapper.numberOfFeatures()];
+            for (int featureIndex = 0; featureIndex < expected.length; featureIndex++) {
+                expected[featureIndex] = featureMapper.produceFeature(record, featureIndex);
+            }
+            // the row starts after other features, like in a concatenation:
+            float[] row = new float[expected.length + 3];
+            featureMapper.mapFeatures(record, row, 3);
+            assertEquals(0, row[2], 0);
+            float[] mapped = new float[expected.length];
+            System.arraycopy(row, 3, mapped, 0, expected.length);
+            assertArrayEquals(mapper.getClass().getSimpleName(), expected, mapped, 0);
+            MappingContext.clear();
+        }
+    }
+
+    private Properties properties() {
+        Properties properties = new Properties();
+        for (String name : new String[]{"numVariationsInRead", "readMappingQuality.forward", "readMappingQuality.reverse",
+                "baseQuality.forward", "baseQuality.reverse", "insertSizes", "targetAlignedLength",
+                "queryAlignedLength", "queryPosition", "pairFlags"}) {
+            properties.setProperty("stats." + name + ".min", "0");
+            properties.setProperty("stats." + name + ".max", "100");
+        }
+        properties.setProperty("stats.genomicContextSize.min", "5");
+        properties.setProperty("stats.genomicContextSize.max", "5");
+        return properties;
+    }
+
+    private BaseInformationRecords.BaseInformation record() {
+        BaseInformationRecords.BaseInformation.Builder record = BaseInformationRecords.BaseInformation.newBuilder()
+                .setReferenceIndex(0)
+                .setPosition(1)
+                .setReferenceBase("A")
+                .setGenomicSequenceContext("CCAGG");
+        for (int sampleIndex = 0; sampleIndex < 2; sampleIndex++) {
+            BaseInformationRecords.SampleInfo.Builder sample = BaseInformationRecords.SampleInfo.newBuilder()
+                    .setIsTumor(sampleIndex == 1);
+            for (String base : new String[]{"A", "C", "T"}) {
+                BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder()
+                        .setMatchesReference("A".equals(base))
+                        .setFromSequence("A")
+                        .setToSequence(base)
+                        .setGenotypeCountForwardStrand(3 + sampleIndex)
+                        .setGenotypeCountReverseStrand(2)
+                        .setIsIndel(false);
+                count.addQualityScoresForwardStrand(value(30, 2));
+                count.addQualityScoresReverseStrand(value(20, 1));
+                count.addReadIndicesForwardStrand(value(10, 2));
+                count.addReadIndicesReverseStrand(value(40, 1));
+                count.addNumVariationsInReads(value(1, 3));
+                count.addReadMappingQualityForwardStrand(value(60, 2));
+                count.addReadMappingQualityReverseStrand(value(50, 1));
+                count.addInsertSizes(value(300, 3));
+                sample.addCounts(count);
+            }
+            record.addSamples(sample);
+        }
+        return record.build();
+    }
+
+    private BaseInformationRecords.NumberWithFrequency value(int number, int frequency) {
+        return BaseInformationRecords.NumberWithFrequency.newBuilder().setNumber(number).setFrequency(frequency).build();
+    }
+}
@@ -0,0 +1,84 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that density mappers built with primitive traversals produce the same features as mappers built with
+ * list functions.
+ */
+public class DensityMapperTest {
+
+    @Test
+    public void primitiveMatchesLists() {
+        BaseInformationRecords.BaseInformation record = record();
+        Properties properties = new Properties();
+        properties.setProperty("stats.baseQuality.forward.min", "0");
+        properties.setProperty("stats.baseQuality.forward.max", "40");
+        // range too large to precompute bins:
+        properties.setProperty("stats.insertSizes.min", "-100000");
+        properties.setProperty("stats.insertSizes.max", "100000");
+
+        DensityMapper lists = new DensityMapper("baseQuality.forward", 10, properties,
+                baseInformationOrBuilder -> TraversalHelper.forAllSampleCounts(baseInformationOrBuilder,
+                        BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList));
+        DensityMapper primitive = new DensityMapper("baseQuality.forward", 10, properties,
+                TraversalHelper.allSampleCounts(BaseInformationRecords.CountInfo::getQualityScoresForwardStrandList));
+        assertSameFeatures(record, lists, primitive);
+        // 10 and 30 in samples 0 and 1, with 45 ignored because it is larger than max:
+        assertEquals(2f / 6, primitive.produceFeature(record, 2), 0);
+        assertEquals(4f / 6, primitive.produceFeature(record, 7), 0);
+
+        lists = new DensityMapper("insertSizes", 10, properties,
+                baseInformationOrBuilder -> TraversalHelper.forSampleCounts(1, baseInformationOrBuilder,
+                        BaseInformationRecords.CountInfo::getInsertSizesList),
+                insertSize -> (float) Math.log10(insertSize));
+        primitive = new DensityMapper("insertSizes", 10, properties,
+                TraversalHelper.sampleCounts(1, BaseInformationRecords.CountInfo::getInsertSizesList),
+                insertSize -> (float) Math.log10(insertSize));
+        assertSameFeatures(record, lists, primitive);
+    }
+
+    private void assertSameFeatures(BaseInformationRecords.BaseInformation record, DensityMapper expected, DensityMapper mapper) {
+        expected.prepareToNormalize(record, 0);
+        mapper.prepareToNormalize(record, 0);
+        float[] expectedRow = new float[expected.numberOfFeatures()];
+        float[] row = new float[mapper.numberOfFeatures()];
+        expected.mapFeatures(record, expectedRow, 0);
+        mapper.mapFeatures(record, row, 0);
+        assertArrayEquals(expectedRow, row, 0);
+    }
+
+    private BaseInformationRecords.BaseInformation record() {
+        BaseInformationRecords.BaseInformation.Builder record = BaseInformationRecords.BaseInformation.newBuilder()
+                .setReferenceIndex(0)
+                .setPosition(1);
+        for (int sampleIndex = 0; sampleIndex < 2; sampleIndex++) {
+            BaseInformationRecords.CountInfo.Builder count = BaseInformationRecords.CountInfo.newBuilder()
+                    .setMatchesReference(true)
+                    .setFromSequence("A")
+                    .setToSequence("A")
+                    .setGenotypeCountForwardStrand(3)
+                    .setGenotypeCountReverseStrand(0)
+                    .setIsIndel(false);
+            count.addQualityScoresForwardStrand(value(10, 1));
+            count.addQualityScoresForwardStrand(value(30, 2));
+            count.addQualityScoresForwardStrand(value(45, 3));
+            count.addInsertSizes(value(-250, 1));
+            count.addInsertSizes(value(0, 1));
+            count.addInsertSizes(value(300 * (sampleIndex + 1), 4));
+            record.addSamples(BaseInformationRecords.SampleInfo.newBuilder().addCounts(count));
+        }
+        return record.build();
+    }
+
+    private BaseInformationRecords.NumberWithFrequency value(int number, int frequency) {
+        return BaseInformationRecords.NumberWithFrequency.newBuilder().setNumber(number).setFrequency(frequency).build();
+    }
+}
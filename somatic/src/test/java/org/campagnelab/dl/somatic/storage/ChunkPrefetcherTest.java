@@ -0,0 +1,84 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that prefetching readers return the records of the file in order.
+ */
+public class ChunkPrefetcherTest {
+    private static final String BASENAME = "test-results/prefetch/records";
+    private static final int NUM_RECORDS = 1000;
+
+    @Before
+    public void writeRecords() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        RecordWriter writer = new RecordWriter(BASENAME, 10);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.writeRecord(BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition(i).setReferenceIndex(1).setMutated(false).build());
+        }
+        writer.close();
+    }
+
+    @Test
+    public void sameAsSynchronous() throws IOException {
+        assertEquals(positions(new RecordReader(BASENAME, 0)), positions(new RecordReader(BASENAME, 3)));
+    }
+
+    @Test
+    public void counters() throws IOException {
+        RecordReader reader = new RecordReader(BASENAME + ".sbi", 2);
+        int count = 0;
+        for (BaseInformationRecords.BaseInformation record : reader) {
+            assertEquals(count++, record.getPosition());
+        }
+        assertEquals(NUM_RECORDS, count);
+        assertEquals(NUM_RECORDS, reader.getRecordsLoadedSoFar());
+        assertTrue(reader.getStallTimeMillis() >= 0);
+        assertTrue(reader.getNumStalls() <= 100);
+        assertEquals(null, reader.nextRecord());
+        reader.close();
+    }
+
+    @Test
+    public void iterateTwice() throws IOException {
+        for (int prefetchChunks : new int[]{0, 3}) {
+            RecordReader reader = new RecordReader(BASENAME + ".sbi", prefetchChunks);
+            for (int pass = 0; pass < 2; pass++) {
+                IntList positions = new IntArrayList();
+                for (BaseInformationRecords.BaseInformation record : reader) {
+                    positions.add(record.getPosition());
+                }
+                assertEquals(NUM_RECORDS, positions.size());
+                assertEquals(positions(new RecordReader(BASENAME, 0)), positions);
+            }
+            // a new pass can start before the previous one is complete:
+            reader.iterator().next();
+            assertEquals(0, reader.iterator().next().getPosition());
+            reader.close();
+        }
+    }
+
+    private IntList positions(RecordReader reader) throws IOException {
+        IntList positions = new IntArrayList();
+        BaseInformationRecords.BaseInformation record;
+        while ((record = reader.nextRecord()) != null) {
+            positions.add(record.getPosition());
+        }
+        reader.close();
+        assertEquals(NUM_RECORDS, positions.size());
+        return positions;
+    }
+}
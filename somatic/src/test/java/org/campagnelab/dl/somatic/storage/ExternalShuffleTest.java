@@ -0,0 +1,93 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArraySet;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Check that the external shuffle keeps every record and is reproducible.
+ */
+public class ExternalShuffleTest {
+    private static final String DIRECTORY = "test-results/shuffle";
+    private static final int NUM_RECORDS = 1000;
+
+    @Before
+    public void writeInput() throws IOException {
+        FileUtils.deleteQuietly(new File(DIRECTORY));
+        FileUtils.forceMkdir(new File(DIRECTORY));
+        for (int file = 0; file < 2; file++) {
+            // small chunks, so that input files are split into several byte ranges:
+            RecordWriter writer = new RecordWriter(DIRECTORY + "/input" + file, 10);
+            for (int i = file * NUM_RECORDS / 2; i < (file + 1) * NUM_RECORDS / 2; i++) {
+                writer.writeRecord(BaseInformationRecords.BaseInformation.newBuilder()
+                        .setPosition(i).setReferenceIndex(1).setMutated(i % 2 == 0).build());
+            }
+            writer.close();
+        }
+    }
+
+    @Test
+    public void keepsAllRecords() throws IOException {
+        IntList positions = shuffle(1, 3);
+        assertEquals(NUM_RECORDS, positions.size());
+        assertEquals(NUM_RECORDS, new IntArraySet(positions).size());
+        assertEquals(NUM_RECORDS, new RecordReader(DIRECTORY + "/output-1-3-1048576").getTotalRecords());
+        assertNotEquals("records must be shuffled", sorted(), positions);
+    }
+
+    @Test
+    public void independentOfThreads() throws IOException {
+        assertEquals(shuffle(1, 1), shuffle(1, 4));
+        assertNotEquals(shuffle(1, 2), shuffle(2, 2));
+    }
+
+    @Test
+    public void splitsBucketsLargerThanBudget() throws IOException {
+        // buckets of 100 records do not fit in 300 bytes, and are split before they are shuffled:
+        IntList positions = shuffle(1, 3, 300);
+        assertEquals(NUM_RECORDS, positions.size());
+        assertEquals(NUM_RECORDS, new IntArraySet(positions).size());
+        assertNotEquals("records must be shuffled", sorted(), positions);
+        assertEquals(positions, shuffle(1, 1, 300));
+        // split buckets are shuffled differently:
+        assertNotEquals(shuffle(1, 3), positions);
+    }
+
+    private IntList shuffle(long seed, int numThreads) throws IOException {
+        return shuffle(seed, numThreads, 1024 * 1024);
+    }
+
+    private IntList shuffle(long seed, int numThreads, long memoryBudget) throws IOException {
+        ExternalShuffle shuffle = new ExternalShuffle(seed, numThreads, memoryBudget, 100, 50);
+        shuffle.setSplitSize(512);
+        String output = DIRECTORY + "/output-" + seed + "-" + numThreads + "-" + memoryBudget;
+        shuffle.shuffle(Arrays.asList(DIRECTORY + "/input0.sbi", DIRECTORY + "/input1"), output,
+                new File(DIRECTORY + "/tmp"));
+        IntList positions = new IntArrayList();
+        RecordReader reader = new RecordReader(output);
+        for (BaseInformationRecords.BaseInformation record : reader) {
+            positions.add(record.getPosition());
+        }
+        reader.close();
+        return positions;
+    }
+
+    private IntList sorted() {
+        IntList positions = new IntArrayList();
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            positions.add(i);
+        }
+        return positions;
+    }
+}
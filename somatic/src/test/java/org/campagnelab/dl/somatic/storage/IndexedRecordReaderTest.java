@@ -0,0 +1,119 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.compression.MessageChunksWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that indexed lookups return the same records as a scan of the file.
+ */
+public class IndexedRecordReaderTest {
+    private static final String BASENAME = "test-results/indexed/records";
+
+    @Before
+    public void writeRecords() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        RecordWriter writer = new RecordWriter(BASENAME, 10);
+        for (int referenceIndex = 0; referenceIndex < 3; referenceIndex++) {
+            for (int position = 0; position < 1000; position += 5) {
+                writer.writeRecord(BaseInformationRecords.BaseInformation.newBuilder()
+                        .setPosition(position).setReferenceIndex(referenceIndex).setMutated(false).build());
+            }
+        }
+        writer.close();
+    }
+
+    @Test
+    public void region() throws IOException {
+        IndexedRecordReader reader = new IndexedRecordReader(BASENAME + ".sbi");
+        assertTrue(reader.getIndex().isSorted());
+        assertEquals(60, reader.getIndex().numChunks());
+        List<BaseInformationRecords.BaseInformation> records = reader.region(1, 102, 151);
+        assertEquals(10, records.size());
+        assertEquals(105, records.get(0).getPosition());
+        assertEquals(150, records.get(9).getPosition());
+        for (BaseInformationRecords.BaseInformation record : records) {
+            assertEquals(1, record.getReferenceIndex());
+        }
+        assertTrue(new File(BASENAME + RecordIndex.EXTENSION).exists());
+    }
+
+    @Test
+    public void sites() throws IOException {
+        LongOpenHashSet sites = new LongOpenHashSet();
+        sites.add(RecordIndex.key(0, 0));
+        sites.add(RecordIndex.key(2, 995));
+        sites.add(RecordIndex.key(1, 500));
+        // not in the file:
+        sites.add(RecordIndex.key(1, 501));
+        List<BaseInformationRecords.BaseInformation> records = new IndexedRecordReader(BASENAME).sites(sites);
+        assertEquals(3, records.size());
+        assertEquals(RecordIndex.key(0, 0), RecordIndex.key(records.get(0)));
+        assertEquals(RecordIndex.key(1, 500), RecordIndex.key(records.get(1)));
+        assertEquals(RecordIndex.key(2, 995), RecordIndex.key(records.get(2)));
+    }
+
+    @Test
+    public void indexKeptInMemoryWhenItCannotBeSaved() throws IOException {
+        // a directory in place of the index can neither be read nor written:
+        File indexFile = new File(BASENAME + RecordIndex.EXTENSION);
+        FileUtils.forceMkdir(indexFile);
+        List<BaseInformationRecords.BaseInformation> records = new IndexedRecordReader(BASENAME).region(2, 0, 9);
+        assertEquals(2, records.size());
+        assertTrue(indexFile.isDirectory());
+    }
+
+    @Test
+    public void emptyChunksAreSkipped() throws IOException {
+        // chunks out of order, separated by an empty chunk:
+        String withEmptyChunk = BASENAME + "-empty-chunk";
+        try (FileOutputStream output = new FileOutputStream(withEmptyChunk + ".sbi")) {
+            MessageChunksWriter writer = new MessageChunksWriter(output);
+            BaseInformationRecords.BaseInformationCollection.Builder chunk = BaseInformationRecords.BaseInformationCollection.newBuilder();
+            chunk.addRecords(BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition(50).setReferenceIndex(0).setMutated(false));
+            writer.flush(chunk);
+            chunk.clear();
+            writer.flush(chunk);
+            chunk.addRecords(BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition(10).setReferenceIndex(0).setMutated(false));
+            writer.flush(chunk);
+            writer.close(chunk);
+        }
+        RecordIndex index = RecordIndex.build(withEmptyChunk);
+        assertEquals(2, index.numChunks());
+        assertFalse(index.isSorted());
+        LongOpenHashSet sites = new LongOpenHashSet();
+        sites.add(RecordIndex.key(0, 10));
+        assertEquals(1, new IndexedRecordReader(withEmptyChunk).sites(sites).size());
+    }
+
+    @Test
+    public void detectUnsortedFiles() throws IOException {
+        assertTrue(RecordIndex.startsSorted(BASENAME, 1000));
+        String unsorted = BASENAME + "-unsorted";
+        RecordWriter writer = new RecordWriter(unsorted, 10);
+        for (int i = 0; i < 100; i++) {
+            writer.writeRecord(BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition((i * 37) % 100).setReferenceIndex(0).setMutated(false).build());
+        }
+        writer.close();
+        assertFalse(RecordIndex.startsSorted(unsorted, 1000));
+        // the first records look sorted:
+        assertTrue(RecordIndex.startsSorted(unsorted, 3));
+        assertFalse(RecordIndex.loadOrBuild(unsorted).isSorted());
+    }
+}
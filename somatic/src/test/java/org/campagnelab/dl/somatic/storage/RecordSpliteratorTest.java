@@ -0,0 +1,64 @@
+package org.campagnelab.dl.somatic.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Check that parallel streams over a record file see every record once, in file order.
+ */
+public class RecordSpliteratorTest {
+    private static final String BASENAME = "test-results/spliterator/records";
+    private static final int NUM_RECORDS = 1000;
+
+    @Before
+    public void writeRecords() throws IOException {
+        FileUtils.deleteQuietly(new File(BASENAME).getParentFile());
+        FileUtils.forceMkdir(new File(BASENAME).getParentFile());
+        // small chunks, so that the file can be split:
+        RecordWriter writer = new RecordWriter(BASENAME, 10);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            writer.writeRecord(BaseInformationRecords.BaseInformation.newBuilder()
+                    .setPosition(i).setReferenceIndex(1).setMutated(false).build());
+        }
+        writer.close();
+    }
+
+    @Test
+    public void parallelInFileOrder() throws IOException {
+        RecordReader reader = new RecordReader(BASENAME);
+        List<Integer> positions = StreamSupport.stream(reader.spliterator(64), true)
+                .map(BaseInformationRecords.BaseInformation::getPosition).collect(Collectors.toList());
+        reader.close();
+        assertEquals(NUM_RECORDS, positions.size());
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            assertEquals(i, positions.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void splitsCoverFile() throws IOException {
+        RecordReader reader = new RecordReader(BASENAME + ".sbi");
+        Spliterator<BaseInformationRecords.BaseInformation> suffix = reader.spliterator(64);
+        assertEquals(NUM_RECORDS, suffix.estimateSize());
+        Spliterator<BaseInformationRecords.BaseInformation> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        int[] counts = new int[2];
+        prefix.forEachRemaining(record -> counts[0]++);
+        suffix.forEachRemaining(record -> counts[1]++);
+        assertEquals(NUM_RECORDS, counts[0] + counts[1]);
+        assertEquals(NUM_RECORDS, reader.stream(true).unordered().count());
+        reader.close();
+    }
+}